@@ -13,8 +13,10 @@ fi
 for ((i=1; i<=${num}; i++))
 do
   echo "Iteration: $i"
-  aws s3 cp $file_path1 $s3_base_path/$i/$(date +%s%3)/ &
-  aws s3 cp $file_path2 $s3_base_path/$i/$(date +%s%3)/ &
+  # One prefix per iteration, so both files land under it even if the clock ticks between the copies
+  prefix=$s3_base_path/$i/$(date +%s%3N)
+  aws s3 cp $file_path1 $prefix/ &
+  aws s3 cp $file_path2 $prefix/ &
 done
 
 wait
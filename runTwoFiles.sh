@@ -1 +1 @@
-mvn clean compile exec:java -Dexec.mainClass="com.sample.transcribestreamin.multichannel.TranscribeStreamingTwoFilesMain" -Dexec.args="$1 $2"
\ No newline at end of file
+mvn clean compile exec:java -Dexec.mainClass="com.sample.transcribestreamin.multichannel.TranscribeStreamingTwoFilesMain" -Dexec.args="$*"
\ No newline at end of file
@@ -0,0 +1,113 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.openjdk.jmh.annotations.*;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import software.amazon.awssdk.services.transcribestreaming.model.LanguageCode;
+import software.amazon.awssdk.services.transcribestreaming.model.MediaEncoding;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning interleaved audio into one {@link AudioEvent}: reading a chunk into a pooled buffer and wrapping
+ * it for the SDK. Buffers are recycled after every operation, as the subscription does once the event is sent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AudioEventSubscriptionBenchmark {
+
+    @Param({"1024", "8192"})
+    int chunkSizeInBytes;
+
+    private ExecutorService executor;
+    private ByteToAudioEventSubscription subscription;
+
+    @Setup
+    public void setUp() {
+        InterleaveInputStream stream = new InterleaveInputStream(
+                new LoopingInputStream(LoopingInputStream.audio(10, 1)),
+                new LoopingInputStream(LoopingInputStream.audio(10, 2)));
+        ByteToAudioEventSubscription.StreamReader reader = new ByteToAudioEventSubscription.StreamReader() {
+            @Override
+            public int read(byte[] b) throws IOException {
+                return stream.read(b);
+            }
+
+            @Override
+            public int read(ByteBuffer b) throws IOException {
+                return stream.read(b);
+            }
+
+            @Override
+            public StartStreamTranscriptionRequest getTranscriptionRequest() {
+                return StartStreamTranscriptionRequest.builder()
+                        .languageCode(LanguageCode.EN_US.toString())
+                        .mediaEncoding(MediaEncoding.PCM)
+                        .mediaSampleRateHertz(16000)
+                        .enableChannelIdentification(true)
+                        .numberOfChannels(2)
+                        .build();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public String label() {
+                return "benchmark";
+            }
+        };
+        executor = Executors.newSingleThreadExecutor();
+        subscription = new ByteToAudioEventSubscription(new NoopSubscriber(), executor, chunkSizeInBytes, reader);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public ByteBuffer getNextEvent() {
+        ByteBuffer buffer = subscription.getNextEvent();
+        subscription.recycle(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public AudioEvent getNextEventAndBuild() {
+        ByteBuffer buffer = subscription.getNextEvent();
+        AudioEvent event = subscription.audioEventFromBuffer(buffer);
+        subscription.recycle(buffer);
+        return event;
+    }
+
+    private static class NoopSubscriber implements Subscriber<AudioStream> {
+        @Override
+        public void onSubscribe(Subscription s) {
+        }
+
+        @Override
+        public void onNext(AudioStream audioStream) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.sample.transcribestreamin.multichannel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Speech-like audio for benchmarks whose cost depends on the signal: voiced bursts of a few harmonics under a
+ * phrase envelope, separated by low-level noise. Kept with the benchmarks so they do not depend on test sources.
+ */
+final class BenchmarkAudio {
+    private BenchmarkAudio() {
+    }
+
+    /**
+     * @param seed seed of the bursts and pauses, so channels talk at different times
+     * @return 16 bit little endian samples
+     */
+    static byte[] speech(int sampleRate, double seconds, long seed) {
+        int samples = (int) (sampleRate * seconds);
+        ByteBuffer out = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(seed);
+        int i = 0;
+        boolean voiced = random.nextBoolean();
+        while (i < samples) {
+            double length = voiced ? 1 + 3 * random.nextDouble() : 0.3 + 1.7 * random.nextDouble();
+            int end = Math.min(samples, i + (int) (length * sampleRate));
+            double pitch = 100 + 150 * random.nextDouble();
+            double phase = 0;
+            for (int start = i; i < end; i++) {
+                double noise = random.nextGaussian();
+                double sample;
+                if (voiced) {
+                    double envelope = Math.sin(Math.PI * (i - start) / (end - start));
+                    phase += 2 * Math.PI * pitch / sampleRate;
+                    sample = envelope * (3000 * Math.sin(phase) + 1500 * Math.sin(2 * phase) + 700 * Math.sin(3 * phase))
+                            + 200 * noise;
+                } else {
+                    sample = 30 * noise;
+                }
+                out.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sample))));
+            }
+            voiced = !voiced;
+        }
+        return out.array();
+    }
+}
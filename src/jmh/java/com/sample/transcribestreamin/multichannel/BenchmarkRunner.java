@@ -0,0 +1,48 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks once per session count with the GC profiler attached, so each run reports throughput and
+ * allocation rate ({@code gc.alloc.rate.norm} is bytes allocated per operation). Every benchmark state is
+ * {@code Scope.Thread}, so a JMH thread stands for one concurrent session.
+ * <p>
+ * Usage: {@code BenchmarkRunner [regex] [-t 1,8,64]}. Results are also written to
+ * {@code target/jmh-result-<threads>.json} for comparison between builds.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = ".*";
+        List<Integer> sessionCounts = new ArrayList<>(List.of(1, Runtime.getRuntime().availableProcessors()));
+        for (int i = 0; i < args.length; i++) {
+            if ("-t".equals(args[i]) && i + 1 < args.length) {
+                sessionCounts.clear();
+                for (String count : args[++i].split(",")) {
+                    sessionCounts.add(Integer.parseInt(count.trim()));
+                }
+            } else {
+                include = args[i];
+            }
+        }
+
+        for (int sessions : sessionCounts) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(sessions)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-result-" + sessions + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding one 100 ms chunk of 16 kHz audio as a FLAC frame, the work {@link FlacEncodingStreamReader}
+ * adds per chunk. {@code ops/s * 0.1} is the real-time factor one session reaches on one core.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlacEncoderBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAMES = SAMPLE_RATE / 10;
+
+    @Param({"1", "2"})
+    int channels;
+
+    private FlacEncoder encoder;
+    private ByteBuffer pcm;
+
+    @Setup
+    public void setUp() {
+        encoder = new FlacEncoder(SAMPLE_RATE, channels);
+        byte[] mono = BenchmarkAudio.speech(SAMPLE_RATE, 0.1, 1);
+        pcm = ByteBuffer.allocate(FRAMES * channels * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < FRAMES; i++) {
+            short sample = (short) ((mono[2 * i] & 0xff) | mono[2 * i + 1] << 8);
+            for (int c = 0; c < channels; c++) {
+                pcm.putShort(sample);
+            }
+        }
+    }
+
+    @Benchmark
+    public int encodeChunk() {
+        encoder.encodeFrame(pcm, 0, FRAMES);
+        return encoder.length();
+    }
+}
@@ -0,0 +1,57 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of interleaving one chunk. At 16 kHz, 16 bit, 2 channels a 1024 byte chunk holds 16 ms of audio, so
+ * {@code ops/s * 0.016} is the real-time factor one session reaches on one core.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterleaveBenchmark {
+
+    @Param({"2", "4"})
+    int channels;
+
+    @Param({"1024", "8192"})
+    int chunkSizeInBytes;
+
+    private InterleaveInputStream stream;
+    private byte[] chunk;
+    private ByteBuffer directChunk;
+
+    @Setup
+    public void setUp() {
+        List<InputStream> sources = new ArrayList<>();
+        for (int c = 0; c < channels; c++) {
+            sources.add(new LoopingInputStream(LoopingInputStream.audio(10, c)));
+        }
+        stream = new InterleaveInputStream(sources, 16);
+        chunk = new byte[chunkSizeInBytes];
+        directChunk = ByteBuffer.allocateDirect(chunkSizeInBytes);
+    }
+
+    @Benchmark
+    public byte[] readArray() throws IOException {
+        stream.read(chunk);
+        return chunk;
+    }
+
+    @Benchmark
+    public ByteBuffer readDirectBuffer() throws IOException {
+        directChunk.clear();
+        stream.read(directChunk);
+        return directChunk;
+    }
+}
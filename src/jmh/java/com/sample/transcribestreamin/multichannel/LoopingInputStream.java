@@ -0,0 +1,42 @@
+package com.sample.transcribestreamin.multichannel;
+
+import java.io.InputStream;
+
+/**
+ * Endless stream over a fixed block of audio, so benchmarks never reach end of stream and never reopen files.
+ */
+class LoopingInputStream extends InputStream {
+    private final byte[] data;
+    private int position;
+
+    LoopingInputStream(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int n = Math.min(len, data.length - position);
+        System.arraycopy(data, position, b, off, n);
+        position = (position + n) % data.length;
+        return n;
+    }
+
+    @Override
+    public int read() {
+        int b = data[position] & 0xff;
+        position = (position + 1) % data.length;
+        return b;
+    }
+
+    /**
+     * @param seconds length of the audio
+     * @param seed    seed of the pseudo random samples, so channels differ
+     * @return 16 bit little endian samples at 16 kHz
+     */
+    static byte[] audio(int seconds, int seed) {
+        byte[] audio = new byte[seconds * 16000 * 2];
+        java.util.Random random = new java.util.Random(seed);
+        random.nextBytes(audio);
+        return audio;
+    }
+}
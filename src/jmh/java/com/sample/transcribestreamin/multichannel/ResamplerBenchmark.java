@@ -0,0 +1,47 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of resampling one block of {@link AudioDspStreamReader#BLOCK_FRAMES} two channel frames. At 28.8 kHz a
+ * block holds 36 ms of audio, so {@code ops/s * 0.036} is the real-time factor one session reaches on one core.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResamplerBenchmark {
+
+    @Param({"28800", "44100", "48000"})
+    int inputRate;
+
+    @Param({"8000", "16000"})
+    int outputRate;
+
+    private PolyphaseResampler resampler;
+    private short[] in;
+    private short[] out;
+
+    @Setup
+    public void setUp() {
+        int channels = 2;
+        resampler = new PolyphaseResampler(inputRate, outputRate, channels);
+        in = new short[AudioDspStreamReader.BLOCK_FRAMES * channels];
+        Random random = new Random(1);
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (short) (random.nextGaussian() * 3000);
+        }
+        out = new short[resampler.maxOutputFrames(AudioDspStreamReader.BLOCK_FRAMES) * channels];
+    }
+
+    @Benchmark
+    public short[] resampleBlock() {
+        resampler.process(in, AudioDspStreamReader.BLOCK_FRAMES, out);
+        return out;
+    }
+}
@@ -0,0 +1,139 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.transcribestreaming.model.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading one 100 ms chunk of two channel 16 kHz speech with pauses through the
+ * {@link SilenceGatingStreamReader}. Skipped silence is read and classified too, so {@code ops/s * 0.1} is a lower
+ * bound on the real-time factor one session reaches on one core.
+ * <p>
+ * {@link #retimeEvent} is the cost {@link SilenceGatingTranscriptionBehavior} adds to each result event once the
+ * session has skipped silence: mapping a final result on one channel and a partial result on the other, 20 words
+ * each, back to recording time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SilenceGatingBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+
+    private SilenceGatingStreamReader reader;
+    private ByteBuffer chunk;
+    private SilenceGatingTranscriptionBehavior behavior;
+    private TranscriptResultStream delivered;
+    private TranscriptEvent event;
+
+    @Setup
+    public void setUp() throws IOException {
+        reader = new SilenceGatingStreamReader(source(1, 2), 300, 1000);
+        chunk = ByteBuffer.allocate(SAMPLE_RATE / 10 * 4);
+        // Both channels pause together here, so a minute of audio leaves cuts before the results at 20 seconds.
+        SilenceGatingStreamReader gated = new SilenceGatingStreamReader(source(3, 3), 300, 200);
+        ByteBuffer minute = ByteBuffer.allocate(SAMPLE_RATE * 60 * 4);
+        while (minute.hasRemaining() && gated.read(minute) > 0) {
+            // Read until the minute is full.
+        }
+        behavior = new SilenceGatingTranscriptionBehavior(new StreamTranscriptionBehavior() {
+            @Override
+            public void onStream(TranscriptResultStream e) {
+                delivered = e;
+            }
+
+            @Override
+            public void onError(Throwable e) {
+            }
+
+            @Override
+            public void onResponse(StartStreamTranscriptionResponse r) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, gated);
+        event = TranscriptEvent.builder()
+                .transcript(Transcript.builder().results(result("ch_0", false), result("ch_1", true)).build())
+                .build();
+    }
+
+    private static ByteToAudioEventSubscription.StreamReader source(long agentSeed, long callerSeed) {
+        InterleaveInputStream stream = new InterleaveInputStream(
+                new LoopingInputStream(BenchmarkAudio.speech(SAMPLE_RATE, 30, agentSeed)),
+                new LoopingInputStream(BenchmarkAudio.speech(SAMPLE_RATE, 30, callerSeed)));
+        return new ByteToAudioEventSubscription.StreamReader() {
+            @Override
+            public int read(byte[] b) throws IOException {
+                return stream.read(b);
+            }
+
+            @Override
+            public int read(ByteBuffer b) throws IOException {
+                return stream.read(b);
+            }
+
+            @Override
+            public StartStreamTranscriptionRequest getTranscriptionRequest() {
+                return StartStreamTranscriptionRequest.builder()
+                        .languageCode(LanguageCode.EN_US.toString())
+                        .mediaEncoding(MediaEncoding.PCM)
+                        .mediaSampleRateHertz(SAMPLE_RATE)
+                        .enableChannelIdentification(true)
+                        .numberOfChannels(2)
+                        .build();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public String label() {
+                return "benchmark";
+            }
+        };
+    }
+
+    private static Result result(String channel, boolean partial) {
+        List<Item> items = new ArrayList<>();
+        double time = 20.0;
+        for (int i = 0; i < 20; i++) {
+            items.add(Item.builder()
+                    .content("word")
+                    .type(ItemType.PRONUNCIATION)
+                    .startTime(time)
+                    .endTime(time + 0.3)
+                    .build());
+            time += 0.35;
+        }
+        return Result.builder()
+                .resultId(channel)
+                .channelId(channel)
+                .isPartial(partial)
+                .startTime(20.0)
+                .endTime(time)
+                .alternatives(Alternative.builder().items(items).build())
+                .build();
+    }
+
+    @Benchmark
+    public int readChunk() throws IOException {
+        chunk.clear();
+        return reader.read(chunk);
+    }
+
+    @Benchmark
+    public TranscriptResultStream retimeEvent() {
+        behavior.onStream(event);
+        return delivered;
+    }
+}
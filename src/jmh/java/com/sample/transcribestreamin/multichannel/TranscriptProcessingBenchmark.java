@@ -0,0 +1,97 @@
+package com.sample.transcribestreamin.multichannel;
+
+import ch.qos.logback.classic.Level;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.transcribestreaming.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handling one {@link TranscriptEvent} in {@link StreamTranscriptionBehaviorImpl#onStream}. Events look
+ * like what the service sends for a two channel call with speaker labels: a final result on one channel and a
+ * partial result on the other, about 20 words each, and two final results on the same channel, which an event
+ * may carry once a channel finalizes several segments at once. Logging is switched off so the numbers cover
+ * result handling, not console output; with it off, handling an event should not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranscriptProcessingBenchmark {
+    private static final String[] WORDS = ("thanks for calling this is the support line how can i help you today "
+            + "i would like to check the status of my order placed last week").split(" ");
+
+    @Param({"20"})
+    int wordsPerResult;
+
+    private StreamTranscriptionBehaviorImpl behavior;
+    private TranscriptEvent finalAndPartial;
+    private TranscriptEvent partialOnly;
+    private TranscriptEvent finalsOnOneChannel;
+
+    @Setup
+    public void setUp() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(StreamTranscriptionBehaviorImpl.class)).setLevel(Level.OFF);
+        behavior = new StreamTranscriptionBehaviorImpl("benchmark");
+        finalAndPartial = event(result("ch_0", false, 0), result("ch_1", true, 7));
+        partialOnly = event(result("ch_0", true, 3), result("ch_1", true, 11));
+        finalsOnOneChannel = event(result("ch_0", false, 0), result("ch_0", false, 5));
+    }
+
+    @Benchmark
+    public StreamTranscriptionBehaviorImpl finalAndPartialResult() {
+        behavior.onStream(finalAndPartial);
+        return behavior;
+    }
+
+    @Benchmark
+    public StreamTranscriptionBehaviorImpl partialResults() {
+        behavior.onStream(partialOnly);
+        return behavior;
+    }
+
+    @Benchmark
+    public StreamTranscriptionBehaviorImpl finalResultsOnOneChannel() {
+        behavior.onStream(finalsOnOneChannel);
+        return behavior;
+    }
+
+    private static TranscriptEvent event(Result... results) {
+        return TranscriptEvent.builder()
+                .transcript(Transcript.builder().results(results).build())
+                .build();
+    }
+
+    private Result result(String channel, boolean partial, int firstWord) {
+        List<Item> items = new ArrayList<>();
+        StringBuilder transcript = new StringBuilder();
+        double time = 1.0;
+        for (int i = 0; i < wordsPerResult; i++) {
+            String word = WORDS[(firstWord + i) % WORDS.length];
+            items.add(Item.builder()
+                    .content(word)
+                    .type(ItemType.PRONUNCIATION)
+                    .speaker(String.valueOf(i / 8 % 2))
+                    .startTime(time)
+                    .endTime(time + 0.3)
+                    .confidence(0.95)
+                    .stable(!partial)
+                    .build());
+            transcript.append(i == 0 ? "" : " ").append(word);
+            time += 0.35;
+        }
+        return Result.builder()
+                .resultId(channel + "-" + firstWord)
+                .channelId(channel)
+                .isPartial(partial)
+                .startTime(1.0)
+                .endTime(time)
+                .alternatives(Alternative.builder().transcript(transcript.toString()).items(items).build())
+                .build();
+    }
+}
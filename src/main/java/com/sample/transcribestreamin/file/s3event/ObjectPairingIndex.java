@@ -0,0 +1,345 @@
+package com.sample.transcribestreamin.file.s3event;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Groups the channel objects uploaded under the same prefix until all of them have arrived.
+ * <p>
+ * A group is complete when {@code pairing.objectsPerPrefix} distinct objects have arrived, or, when
+ * {@code pairing.manifestName} is set, when every object listed in the manifest uploaded under the prefix has
+ * arrived. Groups are updated with {@link ConcurrentHashMap#compute}, so events for the same prefix handled at
+ * the same time cannot both start a group, and repeated events for the same object are ignored.
+ * <p>
+ * Incomplete groups are orphans once they are older than {@code pairing.ttlSeconds}, or when more than
+ * {@code pairing.maxPending} groups are pending, oldest first. Their future fails with a
+ * {@link TimeoutException}, which releases the messages waiting on them.
+ * <p>
+ * Completed groups are remembered for the same time and number, so an event delivered again for one of their
+ * objects joins the completed group, and its message is deleted with the others, instead of starting a group
+ * that would never complete. A group whose transcription fails is forgotten, so redelivered events pair again.
+ */
+@Component
+public class ObjectPairingIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(ObjectPairingIndex.class);
+    private final int objectsPerPrefix;
+    private final String manifestName;
+    private final long ttlNanos;
+    private final int maxPending;
+    private final ConcurrentHashMap<String, Group> pending = new ConcurrentHashMap<>();
+    /**
+     * Groups in creation order, so the oldest is evicted first. Completed groups are skipped when they reach
+     * the head.
+     */
+    private final ConcurrentLinkedQueue<Group> created = new ConcurrentLinkedQueue<>();
+    /**
+     * Completed groups by prefix, oldest completion first. Guarded by its own lock.
+     */
+    private final LinkedHashMap<String, Group> recentlyCompleted = new LinkedHashMap<>();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+    private final ScheduledExecutorService sweeper;
+    private final Timer pairingWait;
+
+    @Autowired
+    public ObjectPairingIndex(@Value("${pairing.objectsPerPrefix:2}") int objectsPerPrefix,
+                              @Value("${pairing.manifestName:}") String manifestName,
+                              @Value("${pairing.ttlSeconds:3600}") long ttlSeconds,
+                              @Value("${pairing.maxPending:10000}") int maxPending,
+                              MeterRegistry registry) {
+        this.objectsPerPrefix = Math.max(1, objectsPerPrefix);
+        this.manifestName = manifestName == null || manifestName.isEmpty() ? null : manifestName;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.maxPending = Math.max(1, maxPending);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pairing-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, ttlSeconds / 10);
+        sweeper.scheduleWithFixedDelay(this::evictExpired, period, period, TimeUnit.SECONDS);
+        this.pairingWait = Timer.builder("pairing.wait")
+                .description("Time from the first object of a prefix to the last one it waits for")
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("pairing.pending", this, ObjectPairingIndex::pendingGroups)
+                .description("Prefixes waiting for more objects")
+                .register(registry);
+        FunctionCounter.builder("pairing.groups", this, ObjectPairingIndex::completedGroups)
+                .tag("outcome", "completed")
+                .register(registry);
+        FunctionCounter.builder("pairing.groups", this, ObjectPairingIndex::expiredGroups)
+                .tag("outcome", "expired")
+                .register(registry);
+        FunctionCounter.builder("pairing.groups", this, ObjectPairingIndex::overflowedGroups)
+                .tag("outcome", "overflowed")
+                .register(registry);
+        FunctionCounter.builder("pairing.duplicates", this, ObjectPairingIndex::duplicateEvents)
+                .description("Events for objects of groups already complete")
+                .register(registry);
+    }
+
+    /**
+     * @return true if objects with this file name are manifests rather than audio
+     */
+    public boolean isManifest(String fileName) {
+        return manifestName != null && manifestName.equals(fileName);
+    }
+
+    /**
+     * Adds an audio object to the group of its prefix.
+     */
+    public Group add(String prefix, String bucket, String objectKey) {
+        return update(prefix, bucket, group -> group.keys.add(objectKey), group -> group.keys.contains(objectKey));
+    }
+
+    /**
+     * Sets the objects a group expects, in channel order, from the manifest uploaded under its prefix.
+     */
+    public Group expect(String prefix, String bucket, List<String> objectKeys) {
+        return update(prefix, bucket, group -> group.expected = new ArrayList<>(objectKeys), group -> group.expected != null);
+    }
+
+    /**
+     * @param duplicate true if a completed group already has what the change adds
+     */
+    private Group update(String prefix, String bucket, Consumer<Group> change, Predicate<Group> duplicate) {
+        Group[] result = new Group[1];
+        boolean[] completedNow = new boolean[1];
+        pending.compute(prefix, (key, group) -> {
+            if (group == null) {
+                Group done = recentlyCompleted(prefix);
+                if (done != null && done.bucket.equals(bucket) && done.contains(duplicate)) {
+                    duplicates.incrementAndGet();
+                    result[0] = done;
+                    return null;
+                }
+                group = new Group(prefix, bucket);
+                created.add(group);
+            }
+            synchronized (group) {
+                change.accept(group);
+            }
+            result[0] = group;
+            completedNow[0] = group.isComplete();
+            if (completedNow[0]) {
+                remember(group);
+            }
+            return completedNow[0] ? null : group;
+        });
+        Group group = result[0];
+        if (completedNow[0]) {
+            completed.incrementAndGet();
+            pairingWait.record(System.nanoTime() - group.createdAt, TimeUnit.NANOSECONDS);
+            group.result.whenComplete((r, e) -> {
+                if (e != null) {
+                    forget(group);
+                }
+            });
+        } else if (!group.isComplete()) {
+            evictOverflow();
+        }
+        return group;
+    }
+
+    private Group recentlyCompleted(String prefix) {
+        synchronized (recentlyCompleted) {
+            return recentlyCompleted.get(prefix);
+        }
+    }
+
+    private void remember(Group group) {
+        synchronized (recentlyCompleted) {
+            group.completedAt = System.nanoTime();
+            // Re-inserted, so that iteration order stays the order of completion.
+            recentlyCompleted.remove(group.prefix);
+            recentlyCompleted.put(group.prefix, group);
+            Iterator<Group> oldest = recentlyCompleted.values().iterator();
+            while (recentlyCompleted.size() > maxPending) {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+
+    private void forget(Group group) {
+        synchronized (recentlyCompleted) {
+            recentlyCompleted.remove(group.prefix, group);
+        }
+    }
+
+    private void forgetExpired(long now) {
+        synchronized (recentlyCompleted) {
+            Iterator<Group> oldest = recentlyCompleted.values().iterator();
+            while (oldest.hasNext() && now - oldest.next().completedAt >= ttlNanos) {
+                oldest.remove();
+            }
+        }
+    }
+
+    private boolean isComplete(Group group) {
+        if (manifestName != null) {
+            return group.expected != null && group.keys.containsAll(group.expected);
+        }
+        return group.keys.size() >= objectsPerPrefix;
+    }
+
+    private void evictOverflow() {
+        while (pending.size() > maxPending) {
+            Group oldest = created.poll();
+            if (oldest == null) {
+                return;
+            }
+            if (pending.remove(oldest.prefix, oldest)) {
+                overflowed.incrementAndGet();
+                orphan(oldest, "more than " + maxPending + " prefixes pending");
+            }
+        }
+    }
+
+    void evictExpired() {
+        long now = System.nanoTime();
+        forgetExpired(now);
+        Group oldest;
+        while ((oldest = created.peek()) != null) {
+            if (pending.get(oldest.prefix) != oldest) {
+                created.remove(oldest); // completed or already evicted
+            } else if (now - oldest.createdAt < ttlNanos) {
+                return;
+            } else if (pending.remove(oldest.prefix, oldest)) {
+                created.remove(oldest);
+                expired.incrementAndGet();
+                orphan(oldest, "incomplete after " + TimeUnit.NANOSECONDS.toSeconds(ttlNanos) + " s");
+            }
+        }
+    }
+
+    private static void orphan(Group group, String reason) {
+        LOG.warn("Dropping unpaired objects {} under {}: {}", group.keys(), group.prefix, reason);
+        group.result.completeExceptionally(new TimeoutException("Unpaired objects under " + group.prefix + ": " + reason));
+    }
+
+    /**
+     * @return number of prefixes waiting for more objects
+     */
+    public int pendingGroups() {
+        return pending.size();
+    }
+
+    public long completedGroups() {
+        return completed.get();
+    }
+
+    /**
+     * @return number of groups dropped because they were not complete within the TTL
+     */
+    public long expiredGroups() {
+        return expired.get();
+    }
+
+    /**
+     * @return number of groups dropped because too many prefixes were pending
+     */
+    public long overflowedGroups() {
+        return overflowed.get();
+    }
+
+    /**
+     * @return number of events for objects of groups that had already completed
+     */
+    public long duplicateEvents() {
+        return duplicates.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * Objects uploaded under one prefix. Fields are only changed inside {@link ConcurrentHashMap#compute}, holding
+     * the group's lock.
+     */
+    public final class Group {
+        private final String prefix;
+        private final String bucket;
+        private final long createdAt = System.nanoTime();
+        private long completedAt;
+        private final Set<String> keys = new LinkedHashSet<>();
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private List<String> expected;
+
+        private Group(String prefix, String bucket) {
+            this.prefix = prefix;
+            this.bucket = bucket;
+        }
+
+        public synchronized boolean isComplete() {
+            return ObjectPairingIndex.this.isComplete(this);
+        }
+
+        private synchronized boolean contains(Predicate<Group> duplicate) {
+            return duplicate.test(this);
+        }
+
+        /**
+         * @return true for exactly one caller once the group is complete; that caller starts the transcription
+         */
+        public boolean tryStart() {
+            return isComplete() && started.compareAndSet(false, true);
+        }
+
+        public String bucket() {
+            return bucket;
+        }
+
+        /**
+         * @return the object keys in channel order: manifest order, or sorted by key without a manifest
+         */
+        public synchronized List<String> keys() {
+            if (expected != null) {
+                return Collections.unmodifiableList(expected);
+            }
+            List<String> sorted = new ArrayList<>(keys);
+            Collections.sort(sorted);
+            return sorted;
+        }
+
+        /**
+         * @return completes when the group has been transcribed; the messages of its objects wait on it
+         */
+        public CompletableFuture<Void> result() {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.sample.transcribestreamin.file.s3event;
+
+import io.micrometer.core.instrument.Timer;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads an S3 object as concurrent byte range GETs of {@code partSize} bytes, returned in order.
+ * <p>
+ * At most {@code parallelism} parts are held at a time, each in a slot of a ring of reusable buffers: part
+ * {@code p} goes to slot {@code p % parallelism}, and its GET is only sent once the consumer has read the part
+ * that held the slot before. A subscription without demand stops reading, so it also stops new GETs. The first
+ * part gives the object size and ETag; the other parts are requested with If-Match so a concurrent overwrite
+ * fails the read instead of mixing two versions.
+ * <p>
+ * One consumer thread at a time.
+ */
+public class S3RangedInputStream extends InputStream {
+    private static final int RANGE_NOT_SATISFIABLE = 416;
+    private final S3AsyncClient client;
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+    private final Part[] slots;
+    private final Timer partTimer;
+    /**
+     * Number of parts, -1 until the first part has arrived.
+     */
+    private long partCount = -1;
+    private String eTag;
+    private long next;
+    private boolean closed;
+
+    /**
+     * @param partSize    bytes per range GET
+     * @param parallelism number of parts fetched or held at once
+     */
+    public S3RangedInputStream(S3AsyncClient client, String bucket, String key, int partSize, int parallelism) {
+        this(client, bucket, key, partSize, parallelism, null);
+    }
+
+    /**
+     * @param partTimer records the time of each range GET, or null
+     */
+    public S3RangedInputStream(S3AsyncClient client, String bucket, String key, int partSize, int parallelism,
+                               Timer partTimer) {
+        if (partSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("partSize and parallelism must be positive");
+        }
+        this.client = client;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.partTimer = partTimer;
+        this.slots = new Part[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            slots[i] = new Part();
+        }
+        // Only the first part can be requested before the size of the object is known.
+        fetch(0);
+    }
+
+    private void fetch(long part) {
+        Part slot = slots[(int) (part % slots.length)];
+        long start = part * partSize;
+        GetObjectRequest.Builder request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .range("bytes=" + start + "-" + (start + partSize - 1));
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            slot.index = part;
+            slot.ready = false;
+            slot.failure = null;
+            if (eTag != null) {
+                request.ifMatch(eTag);
+            }
+        }
+        long requestedAt = System.nanoTime();
+        CompletableFuture<GetObjectResponse> response = client.getObject(request.build(), new PartTransformer(slot));
+        slot.request = response;
+        response.whenComplete((r, e) -> {
+            if (partTimer != null && e == null) {
+                partTimer.record(System.nanoTime() - requestedAt, TimeUnit.NANOSECONDS);
+            }
+            onPart(slot, part, r, e);
+        });
+    }
+
+    private void onPart(Part slot, long part, GetObjectResponse response, Throwable failure) {
+        long first;
+        long last;
+        synchronized (this) {
+            if (closed || slot.index != part) {
+                return;
+            }
+            slot.failure = failure;
+            if (slot.buffer != null) {
+                slot.buffer.flip();
+            }
+            slot.ready = true;
+            notifyAll();
+            if (part != 0) {
+                return;
+            }
+            if (failure != null) {
+                if (isRangeNotSatisfiable(failure)) {
+                    // An empty object has no byte range to return.
+                    slot.failure = null;
+                    partCount = 0;
+                }
+                return;
+            }
+            eTag = response.eTag();
+            long size = objectSize(response);
+            partCount = (size + partSize - 1) / partSize;
+            first = 1;
+            last = Math.min(partCount, slots.length) - 1;
+        }
+        for (long p = first; p <= last; p++) {
+            fetch(p);
+        }
+    }
+
+    private long objectSize(GetObjectResponse response) {
+        String contentRange = response.contentRange();
+        if (contentRange != null && contentRange.lastIndexOf('/') >= 0) {
+            String total = contentRange.substring(contentRange.lastIndexOf('/') + 1);
+            if (!"*".equals(total)) {
+                return Long.parseLong(total);
+            }
+        }
+        // Without a Content-Range the whole object came back in the first part.
+        return response.contentLength() == null ? 0 : response.contentLength();
+    }
+
+    private static boolean isRangeNotSatisfiable(Throwable failure) {
+        Throwable e = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        return e instanceof S3Exception && ((S3Exception) e).statusCode() == RANGE_NOT_SATISFIABLE;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n;
+        long nextFetch = -1;
+        synchronized (this) {
+            Part slot;
+            while (true) {
+                if (closed || (partCount >= 0 && next >= partCount)) {
+                    return -1;
+                }
+                slot = slots[(int) (next % slots.length)];
+                if (slot.index == next && slot.ready) {
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for part " + next + " of " + key);
+                }
+            }
+            if (slot.failure != null) {
+                Throwable cause = slot.failure instanceof CompletionException && slot.failure.getCause() != null
+                        ? slot.failure.getCause() : slot.failure;
+                throw new IOException("Failed to get part " + next + " of s3://" + bucket + "/" + key, cause);
+            }
+            n = Math.min(len, slot.buffer.remaining());
+            slot.buffer.get(b, off, n);
+            if (!slot.buffer.hasRemaining()) {
+                // The slot is free: fetch the part that maps to it.
+                next++;
+                long part = next + slots.length - 1;
+                if (part < partCount) {
+                    nextFetch = part;
+                }
+            }
+        }
+        if (nextFetch >= 0) {
+            fetch(nextFetch);
+        }
+        return n;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        for (Part slot : slots) {
+            CompletableFuture<?> request = slot.request;
+            if (request != null) {
+                request.cancel(true);
+            }
+        }
+    }
+
+    private static final class Part {
+        private ByteBuffer buffer;
+        private long index = -1;
+        private boolean ready;
+        private Throwable failure;
+        private volatile CompletableFuture<?> request;
+    }
+
+    /**
+     * Writes the body of a range GET into the buffer of its slot. The SDK calls {@link #prepare()} again if it
+     * retries the request, which starts the buffer over.
+     */
+    private final class PartTransformer implements AsyncResponseTransformer<GetObjectResponse, GetObjectResponse> {
+        private final Part slot;
+        private volatile CompletableFuture<GetObjectResponse> future;
+        private volatile GetObjectResponse response;
+
+        private PartTransformer(Part slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public CompletableFuture<GetObjectResponse> prepare() {
+            future = new CompletableFuture<>();
+            if (slot.buffer == null) {
+                slot.buffer = ByteBuffer.allocate(partSize);
+            }
+            slot.buffer.clear();
+            return future;
+        }
+
+        @Override
+        public void onResponse(GetObjectResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onStream(SdkPublisher<ByteBuffer> publisher) {
+            publisher.subscribe(new Subscriber<ByteBuffer>() {
+                private Subscription subscription;
+
+                @Override
+                public void onSubscribe(Subscription s) {
+                    subscription = s;
+                    // The body is bounded by the part size, which the buffer already holds.
+                    s.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ByteBuffer bytes) {
+                    if (bytes.remaining() > slot.buffer.remaining()) {
+                        subscription.cancel();
+                        future.completeExceptionally(new IOException("Part larger than the requested range"));
+                        return;
+                    }
+                    slot.buffer.put(bytes);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    future.completeExceptionally(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    future.complete(response);
+                }
+            });
+        }
+
+        @Override
+        public void exceptionOccurred(Throwable error) {
+            CompletableFuture<GetObjectResponse> f = future;
+            if (f != null) {
+                f.completeExceptionally(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package com.sample.transcribestreamin.file.s3event;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Receives messages from an SQS queue with several long polling threads and hands each one to a handler that
+ * returns a future for its processing.
+ * <p>
+ * A message is deleted only once its future completes successfully; deletes are sent in batches. While the
+ * future is pending a heartbeat extends the visibility timeout of the message, so a long transcription is not
+ * delivered twice, and a crash leaves the message on the queue to be delivered again once the timeout runs out.
+ * A failed future leaves the message to become visible again the same way. At most {@code maxInFlight} messages
+ * are processed at once; pollers stop receiving while that many are pending. A message the handler reports as
+ * waiting for others, such as the first object of a pair, no longer counts against that limit: it keeps its
+ * heartbeat and is deleted once its future completes, but cannot hold up the messages it waits for.
+ * <p>
+ * Polling runs as a {@link SmartLifecycle}: it starts once the application context is ready and stops before
+ * the beans it uses are destroyed. On stop the pollers stop receiving and messages in flight get up to
+ * {@code drainTimeout} to complete; messages waiting for others are not waited for, since the messages they wait
+ * for will not be received. The processing of those left is then cancelled, so it does not go on while another
+ * consumer processes them again, and they are released back to the queue by setting their visibility timeout to
+ * 0, so another consumer can pick them up at once.
+ */
+public class SqsMessageConsumer implements SmartLifecycle {
+    private static final Logger LOG = LoggerFactory.getLogger(SqsMessageConsumer.class);
+    private static final int MAX_BATCH = 10;
+    private static final int WAIT_TIME_SECONDS = 20;
+    private static final long DELETE_FLUSH_MILLIS = 200;
+    private final SqsClient sqsClient;
+    private final String queueUrl;
+    private final int pollers;
+    private final int visibilityTimeoutSeconds;
+    private final long drainTimeoutMillis;
+    private final MessageHandler handler;
+    private final Semaphore permits;
+    private final Map<String, Message> inFlight = new ConcurrentHashMap<>();
+    /**
+     * Messages received and not yet processed that wait for other messages and hold no permit.
+     */
+    private final Map<String, Message> waiting = new ConcurrentHashMap<>();
+    /**
+     * Futures of the messages in {@link #inFlight} and {@link #waiting}, cancelled on stop.
+     */
+    private final Map<String, CompletableFuture<Void>> results = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Message> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger completedCount = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+    private final List<Thread> pollerThreads = new ArrayList<>();
+    private final Timer receiveTimer;
+    private final Timer processingTimer;
+    private final Counter failedCounter;
+    private final Counter deletedCounter;
+    private volatile boolean running;
+
+    /**
+     * @param pollers                  number of threads receiving messages
+     * @param maxInFlight              messages processed at once
+     * @param visibilityTimeoutSeconds visibility timeout of received messages, extended every half timeout while
+     *                                 they are processed
+     * @param drainTimeoutMillis       time messages in flight get to complete on stop, before their processing
+     *                                 is cancelled
+     * @param handler                  processes a message; the message is deleted when its future succeeds
+     * @param registry                 registry of the receive and processing meters
+     */
+    public SqsMessageConsumer(SqsClient sqsClient, String queueUrl, int pollers, int maxInFlight,
+                              int visibilityTimeoutSeconds, long drainTimeoutMillis,
+                              MessageHandler handler, MeterRegistry registry) {
+        this.sqsClient = sqsClient;
+        this.queueUrl = queueUrl;
+        this.pollers = Math.max(1, pollers);
+        this.visibilityTimeoutSeconds = Math.max(2, visibilityTimeoutSeconds);
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.handler = handler;
+        this.permits = new Semaphore(Math.max(1, maxInFlight));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sqs-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.receiveTimer = Timer.builder("sqs.receive")
+                .description("Time of one ReceiveMessage long poll")
+                .register(registry);
+        this.processingTimer = Timer.builder("sqs.message.processing")
+                .description("Time from receiving a message to the end of its processing")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.failedCounter = Counter.builder("sqs.messages")
+                .tag("outcome", "failed")
+                .register(registry);
+        this.deletedCounter = Counter.builder("sqs.messages")
+                .tag("outcome", "deleted")
+                .register(registry);
+        Gauge.builder("sqs.messages.inflight", inFlight, Map::size)
+                .description("Messages received and not yet processed")
+                .register(registry);
+        Gauge.builder("sqs.messages.waiting", waiting, Map::size)
+                .description("Messages received that wait for other messages, outside the in-flight limit")
+                .register(registry);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running || scheduler.isShutdown()) {
+            return;
+        }
+        running = true;
+        long heartbeatSeconds = visibilityTimeoutSeconds / 2;
+        scheduler.scheduleWithFixedDelay(this::extendVisibility, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::deleteCompleted, DELETE_FLUSH_MILLIS, DELETE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < pollers; i++) {
+            Thread thread = new Thread(this::poll, "sqs-poller-" + (i + 1));
+            pollerThreads.add(thread);
+            thread.start();
+        }
+        LOG.info("Polling {} with {} pollers", queueUrl, pollers);
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+        LOG.info("Stopping {}, draining {} messages", queueUrl, inFlight.size());
+        for (Thread thread : pollerThreads) {
+            // Ends a long poll in progress; messages it would have received stay on the queue.
+            thread.interrupt();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        try {
+            for (Thread thread : pollerThreads) {
+                thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+            while (!inFlight.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdownNow();
+        List<Message> remaining = remaining();
+        // Cancelled first, so a transcription does not run on while another consumer starts it again.
+        for (CompletableFuture<Void> result : results.values()) {
+            result.cancel(true);
+        }
+        deleteCompleted();
+        release(remaining);
+        pollerThreads.clear();
+        LOG.info("Stopped {}", queueUrl);
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        // Drain off the shutdown thread so the other lifecycle beans stop in parallel.
+        Thread thread = new Thread(() -> {
+            try {
+                stop();
+            } finally {
+                callback.run();
+            }
+        }, "sqs-drain");
+        thread.start();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Makes messages visible again at once instead of after their visibility timeout.
+     */
+    private void release(List<Message> messages) {
+        if (!messages.isEmpty()) {
+            LOG.warn("Releasing {} messages still in flight back to {}", messages.size(), queueUrl);
+            setVisibility(messages, 0, "release");
+        }
+    }
+
+    /**
+     * @return the messages received and not yet completed, including those waiting for others
+     */
+    private List<Message> remaining() {
+        List<Message> messages = new ArrayList<>(inFlight.values());
+        messages.addAll(waiting.values());
+        return messages;
+    }
+
+    /**
+     * @return number of messages received and not yet completed, including those waiting for others
+     */
+    public int inFlight() {
+        return inFlight.size() + waiting.size();
+    }
+
+    private void poll() {
+        while (running) {
+            int batch = 0;
+            try {
+                // Wait for room for one message, then take what else is free up to a full batch.
+                permits.acquire();
+                batch = 1;
+                while (batch < MAX_BATCH && permits.tryAcquire()) {
+                    batch++;
+                }
+                long receiveStart = System.nanoTime();
+                List<Message> messages = sqsClient.receiveMessage(ReceiveMessageRequest.builder()
+                        .queueUrl(queueUrl)
+                        .maxNumberOfMessages(batch)
+                        .waitTimeSeconds(WAIT_TIME_SECONDS)
+                        .visibilityTimeout(visibilityTimeoutSeconds)
+                        .build()).messages();
+                receiveTimer.record(System.nanoTime() - receiveStart, TimeUnit.NANOSECONDS);
+                permits.release(batch - messages.size());
+                batch = 0;
+                for (Message message : messages) {
+                    process(message);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                permits.release(batch);
+                return;
+            } catch (Exception e) {
+                permits.release(batch);
+                if (!running) {
+                    return;
+                }
+                LOG.error("Error polling messages: " + e.getMessage(), e);
+                sleepAfterError();
+            }
+        }
+    }
+
+    private void process(Message message) {
+        long receivedAt = System.nanoTime();
+        Received received = new Received(message);
+        inFlight.put(message.messageId(), message);
+        CompletableFuture<Void> result;
+        try {
+            result = handler.handle(message, received::waitForOthers);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        results.put(message.messageId(), result);
+        result.whenComplete((r, e) -> {
+            results.remove(message.messageId());
+            received.done();
+            processingTimer.record(System.nanoTime() - receivedAt, TimeUnit.NANOSECONDS);
+            if (e == null) {
+                completed.add(message);
+                if (completedCount.incrementAndGet() >= MAX_BATCH && !scheduler.isShutdown()) {
+                    scheduler.execute(this::deleteCompleted);
+                }
+            } else if (e instanceof CancellationException) {
+                LOG.info("Processing of message {} cancelled on stop", message.messageId());
+            } else {
+                failedCounter.increment();
+                LOG.warn("Message {} failed, it will be delivered again after its visibility timeout",
+                        message.messageId(), e);
+            }
+        });
+    }
+
+    private void deleteCompleted() {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(MAX_BATCH);
+        Message message;
+        while ((message = completed.poll()) != null) {
+            completedCount.decrementAndGet();
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(message.messageId())
+                    .receiptHandle(message.receiptHandle())
+                    .build());
+            if (entries.size() == MAX_BATCH) {
+                deleteBatch(entries);
+                entries = new ArrayList<>(MAX_BATCH);
+            }
+        }
+        if (!entries.isEmpty()) {
+            deleteBatch(entries);
+        }
+    }
+
+    private void deleteBatch(List<DeleteMessageBatchRequestEntry> entries) {
+        try {
+            List<BatchResultErrorEntry> failed = sqsClient.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build()).failed();
+            deletedCounter.increment(entries.size() - failed.size());
+            logFailures("delete", failed);
+        } catch (Exception e) {
+            LOG.error("Failed to delete {} messages, they will be delivered again", entries.size(), e);
+        }
+    }
+
+    private void extendVisibility() {
+        setVisibility(remaining(), visibilityTimeoutSeconds, "extend visibility of");
+    }
+
+    private void setVisibility(Collection<Message> messages, int timeoutSeconds, String action) {
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(MAX_BATCH);
+        for (Message message : messages) {
+            entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                    .id(message.messageId())
+                    .receiptHandle(message.receiptHandle())
+                    .visibilityTimeout(timeoutSeconds)
+                    .build());
+            if (entries.size() == MAX_BATCH) {
+                changeVisibility(entries, action);
+                entries = new ArrayList<>(MAX_BATCH);
+            }
+        }
+        if (!entries.isEmpty()) {
+            changeVisibility(entries, action);
+        }
+    }
+
+    private void changeVisibility(List<ChangeMessageVisibilityBatchRequestEntry> entries, String action) {
+        try {
+            logFailures(action, sqsClient.changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build()).failed());
+        } catch (Exception e) {
+            LOG.error("Failed to {} {} messages", action, entries.size(), e);
+        }
+    }
+
+    private static void logFailures(String action, List<BatchResultErrorEntry> failed) {
+        for (BatchResultErrorEntry entry : failed) {
+            LOG.warn("Failed to {} message {}: {} {}", action, entry.id(), entry.code(), entry.message());
+        }
+    }
+
+    private void sleepAfterError() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Processes one message.
+     */
+    public interface MessageHandler {
+        /**
+         * @param message          received message
+         * @param waitingForOthers to be called, from inside this method or later, if the message only waits for
+         *                         other messages before it can complete; it then stops counting against
+         *                         {@code maxInFlight}
+         * @return completes when the message has been processed; the message is deleted if it succeeds.
+         * Cancelling it must stop the processing.
+         */
+        CompletableFuture<Void> handle(Message message, Runnable waitingForOthers);
+    }
+
+    /**
+     * Moves a message between {@link #inFlight} and {@link #waiting} and releases its permit exactly once.
+     */
+    private final class Received {
+        private final Message message;
+        private boolean waitingForOthers;
+        private boolean done;
+
+        private Received(Message message) {
+            this.message = message;
+        }
+
+        synchronized void waitForOthers() {
+            if (waitingForOthers || done) {
+                return;
+            }
+            waitingForOthers = true;
+            waiting.put(message.messageId(), message);
+            inFlight.remove(message.messageId());
+            permits.release();
+        }
+
+        synchronized void done() {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (waitingForOthers) {
+                waiting.remove(message.messageId());
+            } else {
+                inFlight.remove(message.messageId());
+                permits.release();
+            }
+        }
+    }
+}
@@ -2,43 +2,48 @@ package com.sample.transcribestreamin.file.s3event;
 
 import com.google.gson.Gson;
 import com.sample.transcribestreamin.multichannel.ByteToAudioEventSubscription;
+import com.sample.transcribestreamin.multichannel.ChannelInterleaver;
 import com.sample.transcribestreamin.multichannel.InterleaveInputStream;
+import com.sample.transcribestreamin.multichannel.ReadAheadInputStream;
 import com.sample.transcribestreamin.multichannel.StreamTranscriber;
+import com.sample.transcribestreamin.multichannel.TranscribeHelper;
+import com.sample.transcribestreamin.multichannel.WavHeader;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Scope;
-import org.springframework.util.FileCopyUtils;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.eventnotifications.s3.model.S3EventNotification;
 import software.amazon.awssdk.eventnotifications.s3.model.S3EventNotificationRecord;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
 import software.amazon.awssdk.services.sqs.model.Message;
-import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
 import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
-import software.amazon.awssdk.services.transcribestreaming.model.LanguageCode;
-import software.amazon.awssdk.services.transcribestreaming.model.MediaEncoding;
 import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
 
 import javax.annotation.PostConstruct;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -47,14 +52,25 @@ import java.util.concurrent.*;
 @SpringBootApplication(scanBasePackages = "com.sample.transcribestreamin.multichannel,com.sample.transcribestreamin.file.s3event")
 public class TranscribeS3FilesOnEventListenerMain {
     private static final Logger logger = LoggerFactory.getLogger(TranscribeS3FilesOnEventListenerMain.class);
-    @Value("${file.stream.sampleRate}")
-    private static final int sample_rate = 28800;
+    @Value("${s3.fallbackSampleRate:28800}")
+    private int sampleRate;
+    @Value("${s3.readAheadBytes:1048576}")
+    private int readAheadBytes;
+    @Value("${s3.partSizeBytes:262144}")
+    private int partSizeBytes;
+    @Value("${s3.parallelism:3}")
+    private int parallelism;
+    @Value("${s3.endpoint:}")
+    private String s3Endpoint;
     private final Gson gson = new Gson();
     @Autowired
     StreamTranscriber streamTranscriber;
     @Autowired
     S3Client amazonS3;
-    ConcurrentHashMap<String, TranscribeDetail> transcribeDetailConcurrentHashMap = new ConcurrentHashMap<>();
+    @Autowired
+    S3AsyncClient amazonS3Async;
+    @Autowired
+    ObjectPairingIndex pairingIndex;
     @Value("${s3.region:ap-south-1}")
     private Region region;
     @Autowired
@@ -62,6 +78,33 @@ public class TranscribeS3FilesOnEventListenerMain {
     private SqsClient sqsClient;
     @Value("${s3.sqsQueueUrl}")
     private String sqsQueueUrl;
+    @Value("${sqs.pollers:4}")
+    private int pollers;
+    @Value("${sqs.maxInFlightMessages:100}")
+    private int maxInFlightMessages;
+    @Value("${sqs.visibilityTimeoutSeconds:60}")
+    private int visibilityTimeoutSeconds;
+    @Value("${sqs.drainTimeoutSeconds:25}")
+    private long drainTimeoutSeconds;
+    @Autowired
+    @Qualifier("readAheadExecutorService")
+    private ExecutorService readAheadExecutor;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    private Timer objectOpenTimer;
+    private Timer partFetchTimer;
+
+    @PostConstruct
+    public void registerMeters() {
+        objectOpenTimer = Timer.builder("s3.object.open")
+                .description("Time from opening an S3 object to reading its WAV header")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        partFetchTimer = Timer.builder("s3.part.fetch")
+                .description("Time of one range GET of an S3 object")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
 
     public static void main(String[] args) {
         logger.info("STARTING THE APPLICATION");
@@ -78,7 +121,20 @@ public class TranscribeS3FilesOnEventListenerMain {
 
     @Bean
     public S3Client amazonS3() {
-        return S3Client.builder().region(region).build();
+        S3ClientBuilder builder = S3Client.builder().region(region);
+        if (!s3Endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(s3Endpoint)).forcePathStyle(true);
+        }
+        return builder.build();
+    }
+
+    @Bean
+    public S3AsyncClient amazonS3Async() {
+        S3AsyncClientBuilder builder = S3AsyncClient.builder().region(region);
+        if (!s3Endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(s3Endpoint)).forcePathStyle(true);
+        }
+        return builder.build();
     }
     @Bean
     public TranscribeStreamingAsyncClient getStreamingClient() {
@@ -87,72 +143,79 @@ public class TranscribeS3FilesOnEventListenerMain {
                 .build();
     }
 
-    @Bean(name = "transcriptionExecutorService")
-    @Scope(value = ConfigurableBeanFactory.SCOPE_PROTOTYPE)
-    public ExecutorService getExecutorService() {
-        return Executors.newSingleThreadExecutor();
-    }
-
     @Bean
     public AwsCredentialsProvider credentialsProvider() {
         return DefaultCredentialsProvider.builder().build();
     }
 
-    @PostConstruct
-    public void init() {
-        while(true){
-            pollMessages();
+    /**
+     * Polls the queue once the context has started; see {@link SqsMessageConsumer} for the shutdown drain.
+     */
+    @Bean
+    public SqsMessageConsumer messageConsumer() {
+        return new SqsMessageConsumer(sqsClient, sqsQueueUrl, pollers, maxInFlightMessages,
+                visibilityTimeoutSeconds, TimeUnit.SECONDS.toMillis(drainTimeoutSeconds), this::processMessage,
+                meterRegistry);
+    }
+
+    /**
+     * @param waitingForOthers called if every object in the message waits for the other objects of its prefix,
+     *                         so the message does not hold an in-flight slot the messages of those objects need
+     * @return completes when the transcriptions of all objects in the message are done; the message is deleted
+     * then. Cancelling it cancels them.
+     */
+    private CompletableFuture<Void> processMessage(Message message, Runnable waitingForOthers) {
+        String messageBody = message.body();
+        logger.info(messageBody);
+        S3EventNotification s3EventNotification = S3EventNotification.fromJson(messageBody);
+        if (s3EventNotification == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Not an S3 event notification: " + message.messageId()));
+        }
+        List<S3EventNotificationRecord> records = Optional.ofNullable(s3EventNotification.getRecords()).orElse(Collections.emptyList());
+        List<CompletableFuture<Void>> results = new ArrayList<>(records.size());
+        boolean waiting = !records.isEmpty();
+        for (S3EventNotificationRecord record : records) {
             try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+                ObjectPairingIndex.Group group = addToGroup(record);
+                results.add(group.result());
+                waiting &= !group.isComplete();
+            } catch (Exception e) {
+                results.add(CompletableFuture.failedFuture(e));
+                waiting = false;
             }
         }
-
+        if (waiting) {
+            waitingForOthers.run();
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(results.toArray(new CompletableFuture[0]));
+        all.whenComplete((r, e) -> {
+            if (all.isCancelled()) {
+                results.forEach(result -> result.cancel(true));
+            }
+        });
+        return all;
     }
 
-    private void pollMessages() {
-        logger.info("Polling messages");
+    public CompletableFuture<Void> submitTranscriptionNoException(S3EventNotificationRecord eventNotificationRecord) {
         try {
-            // Receive messages from the queue
-            ReceiveMessageRequest receiveRequest = ReceiveMessageRequest.builder()
-                    .queueUrl(sqsQueueUrl)
-                    .maxNumberOfMessages(10)
-                    .waitTimeSeconds(20) // Enable long polling
-                    .build();
-
-            List<Message> messages = sqsClient.receiveMessage(receiveRequest).messages();
-
-            // Process received messages
-            for (Message message : messages) {
-                String messageBody = message.body();
-                logger.info(messageBody);
-                S3EventNotification s3EventNotification = S3EventNotification.fromJson(messageBody);
-                if (s3EventNotification != null) {
-                    Optional.ofNullable(s3EventNotification.getRecords()).orElse(Collections.emptyList()).stream().forEach(this::submitTranscriptionNoException);
-
-                    // Delete the message from the queue
-                    DeleteMessageRequest deleteRequest = DeleteMessageRequest.builder()
-                            .queueUrl(sqsQueueUrl)
-                            .receiptHandle(message.receiptHandle())
-                            .build();
-                    sqsClient.deleteMessage(deleteRequest);
-                }
-            }
+            return submitTranscription(eventNotificationRecord);
         } catch (Exception e) {
-            logger.error("Error polling messages: " + e.getMessage(), e);
+            return CompletableFuture.failedFuture(e);
         }
     }
 
-    public void submitTranscriptionNoException(S3EventNotificationRecord eventNotificationRecord) {
-        try {
-            submitTranscription(eventNotificationRecord);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    /**
+     * @return completes when the transcription of the group the object belongs to is done
+     */
+    public CompletableFuture<Void> submitTranscription(S3EventNotificationRecord eventNotificationRecord) throws IOException, ExecutionException, InterruptedException {
+        // The messages of all objects in the group are kept until it has been transcribed.
+        return addToGroup(eventNotificationRecord).result();
     }
 
-    public void submitTranscription(S3EventNotificationRecord eventNotificationRecord) throws IOException, ExecutionException, InterruptedException {
+    /**
+     * Adds the object to the group of its prefix, and starts the transcription if it completes the group.
+     */
+    private ObjectPairingIndex.Group addToGroup(S3EventNotificationRecord eventNotificationRecord) throws IOException, ExecutionException, InterruptedException {
         logger.info("Processing event: " + gson.toJson(eventNotificationRecord));
         String bucketName = eventNotificationRecord.getS3().getBucket().getName();
         String objectKey = eventNotificationRecord.getS3().getObject().getKey();
@@ -160,56 +223,138 @@ public class TranscribeS3FilesOnEventListenerMain {
         Path parentPath = objectPath.getParent();
         logger.info("Bucket: {}, key: {}, parent:{}", bucketName, objectKey, parentPath);
 
-        if (transcribeDetailConcurrentHashMap.containsKey(parentPath.toString())) {
-            TranscribeDetail transcribeDetail = transcribeDetailConcurrentHashMap.get(parentPath.toString());
-            transcribeDetail.objectKey2 = objectKey;
-            copyToFile(bucketName, transcribeDetail.objectKey1);
-            copyToFile(bucketName, transcribeDetail.objectKey2);
-            transcribeDetail.reader = new S3FileTranscribeUpdatableReader(new FileInputStream(transcribeDetail.objectKey1), new FileInputStream(transcribeDetail.objectKey2));
-            transcribeDetail.reader.startStreamTranscriptionRequest = StartStreamTranscriptionRequest.builder()
-                    .languageCode(LanguageCode.EN_US.toString())
-                    .mediaEncoding(MediaEncoding.PCM)
-                    .mediaSampleRateHertz(sample_rate)
-                    .enableChannelIdentification(true)
-                    .numberOfChannels(2)
-                    .showSpeakerLabel(Boolean.TRUE)
-                    .build();
-            transcribeDetail.reader.label = String.valueOf(parentPath);
-            transcribeDetail.result = streamTranscriber.transcribe(transcribeDetail.reader);
-            logger.info("Transcription started for: " + parentPath);
-
-            transcribeDetail.result.whenComplete((result, exception) -> {
-                if (exception != null) {
-                    exception.printStackTrace();
-                }
-                transcribeDetailConcurrentHashMap.remove(parentPath.toString());
-                logger.info("Transcription completed for: " + parentPath);
-                deleteFile(transcribeDetail.objectKey1);
-                deleteFile(transcribeDetail.objectKey2);
-                transcribeDetail.reader.close();
-
-            });
+        ObjectPairingIndex.Group group;
+        if (pairingIndex.isManifest(String.valueOf(objectPath.getFileName()))) {
+            group = pairingIndex.expect(parentPath.toString(), bucketName, readManifest(bucketName, objectKey));
         } else {
-            TranscribeDetail transcribeDetail = new TranscribeDetail();
-            transcribeDetail.bucketName = bucketName;
-            transcribeDetail.objectKey1 = objectKey;
-            transcribeDetailConcurrentHashMap.put(parentPath.toString(), transcribeDetail);
+            group = pairingIndex.add(parentPath.toString(), bucketName, objectKey);
+        }
+        if (group.tryStart()) {
+            startTranscription(group, String.valueOf(parentPath));
         }
+        return group;
+    }
 
+    private void startTranscription(ObjectPairingIndex.Group group, String label) throws IOException, ExecutionException, InterruptedException {
+        List<String> objectKeys = group.keys();
+        List<InputStream> streams = new ArrayList<>(objectKeys.size());
+        S3FileTranscribeUpdatableReader reader;
+        try {
+            int objectSampleRate = 0;
+            int objectChannels = 0;
+            for (String objectKey : objectKeys) {
+                long openStart = System.nanoTime();
+                InputStream stream = openObject(group.bucket(), objectKey);
+                streams.add(stream);
+                WavHeader header = WavHeader.read(stream);
+                int rate = sampleRate(objectKey, header);
+                int channels = header == null ? 1 : header.channels();
+                objectOpenTimer.record(System.nanoTime() - openStart, TimeUnit.NANOSECONDS);
+                if (objectSampleRate != 0 && rate != objectSampleRate) {
+                    throw new IllegalArgumentException("Sample rates differ, " + objectSampleRate + " Hz and " + rate + " Hz :" + label);
+                }
+                if (objectChannels != 0 && channels != objectChannels) {
+                    throw new IllegalArgumentException("Channel counts differ, " + objectChannels + " and " + channels + " :" + label);
+                }
+                objectSampleRate = rate;
+                objectChannels = channels;
+            }
+            // Stereo objects are downmixed to one channel each by the DSP stage of the transcriber.
+            reader = new S3FileTranscribeUpdatableReader(streams, objectChannels);
+            reader.startStreamTranscriptionRequest = TranscribeHelper.getPcmRequest(objectSampleRate, streams.size() * objectChannels);
+            reader.label = label;
+        } catch (IOException | RuntimeException e) {
+            for (InputStream stream : streams) {
+                stream.close();
+            }
+            group.result().completeExceptionally(e);
+            throw e;
+        }
+        CompletableFuture<Void> transcription;
+        try {
+            transcription = streamTranscriber.transcribe(reader);
+        } catch (ExecutionException | InterruptedException | RuntimeException e) {
+            reader.close();
+            group.result().completeExceptionally(e);
+            throw e;
+        }
+        logger.info("Transcription started for: " + label);
+        // Cancelled when the consumer stops before the transcription is done.
+        group.result().whenComplete((result, exception) -> {
+            if (group.result().isCancelled()) {
+                transcription.cancel(true);
+            }
+        });
+
+        transcription.whenComplete((result, exception) -> {
+            if (exception != null) {
+                exception.printStackTrace();
+            }
+            logger.info("Transcription completed for: " + label);
+            reader.close();
+            if (exception != null) {
+                group.result().completeExceptionally(exception);
+            } else {
+                group.result().complete(null);
+            }
+        });
     }
 
-    private void copyToFile(String bucketName, String objectKey) throws IOException {
-        ResponseBytes<GetObjectResponse> s3Object1 = amazonS3.getObjectAsBytes(GetObjectRequest.builder().bucket(bucketName).key(objectKey).build());
-        byte[] data = s3Object1.asByteArray();
-        File file = new File(objectKey);
-        file.getParentFile().mkdirs();
-        file.createNewFile();
-        FileCopyUtils.copy(data, file);
+    /**
+     * Reads a manifest: one object name per line, relative to the manifest's prefix, in channel order. Blank
+     * lines and lines starting with # are ignored.
+     */
+    private List<String> readManifest(String bucketName, String manifestKey) {
+        String keyPrefix = manifestKey.substring(0, manifestKey.lastIndexOf('/') + 1);
+        String manifest = amazonS3.getObjectAsBytes(GetObjectRequest.builder().bucket(bucketName).key(manifestKey).build()).asUtf8String();
+        List<String> objectKeys = new ArrayList<>();
+        for (String line : manifest.split("\\R")) {
+            String name = line.trim();
+            if (!name.isEmpty() && !name.startsWith("#")) {
+                objectKeys.add(keyPrefix + name);
+            }
+        }
+        if (objectKeys.isEmpty()) {
+            throw new IllegalArgumentException("Manifest lists no objects: " + manifestKey);
+        }
+        return objectKeys;
     }
 
-    private void deleteFile(String objectKey) {
-        File file = new File(objectKey);
-        file.delete();
+    /**
+     * Opens the object for streaming, so transcription can start on the first bytes while the rest downloads.
+     * With {@code s3.parallelism} set, the object is fetched as that many concurrent range GETs of
+     * {@code s3.partSizeBytes}; otherwise as one GET read ahead by {@code s3.readAheadBytes}.
+     */
+    private InputStream openObject(String bucketName, String objectKey) {
+        // The small buffer lets the WAV header be probed and reset; larger reads bypass it.
+        if (parallelism > 0) {
+            return new BufferedInputStream(new S3RangedInputStream(amazonS3Async, bucketName, objectKey, partSizeBytes, parallelism,
+                    partFetchTimer), 64);
+        }
+        ResponseInputStream<GetObjectResponse> object = amazonS3.getObject(GetObjectRequest.builder().bucket(bucketName).key(objectKey).build());
+        InputStream source = new FilterInputStream(object) {
+            @Override
+            public void close() throws IOException {
+                // Closing mid body would drain the rest of the object to reuse the connection.
+                object.abort();
+                super.close();
+            }
+        };
+        return new BufferedInputStream(new ReadAheadInputStream(source, readAheadBytes, readAheadExecutor), 64);
+    }
+
+    /**
+     * Sample rate of an object from its WAV header, or {@code s3.fallbackSampleRate} if it has none.
+     */
+    private int sampleRate(String objectKey, WavHeader header) {
+        if (header == null) {
+            logger.warn("No WAV header in {}, reading it as 16 bit mono PCM at {} Hz", objectKey, sampleRate);
+            return sampleRate;
+        }
+        if (header.channels() > 2 || header.bitsPerSample() != 16) {
+            throw new IllegalArgumentException("Expected 16 bit mono or stereo PCM in " + objectKey + ", found " + header);
+        }
+        return header.sampleRate();
     }
 
     public static class S3FileTranscribeUpdatableReader implements ByteToAudioEventSubscription.StreamReader {
@@ -217,12 +362,25 @@ public class TranscribeS3FilesOnEventListenerMain {
         public String label;
         InterleaveInputStream stream;
         StartStreamTranscriptionRequest startStreamTranscriptionRequest;
+        int channelsPerSource = 1;
         boolean stopped = false;
 
         public S3FileTranscribeUpdatableReader(InputStream i1, InputStream i2) {
             stream = new InterleaveInputStream(i1, i2);
         }
 
+        public S3FileTranscribeUpdatableReader(List<InputStream> streams) {
+            this(streams, 1);
+        }
+
+        /**
+         * @param channelsPerStream channels of each stream, whose frames are kept together in the interleaved frame
+         */
+        public S3FileTranscribeUpdatableReader(List<InputStream> streams, int channelsPerStream) {
+            stream = new InterleaveInputStream(streams, 16, channelsPerStream, ChannelInterleaver.DEFAULT_READ_AHEAD_BYTES);
+            channelsPerSource = channelsPerStream;
+        }
+
         @Override
         public int read(byte[] b) throws IOException {
             if (!stopped) {
@@ -232,11 +390,25 @@ public class TranscribeS3FilesOnEventListenerMain {
             }
         }
 
+        @Override
+        public int read(ByteBuffer b) throws IOException {
+            if (!stopped) {
+                return stream.read(b);
+            } else {
+                return -1;
+            }
+        }
+
         @Override
         public StartStreamTranscriptionRequest getTranscriptionRequest() {
             return startStreamTranscriptionRequest;
         }
 
+        @Override
+        public int channelsPerSource() {
+            return channelsPerSource;
+        }
+
         @Override
         public void close() {
             try {
@@ -254,11 +426,4 @@ public class TranscribeS3FilesOnEventListenerMain {
 
     }
 
-    public static class TranscribeDetail {
-        public S3FileTranscribeUpdatableReader reader;
-        public CompletableFuture<Void> result;
-        public String bucketName, objectKey1, objectKey2;
-
-    }
-
 }
@@ -0,0 +1,367 @@
+package com.sample.transcribestreamin.multichannel;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands the final results of every session to the {@link TranscriptSink} beans, off the thread that delivers
+ * transcription events.
+ * <p>
+ * Records go through a bounded queue. When it is full the thread delivering events waits up to
+ * {@code transcripts.offerTimeoutMillis} for room, which slows the sessions down to what the sinks can take. A
+ * record that still does not fit is dropped and counted against its session, and the session is reported
+ * incomplete by {@link Session#lostRecords()}, so that its transcription fails instead of losing finals quietly.
+ * A single writer thread takes records in batches of up to {@code transcripts.batchSize}, waiting at most
+ * {@code transcripts.flushMillis} for a batch to fill, and writes each batch to every sink in order.
+ * <p>
+ * The end of a session is queued behind its records. If the queue stays full, the end is kept aside with the
+ * number of items offered before it and is handled after the first batch that takes the writer past that
+ * number, so a sink always sees {@link TranscriptSink#endSession} after the last record of the session.
+ * <p>
+ * Without any sink bean the writer thread is not started and sessions discard their records.
+ */
+@Component
+public class AsyncTranscriptWriter implements MeterBinder {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncTranscriptWriter.class);
+    private static final long DROP_WARNING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private final List<TranscriptSink> sinks;
+    private final int batchSize;
+    private final long flushNanos;
+    private final long offerTimeoutNanos;
+    private final BlockingQueue<Object> queue;
+    /**
+     * Ends of sessions that did not fit in the queue, in the order they were closed.
+     */
+    private final ConcurrentLinkedQueue<SessionEnd> pendingEnds = new ConcurrentLinkedQueue<>();
+    /**
+     * Items put in the queue, and items the writer has handled. Only the writer thread changes {@link #taken}.
+     */
+    private final AtomicLong offered = new AtomicLong();
+    private volatile long taken;
+    private final AtomicLong sessionCount = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong lastDropWarning = new AtomicLong(System.nanoTime() - DROP_WARNING_INTERVAL_NANOS);
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    @Autowired
+    public AsyncTranscriptWriter(@Autowired(required = false) List<TranscriptSink> sinks,
+                                 @Value("${transcripts.queueCapacity:10000}") int queueCapacity,
+                                 @Value("${transcripts.batchSize:100}") int batchSize,
+                                 @Value("${transcripts.flushMillis:200}") long flushMillis,
+                                 @Value("${transcripts.offerTimeoutMillis:1000}") long offerTimeoutMillis) {
+        this.sinks = sinks == null ? Collections.emptyList() : new ArrayList<>(sinks);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushMillis));
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, offerTimeoutMillis));
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        if (this.sinks.isEmpty()) {
+            this.writer = null;
+        } else {
+            this.writer = new Thread(this::run, "transcript-writer");
+            writer.setDaemon(true);
+            writer.start();
+            LOG.info("Writing transcripts to {}", this.sinks);
+        }
+    }
+
+    /**
+     * @param label label of the stream, the start of the session id
+     */
+    public Session openSession(String label) {
+        return new Session(label + "-" + System.currentTimeMillis() + "-" + sessionCount.incrementAndGet());
+    }
+
+    /**
+     * @return records every sink accepted
+     */
+    public long writtenRecords() {
+        return written.get();
+    }
+
+    /**
+     * @return records at least one sink failed to write
+     */
+    public long failedRecords() {
+        return failed.get();
+    }
+
+    /**
+     * @return records dropped because the queue stayed full or the writer had stopped
+     */
+    public long droppedRecords() {
+        return dropped.get();
+    }
+
+    /**
+     * @return records and session ends waiting for the writer thread
+     */
+    public int queuedRecords() {
+        return queue.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("transcripts.written", this, AsyncTranscriptWriter::writtenRecords)
+                .description("Final results written to every transcript sink")
+                .register(registry);
+        FunctionCounter.builder("transcripts.failed", this, AsyncTranscriptWriter::failedRecords)
+                .description("Final results a transcript sink failed to write")
+                .register(registry);
+        FunctionCounter.builder("transcripts.dropped", this, AsyncTranscriptWriter::droppedRecords)
+                .description("Final results dropped because the transcript queue stayed full")
+                .register(registry);
+        Gauge.builder("transcripts.queued", this, AsyncTranscriptWriter::queuedRecords)
+                .description("Final results waiting for the transcript writer")
+                .register(registry);
+    }
+
+    /**
+     * @return false if the record was dropped
+     */
+    private boolean offer(TranscriptRecord record) {
+        if (writer == null) {
+            return true;
+        }
+        if (running && enqueue(record)) {
+            return true;
+        }
+        long count = dropped.incrementAndGet();
+        long now = System.nanoTime();
+        long last = lastDropWarning.get();
+        if (now - last >= DROP_WARNING_INTERVAL_NANOS && lastDropWarning.compareAndSet(last, now)) {
+            LOG.warn("Transcript queue full for {} ms, {} records dropped so far",
+                    TimeUnit.NANOSECONDS.toMillis(offerTimeoutNanos), count);
+        }
+        return false;
+    }
+
+    private void end(String session) {
+        if (writer == null) {
+            return;
+        }
+        if (!enqueue(new SessionEnd(session, 0))) {
+            // Counted after the session's records were offered, so all of them are ahead of it.
+            pendingEnds.add(new SessionEnd(session, offered.get()));
+        }
+    }
+
+    private boolean enqueue(Object item) {
+        try {
+            if (!queue.offer(item, offerTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        offered.incrementAndGet();
+        return true;
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty() || !pendingEnds.isEmpty()) {
+            try {
+                Object first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    endPendingSessions();
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + flushNanos;
+                while (batch.size() < batchSize && running) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Object next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                write(batch);
+                return;
+            }
+            write(batch);
+            taken += batch.size();
+            batch.clear();
+            endPendingSessions();
+        }
+    }
+
+    /**
+     * Ends the sessions kept aside whose records have all been written.
+     */
+    private void endPendingSessions() {
+        SessionEnd end;
+        while ((end = pendingEnds.peek()) != null && end.offeredBefore <= taken) {
+            pendingEnds.poll();
+            endSession(end.session);
+        }
+    }
+
+    /**
+     * Writes records up to each session end, then ends the session, keeping the order of the batch.
+     */
+    private void write(List<Object> batch) {
+        List<TranscriptRecord> records = new ArrayList<>(batch.size());
+        for (Object item : batch) {
+            if (item instanceof TranscriptRecord) {
+                records.add((TranscriptRecord) item);
+            } else {
+                writeRecords(records);
+                records.clear();
+                endSession(((SessionEnd) item).session);
+            }
+        }
+        writeRecords(records);
+    }
+
+    private void writeRecords(List<TranscriptRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        boolean allWritten = true;
+        for (TranscriptSink sink : sinks) {
+            try {
+                sink.write(records);
+            } catch (Exception e) {
+                allWritten = false;
+                LOG.error("Failed to write {} records to {}", records.size(), sink, e);
+            }
+        }
+        (allWritten ? written : failed).addAndGet(records.size());
+    }
+
+    private void endSession(String session) {
+        for (TranscriptSink sink : sinks) {
+            try {
+                sink.endSession(session);
+            } catch (Exception e) {
+                LOG.error("Failed to end session {} in {}", session, sink, e);
+            }
+        }
+    }
+
+    /**
+     * Writes what is queued, then closes the sinks.
+     */
+    @PreDestroy
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        // Not interrupted: a sink may be in the middle of an upload. The writer sees the flag within a poll.
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            LOG.warn("Transcript writer still busy after 10 s, {} records not written", queue.size());
+        }
+        for (TranscriptSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (Exception e) {
+                LOG.error("Failed to close {}", sink, e);
+            }
+        }
+    }
+
+    private static final class SessionEnd {
+        private final String session;
+        /**
+         * Items offered to the queue before the end was kept aside; 0 for an end in the queue.
+         */
+        private final long offeredBefore;
+
+        private SessionEnd(String session, long offeredBefore) {
+            this.session = session;
+            this.offeredBefore = offeredBefore;
+        }
+    }
+
+    /**
+     * The transcript of one transcription session. {@link #write} blocks for at most
+     * {@code transcripts.offerTimeoutMillis} while the queue is full.
+     */
+    public final class Session implements AutoCloseable {
+        private final String id;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicLong lost = new AtomicLong();
+
+        private Session(String id) {
+            this.id = id;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        /**
+         * @return false if records written now are discarded: there is no sink or the session is closed
+         */
+        public boolean isOpen() {
+            return writer != null && !closed.get();
+        }
+
+        /**
+         * Queues a final result of the session.
+         */
+        public void write(String channel, String resultId, double startTime, double endTime, String transcript,
+                          Map<String, String> speakers) {
+            if (!isOpen()) {
+                return;
+            }
+            if (!offer(new TranscriptRecord(id, channel, resultId, startTime, endTime, transcript, speakers))) {
+                lost.incrementAndGet();
+            }
+        }
+
+        /**
+         * @return final results of the session dropped because the queue stayed full; the transcript of a
+         * session with any is incomplete
+         */
+        public long lostRecords() {
+            return lost.get();
+        }
+
+        /**
+         * Ends the session once its records are written. Further writes are dropped.
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                end(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of audio chunk buffers shared by all sessions. Buffers are heap buffers whose backing array is exactly
+ * the requested capacity, so a full chunk can be handed to the SDK with {@code SdkBytes.fromByteArrayUnsafe}
+ * without a copy.
+ * <p>
+ * Buffers are pooled per capacity and at most {@code maxPooledBuffers} idle buffers are kept for each capacity;
+ * releases beyond that are left to the garbage collector. Sessions use a handful of chunk sizes, so the size
+ * classes are kept in a small array that is searched without boxing the capacity, and copied when one is added.
+ */
+@Component
+public class AudioBufferPool {
+    private static final int DEFAULT_MAX_POOLED_BUFFERS = 1024;
+    private volatile SizeClass[] sizeClasses = new SizeClass[0];
+    private final int maxPooledBuffers;
+    private final AtomicLong allocated = new AtomicLong();
+
+    public AudioBufferPool() {
+        this(DEFAULT_MAX_POOLED_BUFFERS);
+    }
+
+    @Autowired
+    public AudioBufferPool(@Value("${audio.bufferPool.maxPooledBuffers:1024}") int maxPooledBuffers) {
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * @param capacity size of the buffer
+     * @return a cleared buffer of exactly {@code capacity} bytes
+     */
+    public ByteBuffer acquire(int capacity) {
+        ByteBuffer buffer = pool(capacity).poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocate(capacity);
+        }
+        return buffer.clear();
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not touch the buffer afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        pool(buffer.capacity()).offer(buffer);
+    }
+
+    /**
+     * @return number of buffers allocated because the pool was empty
+     */
+    public long allocatedBuffers() {
+        return allocated.get();
+    }
+
+    private ArrayBlockingQueue<ByteBuffer> pool(int capacity) {
+        for (SizeClass sizeClass : sizeClasses) {
+            if (sizeClass.capacity == capacity) {
+                return sizeClass.buffers;
+            }
+        }
+        return addSizeClass(capacity);
+    }
+
+    private synchronized ArrayBlockingQueue<ByteBuffer> addSizeClass(int capacity) {
+        SizeClass[] current = sizeClasses;
+        for (SizeClass sizeClass : current) {
+            if (sizeClass.capacity == capacity) {
+                return sizeClass.buffers;
+            }
+        }
+        SizeClass added = new SizeClass(capacity, new ArrayBlockingQueue<>(maxPooledBuffers));
+        SizeClass[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = added;
+        sizeClasses = grown;
+        return added.buffers;
+    }
+
+    private static final class SizeClass {
+        private final int capacity;
+        private final ArrayBlockingQueue<ByteBuffer> buffers;
+
+        private SizeClass(int capacity, ArrayBlockingQueue<ByteBuffer> buffers) {
+            this.capacity = capacity;
+            this.buffers = buffers;
+        }
+    }
+}
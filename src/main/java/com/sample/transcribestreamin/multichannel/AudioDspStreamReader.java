@@ -0,0 +1,170 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * DSP stage between a StreamReader and the subscription. Each source recording is downmixed to one channel, and
+ * audio above the target sample rate is resampled down to it by a {@link PolyphaseResampler}; the transcription
+ * request is rewritten to match. Audio is processed in blocks of {@link #BLOCK_FRAMES} frames through buffers
+ * allocated with the stage, so memory per session is fixed.
+ * <p>
+ * It reads the source first, so replay, latency tracking and pacing all see the audio as it is sent.
+ */
+public class AudioDspStreamReader implements ByteToAudioEventSubscription.StreamReader {
+    private static final Logger LOG = LoggerFactory.getLogger(AudioDspStreamReader.class);
+    static final int BLOCK_FRAMES = 1024;
+    private static final int BYTES_PER_SAMPLE = 2;
+    private final ByteToAudioEventSubscription.StreamReader source;
+    private final StartStreamTranscriptionRequest request;
+    private final int channelsPerSource;
+    private final int inputFrameSize;
+    private final int outputChannels;
+    private final PolyphaseResampler resampler;
+    private final ByteBuffer input;
+    private final short[] mixed;
+    private final short[] resampled;
+    private final ByteBuffer output;
+    private boolean ended;
+
+    /**
+     * @param maxSampleRate highest sample rate to send, 0 to keep the source's rate
+     * @return {@code source} through a DSP stage if it has sources of more than one channel or a sample rate above
+     * {@code maxSampleRate}, otherwise {@code source} itself
+     */
+    public static ByteToAudioEventSubscription.StreamReader forService(ByteToAudioEventSubscription.StreamReader source,
+                                                                       int maxSampleRate) {
+        int sampleRate = source.getTranscriptionRequest().mediaSampleRateHertz();
+        int outputRate = maxSampleRate > 0 ? Math.min(sampleRate, maxSampleRate) : sampleRate;
+        if (source.channelsPerSource() == 1 && outputRate == sampleRate) {
+            return source;
+        }
+        return new AudioDspStreamReader(source, outputRate);
+    }
+
+    public AudioDspStreamReader(ByteToAudioEventSubscription.StreamReader source, int outputRate) {
+        StartStreamTranscriptionRequest sourceRequest = source.getTranscriptionRequest();
+        int inputRate = sourceRequest.mediaSampleRateHertz();
+        int inputChannels = sourceRequest.numberOfChannels() == null ? 1 : sourceRequest.numberOfChannels();
+        this.source = source;
+        this.channelsPerSource = source.channelsPerSource();
+        if (channelsPerSource < 1 || inputChannels % channelsPerSource != 0) {
+            throw new IllegalArgumentException(inputChannels + " channel(s) are not whole sources of "
+                    + channelsPerSource + " :" + source.label());
+        }
+        this.outputChannels = inputChannels / channelsPerSource;
+        this.inputFrameSize = inputChannels * BYTES_PER_SAMPLE;
+        this.resampler = outputRate == inputRate ? null : new PolyphaseResampler(inputRate, outputRate, outputChannels);
+        this.input = ByteBuffer.allocate(BLOCK_FRAMES * inputFrameSize).order(ByteOrder.LITTLE_ENDIAN);
+        this.mixed = new short[BLOCK_FRAMES * outputChannels];
+        int outputFrames = resampler == null ? BLOCK_FRAMES : resampler.maxOutputFrames(BLOCK_FRAMES);
+        this.resampled = resampler == null ? mixed : new short[outputFrames * outputChannels];
+        this.output = ByteBuffer.allocate(outputFrames * outputChannels * BYTES_PER_SAMPLE).order(ByteOrder.LITTLE_ENDIAN);
+        output.flip();
+
+        StartStreamTranscriptionRequest.Builder builder = sourceRequest.toBuilder().mediaSampleRateHertz(outputRate);
+        if (outputChannels > 1) {
+            builder.enableChannelIdentification(true).numberOfChannels(outputChannels);
+        } else {
+            builder.enableChannelIdentification(null).numberOfChannels(null);
+        }
+        this.request = builder.build();
+        LOG.info("DSP stage {} Hz {} channel(s) to {} Hz {} channel(s) :{}", inputRate, inputChannels, outputRate,
+                outputChannels, source.label());
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(ByteBuffer.wrap(b));
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            if (!output.hasRemaining() && !fill()) {
+                break;
+            }
+            int n = Math.min(buffer.remaining(), output.remaining());
+            buffer.put(output.array(), output.position(), n);
+            output.position(output.position() + n);
+            total += n;
+        }
+        return total > 0 ? total : -1;
+    }
+
+    /**
+     * Processes the next block of the source into {@link #output}, which may stay empty while the resampler
+     * fills its history.
+     *
+     * @return false at the end of the source
+     */
+    private boolean fill() throws IOException {
+        if (ended) {
+            return false;
+        }
+        if (source.read(input) <= 0) {
+            // A trailing partial frame is dropped.
+            ended = true;
+            return false;
+        }
+        int frames = input.position() / inputFrameSize;
+        downmix(frames);
+        int outputFrames = resampler == null ? frames : resampler.process(mixed, frames, resampled);
+        int samples = outputFrames * outputChannels;
+        output.clear();
+        for (int i = 0; i < samples; i++) {
+            output.putShort(i * BYTES_PER_SAMPLE, resampled[i]);
+        }
+        output.limit(samples * BYTES_PER_SAMPLE);
+        // Keeps a partial frame for the next block.
+        input.flip().position(frames * inputFrameSize);
+        input.compact();
+        return true;
+    }
+
+    /**
+     * Averages the channels of each source into {@link #mixed}.
+     */
+    private void downmix(int frames) {
+        int samples = frames * outputChannels;
+        if (channelsPerSource == 1) {
+            for (int i = 0; i < samples; i++) {
+                mixed[i] = input.getShort(i * BYTES_PER_SAMPLE);
+            }
+            return;
+        }
+        for (int i = 0, offset = 0; i < samples; i++) {
+            int sum = 0;
+            for (int c = 0; c < channelsPerSource; c++, offset += BYTES_PER_SAMPLE) {
+                sum += input.getShort(offset);
+            }
+            mixed[i] = (short) (sum / channelsPerSource);
+        }
+    }
+
+    @Override
+    public StartStreamTranscriptionRequest getTranscriptionRequest() {
+        return request;
+    }
+
+    @Override
+    public void onResubscribe() {
+        source.onResubscribe();
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+
+    @Override
+    public String label() {
+        return source.label();
+    }
+}
@@ -0,0 +1,74 @@
+package com.sample.transcribestreamin.multichannel;
+
+import java.util.Arrays;
+
+/**
+ * Wall clock time at which each chunk of a session's audio was read to be sent, kept as a ring of
+ * (end offset, time) pairs, one per chunk. With 100 ms chunks the default 4096 entries cover about seven
+ * minutes of audio in 64 KB, whatever the length of the session. The ring starts at {@link #INITIAL_ENTRIES} and
+ * doubles up to that size as chunks are recorded, so short sessions only hold what they use.
+ * <p>
+ * Written by the subscription drain and read by the thread delivering results, so access is synchronized.
+ */
+public class AudioOffsetIndex {
+    public static final int DEFAULT_ENTRIES = 4096;
+    static final int INITIAL_ENTRIES = 64;
+    private final int maxEntries;
+    private long[] offsets;
+    private long[] times;
+    private long count;
+
+    public AudioOffsetIndex(int entries) {
+        this.maxEntries = Math.max(2, entries);
+        this.offsets = new long[Math.min(maxEntries, INITIAL_ENTRIES)];
+        this.times = new long[offsets.length];
+    }
+
+    /**
+     * @param endOffset offset one past the last byte read
+     * @param nanoTime  {@link System#nanoTime()} when it was read
+     */
+    public synchronized void record(long endOffset, long nanoTime) {
+        if (count == offsets.length && offsets.length < maxEntries) {
+            // Not wrapped yet, so entries are in order from slot 0.
+            int length = Math.min(maxEntries, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, length);
+            times = Arrays.copyOf(times, length);
+        }
+        int slot = (int) (count % offsets.length);
+        offsets[slot] = endOffset;
+        times[slot] = nanoTime;
+        count++;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at which the chunk holding the byte at {@code offset} was read, or -1 if
+     * it has not been read yet or has dropped out of the ring
+     */
+    public synchronized long readAt(long offset) {
+        if (count == 0 || offset < 0 || offset >= offsets[slot(count - 1)]) {
+            return -1;
+        }
+        long oldest = Math.max(0, count - offsets.length);
+        if (oldest > 0 && offset < offsets[slot(oldest)]) {
+            // The entry ending where the oldest chunk starts has been overwritten.
+            return -1;
+        }
+        // First entry whose end offset is past the byte.
+        long low = oldest;
+        long high = count - 1;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (offsets[slot(mid)] > offset) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return times[slot(low)];
+    }
+
+    private int slot(long i) {
+        return (int) (i % offsets.length);
+    }
+}
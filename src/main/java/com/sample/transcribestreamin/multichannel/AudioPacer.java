@@ -0,0 +1,190 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes audio chunks by duration and paces how fast sessions send them.
+ * <p>
+ * With {@code chunkDurationMillis} set, a chunk holds that much audio, computed from the sample rate and channel
+ * count of the transcription request (16 bit PCM). With {@code pacing.realTimeFactor} set, each session sends at
+ * most that multiple of real time through its own token bucket, and {@code pacing.maxBytesPerSecond} caps the sum
+ * over all sessions with one shared bucket. A session that runs out of tokens does not block a thread: its next
+ * drain is scheduled on a single timer thread shared by all sessions.
+ */
+@Component
+public class AudioPacer {
+    private static final int BYTES_PER_SAMPLE = 2;
+    private final double realTimeFactor;
+    private final int chunkDurationMillis;
+    private final TokenBucket globalBucket;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param realTimeFactor      multiple of real time each session may send at, 0 or less to send unpaced
+     * @param maxBytesPerSecond   cap on the bytes per second sent by all sessions together, 0 or less for no cap
+     * @param chunkDurationMillis audio per chunk, 0 or less to keep the configured chunk size in bytes
+     */
+    @Autowired
+    public AudioPacer(@Value("${pacing.realTimeFactor:0}") double realTimeFactor,
+                      @Value("${pacing.maxBytesPerSecond:0}") long maxBytesPerSecond,
+                      @Value("${chunkDurationMillis:0}") int chunkDurationMillis) {
+        this.realTimeFactor = realTimeFactor;
+        this.chunkDurationMillis = chunkDurationMillis;
+        // One second of burst keeps the shared cap smooth without serializing sessions on every chunk.
+        this.globalBucket = maxBytesPerSecond > 0 ? new TokenBucket(maxBytesPerSecond, maxBytesPerSecond) : null;
+        this.scheduler = realTimeFactor > 0 || globalBucket != null
+                ? Executors.newSingleThreadScheduledExecutor(StreamingExecutorConfiguration.daemonThreads("audio-pacer-"))
+                : null;
+    }
+
+    /**
+     * @return a pacer that keeps the chunk size in bytes and sends as fast as the subscriber asks
+     */
+    public static AudioPacer unpaced() {
+        return new AudioPacer(0, 0, 0);
+    }
+
+    /**
+     * Bytes per second of 16 bit PCM for the request, or 0 if the request has no sample rate.
+     */
+    public static int bytesPerSecond(StartStreamTranscriptionRequest request) {
+        if (request == null || request.mediaSampleRateHertz() == null) {
+            return 0;
+        }
+        return request.mediaSampleRateHertz() * frameSize(request);
+    }
+
+    private static int frameSize(StartStreamTranscriptionRequest request) {
+        Integer channels = request.numberOfChannels();
+        return BYTES_PER_SAMPLE * (channels == null ? 1 : channels);
+    }
+
+    /**
+     * @param request          transcription request of the session
+     * @param defaultChunkSize chunk size in bytes to use when chunks are not sized by duration
+     * @return chunk size in bytes, a whole number of frames
+     */
+    public int chunkSizeInBytes(StartStreamTranscriptionRequest request, int defaultChunkSize) {
+        int bytesPerSecond = bytesPerSecond(request);
+        if (chunkDurationMillis <= 0 || bytesPerSecond == 0) {
+            return defaultChunkSize;
+        }
+        int frameSize = frameSize(request);
+        long chunk = (long) bytesPerSecond * chunkDurationMillis / 1000;
+        return (int) Math.max(frameSize, chunk - chunk % frameSize);
+    }
+
+    /**
+     * @param request   transcription request of the session
+     * @param chunkSize chunk size in bytes of the session
+     * @return pacing state of a new session, or null if sessions are not paced
+     */
+    public Pacing forSession(StartStreamTranscriptionRequest request, int chunkSize) {
+        int bytesPerSecond = bytesPerSecond(request);
+        TokenBucket sessionBucket = null;
+        if (realTimeFactor > 0 && bytesPerSecond > 0) {
+            double rate = bytesPerSecond * realTimeFactor;
+            // Burst of two chunks so a chunk can go out as soon as its audio time has elapsed.
+            sessionBucket = new TokenBucket(rate, 2.0 * chunkSize);
+        }
+        if (sessionBucket == null && globalBucket == null) {
+            return null;
+        }
+        return new Pacing(sessionBucket);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Pacing state of one session. Used by a single drain at a time.
+     */
+    public final class Pacing {
+        private final TokenBucket sessionBucket;
+
+        private Pacing(TokenBucket sessionBucket) {
+            this.sessionBucket = sessionBucket;
+        }
+
+        /**
+         * Takes tokens for a chunk if both the session and the shared bucket have them.
+         *
+         * @return 0 if the chunk may be sent now, otherwise nanoseconds to wait before asking again
+         */
+        public long delayBeforeSending(int bytes) {
+            if (sessionBucket != null) {
+                long wait = sessionBucket.nanosUntilAvailable(bytes);
+                if (wait > 0) {
+                    return wait;
+                }
+            }
+            if (globalBucket != null) {
+                long wait = globalBucket.tryTake(bytes);
+                if (wait > 0) {
+                    return wait;
+                }
+            }
+            if (sessionBucket != null) {
+                sessionBucket.tryTake(bytes);
+            }
+            return 0;
+        }
+
+        public void schedule(Runnable task, long delayNanos) {
+            scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Token bucket of bytes, refilled lazily from {@link System#nanoTime()}.
+     */
+    static final class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double tokensPerSecond, double capacity) {
+            this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        synchronized long nanosUntilAvailable(int bytes) {
+            refill();
+            // A chunk larger than the bucket is let through once the bucket is full.
+            double needed = Math.min(bytes, capacity);
+            return tokens >= needed ? 0 : (long) Math.ceil((needed - tokens) / tokensPerNano);
+        }
+
+        /**
+         * @return 0 if the tokens were taken, otherwise nanoseconds until they are available
+         */
+        synchronized long tryTake(int bytes) {
+            long wait = nanosUntilAvailable(bytes);
+            if (wait == 0) {
+                tokens -= bytes;
+            }
+            return wait;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+}
@@ -19,7 +19,6 @@ package com.sample.transcribestreamin.multichannel;
 
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
-import org.reactivestreams.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,6 +28,7 @@ import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
 
 import java.util.concurrent.ExecutorService;
 
@@ -41,24 +41,45 @@ import java.util.concurrent.ExecutorService;
 public class AudioStreamPublisher implements Publisher<AudioStream> {
     private static final Logger LOG = LoggerFactory.getLogger(AudioStreamPublisher.class);
     @Value("${chunkSizeInBytes:1024}")
-    private final int chunkSizeInBytes = 1024;
+    private int chunkSizeInBytes = 1024;
     @Autowired
     @Qualifier("transcriptionExecutorService")
     private ExecutorService executor;
+    @Autowired
+    private AudioBufferPool bufferPool;
+    @Autowired
+    private AudioPacer audioPacer;
     private ByteToAudioEventSubscription.StreamReader streamReader;
+    private StreamingMetrics.SessionMeter meter;
+    /**
+     * Subscription of the latest attempt, stopped before a retry rewinds the reader it shares.
+     */
+    private ByteToAudioEventSubscription subscription;
 
     public AudioStreamPublisher() {
         LOG.info("Creating publisher");
     }
 
     @Override
-    public void subscribe(Subscriber<? super AudioStream> s) {
+    public synchronized void subscribe(Subscriber<? super AudioStream> s) {
         LOG.info("Subscribing :{},{}", streamReader.label(), s);
-        Subscription subscription = new ByteToAudioEventSubscription(s, executor, chunkSizeInBytes, streamReader);
+        if (subscription != null) {
+            // The previous attempt may still be draining; it must not read once the reader is rewound.
+            subscription.stopReading();
+            streamReader.onResubscribe();
+        }
+        StartStreamTranscriptionRequest request = streamReader.getTranscriptionRequest();
+        int chunkSize = audioPacer.chunkSizeInBytes(request, chunkSizeInBytes);
+        subscription = new ByteToAudioEventSubscription(s, executor, chunkSize, streamReader, bufferPool,
+                audioPacer.forSession(request, chunkSize), meter);
         s.onSubscribe(subscription);
     }
 
     public void setStreamReader(ByteToAudioEventSubscription.StreamReader streamReader) {
         this.streamReader = streamReader;
     }
+
+    public void setSessionMeter(StreamingMetrics.SessionMeter meter) {
+        this.meter = meter;
+    }
 }
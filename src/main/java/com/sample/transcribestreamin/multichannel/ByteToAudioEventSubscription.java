@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is an example Subscription implementation that converts bytes read from an AudioStream into AudioEvents
@@ -41,33 +42,92 @@ import java.util.concurrent.ExecutorService;
  */
 public class ByteToAudioEventSubscription implements Subscription {
     private static final Logger LOG = LoggerFactory.getLogger(ByteToAudioEventSubscription.class);
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+    private static final int MAX_EVENTS_PER_DRAIN = 64;
     private final int chunkSizeInBytes;
     private final ExecutorService executor;
     private final Subscriber<? super AudioStream> subscriber;
     private final StreamReader streamReader;
+    private final AudioBufferPool bufferPool;
+    private final AudioPacer.Pacing pacing;
+    private final StreamingMetrics.SessionMeter meter;
+    private final AtomicLong demand = new AtomicLong();
+    /**
+     * Held by the drain while it reads, see {@link #stopReading()}.
+     */
+    private final Object readLock = new Object();
+    private volatile boolean done;
 
 
     public ByteToAudioEventSubscription(Subscriber<? super AudioStream> s, ExecutorService executor, int chunkSizeInBytes, StreamReader streamReader) {
-        LOG.info("Creating ByteToAudioEventSubscription :{}", streamReader.label());
+        this(s, executor, chunkSizeInBytes, streamReader, new AudioBufferPool());
+    }
+
+    public ByteToAudioEventSubscription(Subscriber<? super AudioStream> s, ExecutorService executor, int chunkSizeInBytes, StreamReader streamReader, AudioBufferPool bufferPool) {
+        this(s, executor, chunkSizeInBytes, streamReader, bufferPool, null);
+    }
+
+    /**
+     * @param pacing pacing state of the session, or null to send as fast as the subscriber asks
+     */
+    public ByteToAudioEventSubscription(Subscriber<? super AudioStream> s, ExecutorService executor, int chunkSizeInBytes, StreamReader streamReader, AudioBufferPool bufferPool, AudioPacer.Pacing pacing) {
+        this(s, executor, chunkSizeInBytes, streamReader, bufferPool, pacing, null);
+    }
+
+    /**
+     * @param meter meters of the session, or null to send without recording metrics
+     */
+    public ByteToAudioEventSubscription(Subscriber<? super AudioStream> s, ExecutorService executor, int chunkSizeInBytes, StreamReader streamReader, AudioBufferPool bufferPool, AudioPacer.Pacing pacing, StreamingMetrics.SessionMeter meter) {
+        LOG.info("Creating ByteToAudioEventSubscription :{}, chunk size:{}", streamReader.label(), chunkSizeInBytes);
         this.subscriber = s;
         this.executor = executor;
         this.chunkSizeInBytes = chunkSizeInBytes;
         this.streamReader = streamReader;
+        this.bufferPool = bufferPool;
+        this.pacing = pacing;
+        this.meter = meter;
     }
 
     @Override
     public void request(long n) {
+        if (done) {
+            return;
+        }
         if (n <= 0) {
+            // Rule 3.9: non-positive demand is signalled as an error and ends the subscription.
+            done = true;
             subscriber.onError(new IllegalArgumentException("Demand must be positive"));
+            return;
         }
 
-        //We need to invoke this in a separate thread because the call to subscriber.onNext(...) is recursive
+        //We need to invoke this in a separate thread because the call to subscriber.onNext(...) is recursive.
+        //Only the request that raises demand from zero schedules a drain, so at most one drain runs per subscription.
+        if (addDemand(n) == 0) {
+            scheduleDrain();
+        }
+    }
+
+    private long addDemand(long n) {
+        while (true) {
+            long current = demand.get();
+            long next = current + n;
+            if (next < 0) {
+                next = Long.MAX_VALUE; // Rule 3.17: demand of Long.MAX_VALUE or more is effectively unbounded
+            }
+            if (demand.compareAndSet(current, next)) {
+                return current;
+            }
+        }
+    }
+
+    private void scheduleDrain() {
         try {
-            executor.submit(() -> this.sendNEvents(n));
+            executor.execute(this::drain);
         } catch (Exception e) {
             LOG.error("Exception while submitting task to executor :{}", streamReader.label(), e);
+            done = true;
+            subscriber.onError(e);
         }
-
     }
 
     /**
@@ -76,62 +136,176 @@ public class ByteToAudioEventSubscription implements Subscription {
      * if performed by multiple threads—use external synchronization.
      * The intent of this rule is to make it clear that external synchronization must be employed if the Publisher
      * intends to send signals from multiple/different threads.
-     * @param n
+     * <p>
+     * The executor is shared by all sessions, so signals are serialized by the demand counter instead: a drain is
+     * only scheduled when demand goes up from zero, and it only exits once it has brought demand back to zero or
+     * has scheduled its own continuation. After {@code MAX_EVENTS_PER_DRAIN} events the drain yields the thread
+     * so that sessions with large demand do not starve the others. A paced session that has to wait for tokens
+     * returns the thread as well and its drain is rescheduled by the pacer's timer.
+     * <p>
+     * Chunks are read into pooled buffers whose array the event wraps without a copy. The buffer is lent to the
+     * subscriber for the duration of {@code onNext} and returned to the pool when it returns: the SDK client maps
+     * the publisher with {@code SdkPublisher.map}, which marshals and encodes each event into its own event stream
+     * frame inside {@code onNext}. {@code AudioEventHandOffTest} checks this against the SDK's encoder.
      */
-    private synchronized void sendNEvents(long n) {
-        for (long index = 0; index < n; index++) {
+    private void drain() {
+        long sent = 0;
+        while (sent < MAX_EVENTS_PER_DRAIN) {
+            if (done) {
+                return;
+            }
+            if (sent == demand.get()) {
+                if (demand.addAndGet(-sent) == 0) {
+                    return;
+                }
+                sent = 0;
+                continue;
+            }
+            if (pacing != null) {
+                long delay = pacing.delayBeforeSending(chunkSizeInBytes);
+                if (delay > 0) {
+                    // Demand stays above zero, so no request schedules another drain while this one waits.
+                    demand.addAndGet(-sent);
+                    pacing.schedule(this::scheduleDrain, delay);
+                    return;
+                }
+            }
             try {
-                ByteBuffer audioBuffer = getNextEvent();
+                ByteBuffer audioBuffer;
+                synchronized (readLock) {
+                    if (done) {
+                        return;
+                    }
+                    audioBuffer = getNextEvent();
+                }
                 if (audioBuffer.remaining() > 0) {
-                    AudioEvent audioEvent = audioEventFromBuffer(audioBuffer);
-                    subscriber.onNext(audioEvent);
+                    int length = audioBuffer.remaining();
+                    long start = meter == null ? 0 : System.nanoTime();
+                    try {
+                        subscriber.onNext(audioEventFromBuffer(audioBuffer));
+                    } finally {
+                        recycle(audioBuffer);
+                    }
+                    if (meter != null) {
+                        meter.sent(length, System.nanoTime() - start);
+                    }
+                    sent++;
                 } else {
+                    done = true;
                     subscriber.onComplete();
-                    break;
+                    return;
                 }
             } catch (Exception e) {
                 LOG.error("Exception while reading and sending event:{}", streamReader.label(), e);
+                done = true;
                 subscriber.onError(e);
+                return;
             }
-
+        }
+        if (demand.addAndGet(-sent) > 0) {
+            scheduleDrain();
         }
     }
 
+    /**
+     * Stops emitting. The executor is shared with other sessions and is left running.
+     */
     @Override
     public void cancel() {
-        executor.shutdown();
+        done = true;
     }
 
-    private ByteBuffer getNextEvent() {
-        ByteBuffer audioBuffer = null;
-        byte[] audioBytes = new byte[chunkSizeInBytes];
+    /**
+     * Cancels and waits for a read in progress to finish, so that this subscription does not read from the stream
+     * reader again. The publisher calls it before the reader is rewound for a new subscription.
+     */
+    void stopReading() {
+        done = true;
+        synchronized (readLock) {
+            // A drain that holds the lock finishes its read; one that takes it later sees done.
+        }
+    }
+
+    /**
+     * Reads the next chunk into a pooled buffer, to be returned with {@link #recycle(ByteBuffer)} once the event
+     * wrapping it has been encoded.
+     *
+     * @return the chunk, or an empty buffer at end of stream
+     */
+    ByteBuffer getNextEvent() {
+        ByteBuffer audioBuffer = bufferPool.acquire(chunkSizeInBytes);
 
         try {
-            int len = streamReader.read(audioBytes);
+            int len = streamReader.read(audioBuffer);
 
             if (len <= 0) {
-                audioBuffer = ByteBuffer.allocate(0);
-            } else {
-                audioBuffer = ByteBuffer.wrap(audioBytes, 0, len);
+                bufferPool.release(audioBuffer);
+                return EMPTY_BUFFER;
             }
         } catch (IOException e) {
+            bufferPool.release(audioBuffer);
             throw new UncheckedIOException(e);
         }
 
+        audioBuffer.flip();
         return audioBuffer;
     }
 
-    private AudioEvent audioEventFromBuffer(ByteBuffer bb) {
+    /**
+     * Wraps the chunk without copying when it fills its backing array, which is the case for every chunk but the
+     * last one of a stream; the event is only valid until the buffer is recycled.
+     */
+    AudioEvent audioEventFromBuffer(ByteBuffer bb) {
+        SdkBytes audioChunk;
+        if (bb.hasArray() && bb.arrayOffset() == 0 && bb.position() == 0 && bb.limit() == bb.array().length) {
+            audioChunk = SdkBytes.fromByteArrayUnsafe(bb.array());
+        } else {
+            audioChunk = SdkBytes.fromByteBuffer(bb);
+        }
         return AudioEvent.builder()
-                .audioChunk(SdkBytes.fromByteBuffer(bb))
+                .audioChunk(audioChunk)
                 .build();
     }
 
+    /**
+     * Returns a buffer from {@link #getNextEvent()} to the pool.
+     */
+    void recycle(ByteBuffer buffer) {
+        if (buffer != EMPTY_BUFFER) {
+            bufferPool.release(buffer);
+        }
+    }
+
     public interface StreamReader {
         int read(byte[] b) throws IOException;
 
+        /**
+         * Reads audio into the remaining space of {@code buffer} and advances its position. This is the read the
+         * subscription makes for every chunk, so readers write straight into the buffer, which may be direct.
+         *
+         * @param buffer destination buffer
+         * @return number of bytes read, or a value &lt;= 0 at end of stream
+         */
+        int read(ByteBuffer buffer) throws IOException;
+
         StartStreamTranscriptionRequest getTranscriptionRequest();
 
+        /**
+         * Channels of each source recording, adjacent in the frame. Readers of stereo recordings return 2 and
+         * declare every channel in the request; the DSP stage downmixes each source to one channel before it is
+         * sent. By default each channel is its own source.
+         */
+        default int channelsPerSource() {
+            return 1;
+        }
+
+        /**
+         * Called when the publisher is subscribed again because a failed session is being retried.
+         * Readers that can replay audio rewind here; by default reading continues where it stopped.
+         */
+        default void onResubscribe() {
+        }
+
         void close();
 
         String label();
@@ -0,0 +1,306 @@
+package com.sample.transcribestreamin.multichannel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Interleaves N PCM sources into one multi channel stream of frames. A frame holds one sample of every channel, in
+ * source order. Each source has the same number of channels, one for mono sources, and its channels stay adjacent
+ * in the frame, so two stereo sources give four channels. Samples are 8, 16, 24 or 32 bits wide and are copied as
+ * is, so the byte order of the sources is kept.
+ * <p>
+ * Each source is bulk read into a reusable read-ahead buffer and samples are scattered into the destination with
+ * index loops, so reads do not allocate. The read-ahead buffer keeps read and write indices and is only compacted
+ * when a read would run past its end. The destination is either a byte array or a {@link ByteBuffer}, which may be
+ * direct. When a source ends before the others its channel is padded with silence; the interleaved stream ends
+ * when every source has ended.
+ * <p>
+ * Reads write whole frames. A read with room for less than a frame interleaves one frame into a side buffer and
+ * returns its first bytes; the following reads return the rest of it first.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class ChannelInterleaver implements Closeable {
+    public static final int DEFAULT_READ_AHEAD_BYTES = 8192;
+    private final Channel[] channels;
+    private final int bytesPerSample;
+    private final int channelsPerSource;
+    /**
+     * Bytes each source contributes to a frame: one sample of each of its channels.
+     */
+    private final int sourceFrameSize;
+    private final int frameSize;
+    private final byte silence;
+    /**
+     * The frame of a read with room for less than a frame, and the part of it already returned.
+     */
+    private final byte[] partial;
+    private int partialPosition;
+    private int partialLength;
+    /**
+     * Interleaved frames for a direct destination, allocated on the first direct read.
+     */
+    private byte[] scratch;
+
+    public ChannelInterleaver(int bitsPerSample, InputStream... sources) {
+        this(Arrays.asList(sources), bitsPerSample, DEFAULT_READ_AHEAD_BYTES);
+    }
+
+    /**
+     * @param sources        one mono stream per channel, in channel order. A null entry is treated as an empty source
+     * @param bitsPerSample  sample width: 8, 16, 24 or 32
+     * @param readAheadBytes size of the read-ahead buffer kept for each source, rounded down to whole samples
+     */
+    public ChannelInterleaver(List<? extends InputStream> sources, int bitsPerSample, int readAheadBytes) {
+        this(sources, bitsPerSample, 1, readAheadBytes);
+    }
+
+    /**
+     * @param sources           streams in channel order, each holding interleaved frames of
+     *                          {@code channelsPerSource} channels. A null entry is treated as an empty source
+     * @param bitsPerSample     sample width: 8, 16, 24 or 32
+     * @param channelsPerSource channels of every source, 1 for mono
+     * @param readAheadBytes    size of the read-ahead buffer kept for each source, rounded down to whole source
+     *                          frames
+     */
+    public ChannelInterleaver(List<? extends InputStream> sources, int bitsPerSample, int channelsPerSource,
+                              int readAheadBytes) {
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("At least one source is required");
+        }
+        if (bitsPerSample != 8 && bitsPerSample != 16 && bitsPerSample != 24 && bitsPerSample != 32) {
+            throw new IllegalArgumentException("Unsupported sample width: " + bitsPerSample);
+        }
+        if (channelsPerSource < 1) {
+            throw new IllegalArgumentException("channelsPerSource must be at least 1: " + channelsPerSource);
+        }
+        this.bytesPerSample = bitsPerSample / 8;
+        this.channelsPerSource = channelsPerSource;
+        this.sourceFrameSize = bytesPerSample * channelsPerSource;
+        if (readAheadBytes < sourceFrameSize) {
+            throw new IllegalArgumentException("readAheadBytes must hold at least one frame of a source");
+        }
+        this.frameSize = sourceFrameSize * sources.size();
+        // 8 bit PCM is unsigned, wider samples are signed.
+        this.silence = bytesPerSample == 1 ? (byte) 0x80 : 0;
+        this.partial = new byte[frameSize];
+        int capacity = readAheadBytes - readAheadBytes % sourceFrameSize;
+        this.channels = new Channel[sources.size()];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new Channel(sources.get(i), capacity);
+        }
+    }
+
+    /**
+     * @return channels of the interleaved stream, over all sources
+     */
+    public int channels() {
+        return channels.length * channelsPerSource;
+    }
+
+    public int bytesPerSample() {
+        return bytesPerSample;
+    }
+
+    public int frameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Reads frames into {@code b}: the rest of a partly returned frame, if any, then as many whole frames as fit.
+     *
+     * @return number of bytes written, at least 1 unless {@code len} is 0; -1 once all sources have ended
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int copied = 0;
+        if (partialPosition < partialLength) {
+            copied = Math.min(len, partialLength - partialPosition);
+            System.arraycopy(partial, partialPosition, b, off, copied);
+            partialPosition += copied;
+            off += copied;
+            len -= copied;
+            if (len < frameSize) {
+                return copied;
+            }
+        }
+        if (len < frameSize) {
+            if (readFrames(partial, 0, frameSize) < 0) {
+                return -1;
+            }
+            System.arraycopy(partial, 0, b, off, len);
+            partialPosition = len;
+            partialLength = frameSize;
+            return len;
+        }
+        int read = readFrames(b, off, len);
+        if (read < 0) {
+            return copied > 0 ? copied : -1;
+        }
+        return copied + read;
+    }
+
+    /**
+     * @return number of bytes written, a multiple of {@link #frameSize()}; -1 once all sources have ended
+     */
+    private int readFrames(byte[] b, int off, int len) throws IOException {
+        int frames = prepare(len / frameSize);
+        if (frames <= 0) {
+            return frames;
+        }
+        for (int c = 0; c < channels.length; c++) {
+            Channel channel = channels[c];
+            scatter(channel.buffer, channel.start, channel.samples, frames, b, off + c * sourceFrameSize);
+            channel.consume();
+        }
+        return frames * frameSize;
+    }
+
+    /**
+     * Reads frames into the remaining space of {@code dst}, as {@link #read(byte[], int, int)} does, and advances
+     * its position. Heap buffers are written through their backing array. Direct buffers are interleaved into a
+     * reusable heap array, the size of one read-ahead of every channel, and copied with one bulk put.
+     *
+     * @return number of bytes written, at least 1 if {@code dst} has space; -1 once all sources have ended
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            int len = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (len > 0) {
+                dst.position(dst.position() + len);
+            }
+            return len;
+        }
+        if (scratch == null) {
+            scratch = new byte[channels[0].buffer.length / sourceFrameSize * frameSize];
+        }
+        int len = read(scratch, 0, Math.min(scratch.length, dst.remaining()));
+        if (len > 0) {
+            dst.put(scratch, 0, len);
+        }
+        return len;
+    }
+
+    /**
+     * Buffers up to {@code maxFrames} frames of every source.
+     *
+     * @return number of frames that can be written, -1 at end of all sources
+     */
+    private int prepare(int maxFrames) throws IOException {
+        int frames = Math.min(maxFrames, channels[0].buffer.length / sourceFrameSize);
+        int needed = frames * sourceFrameSize;
+        int available = 0;
+        for (Channel channel : channels) {
+            channel.fill(needed);
+            // A source that has not ended holds at least `needed` bytes, an ended one may hold less.
+            channel.samples = Math.min(frames, (channel.end - channel.start) / sourceFrameSize);
+            available = Math.max(available, channel.samples);
+        }
+        return available == 0 ? -1 : available;
+    }
+
+    /**
+     * Copies {@code samples} frames of one source, starting at {@code from} in {@code src}, into successive frames
+     * of {@code dst} starting at {@code off} and pads the remaining {@code frames - samples} frames with silence.
+     */
+    private void scatter(byte[] src, int from, int samples, int frames, byte[] dst, int off) {
+        int d = off;
+        int end = from + samples * sourceFrameSize;
+        switch (sourceFrameSize) {
+            case 1:
+                for (int s = from; s < end; s++, d += frameSize) {
+                    dst[d] = src[s];
+                }
+                break;
+            case 2:
+                for (int s = from; s < end; s += 2, d += frameSize) {
+                    dst[d] = src[s];
+                    dst[d + 1] = src[s + 1];
+                }
+                break;
+            default:
+                for (int s = from; s < end; s += sourceFrameSize, d += frameSize) {
+                    System.arraycopy(src, s, dst, d, sourceFrameSize);
+                }
+        }
+        for (int i = samples; i < frames; i++, d += frameSize) {
+            for (int k = 0; k < sourceFrameSize; k++) {
+                dst[d + k] = silence;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Channel channel : channels) {
+            try {
+                if (channel.stream != null) channel.stream.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Read-ahead state of one source stream. The buffered bytes are {@code buffer[start, end)}.
+     */
+    private final class Channel {
+        private final InputStream stream;
+        private final byte[] buffer;
+        private int start;
+        private int end;
+        private int samples;
+        private boolean ended;
+
+        private Channel(InputStream stream, int capacity) {
+            this.stream = stream;
+            this.buffer = new byte[capacity];
+            this.ended = stream == null;
+        }
+
+        /**
+         * Reads from the source until at least {@code needed} bytes are buffered or the source ends.
+         * Each read asks for all the free space after {@code end} so the source is read in large blocks. The
+         * buffered bytes are moved to the front only when {@code needed} bytes would not fit after {@code start}.
+         */
+        private void fill(int needed) throws IOException {
+            if (ended || end - start >= needed) {
+                return;
+            }
+            if (start + needed > buffer.length) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            while (!ended && end - start < needed) {
+                int bytesRead = stream.read(buffer, end, buffer.length - end);
+                if (bytesRead == -1) {
+                    ended = true;
+                } else {
+                    end += bytesRead;
+                }
+            }
+        }
+
+        private void consume() {
+            start += samples * sourceFrameSize;
+            if (start == end) {
+                start = 0;
+                end = 0;
+            }
+        }
+    }
+}
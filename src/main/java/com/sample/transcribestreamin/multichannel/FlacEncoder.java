@@ -0,0 +1,400 @@
+package com.sample.transcribestreamin.multichannel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental FLAC encoder for 16 bit PCM, one frame per call, in the spirit of the fastest {@code flac} levels:
+ * channels are coded independently, each as a constant, a fixed polynomial predictor of order 0 to 4 with
+ * partitioned Rice coded residuals, or verbatim, whichever is smallest. Silence costs a few bytes per frame and
+ * speech typically half of PCM.
+ * <p>
+ * Frames use the variable block size strategy, so any number of samples fits in a frame, up to
+ * {@link #MAX_BLOCK_FRAMES}. The stream header declares no total length or MD5 since the stream is open ended.
+ * Sample and output buffers grow to the largest block seen and are reused.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class FlacEncoder {
+    static final int MAX_BLOCK_FRAMES = 65535;
+    private static final int BITS_PER_SAMPLE = 16;
+    private static final int BYTES_PER_SAMPLE = 2;
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int MAX_PARTITION_ORDER = 8;
+    private static final int MAX_RICE_PARAMETER = 14;
+    private static final int[] CRC8 = new int[256];
+    private static final int[] CRC16 = new int[256];
+    private final int sampleRate;
+    private final int channels;
+    private int[][] samples = new int[0][];
+    private int[] residual = new int[0];
+    private final long[] partitionSums = new long[1 << MAX_PARTITION_ORDER];
+    private final int[] riceParameters = new int[1 << MAX_PARTITION_ORDER];
+    private long sampleNumber;
+    private byte[] out = new byte[64];
+    private int length;
+    private long bits;
+    private int bitCount;
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int b = 0; b < 8; b++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8[i] = crc8 & 0xff;
+            CRC16[i] = crc16 & 0xffff;
+        }
+    }
+
+    FlacEncoder(int sampleRate, int channels) {
+        if (channels < 1 || channels > 8) {
+            throw new IllegalArgumentException("FLAC holds 1 to 8 channels, not " + channels);
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+    }
+
+    /**
+     * Starts a new stream: the next frame is numbered from sample 0 and follows a new stream header.
+     */
+    void reset() {
+        sampleNumber = 0;
+    }
+
+    /**
+     * @return bytes of {@link #output()} written by the last call
+     */
+    int length() {
+        return length;
+    }
+
+    byte[] output() {
+        return out;
+    }
+
+    /**
+     * Encodes the {@code fLaC} marker and the STREAMINFO block into {@link #output()}.
+     */
+    void encodeStreamHeader() {
+        begin(42);
+        writeBits('f', 8);
+        writeBits('L', 8);
+        writeBits('a', 8);
+        writeBits('C', 8);
+        writeBits(0x80, 8); // last metadata block, STREAMINFO
+        writeBits(34, 24);
+        writeBits(16, 16); // minimum block size, the last block excepted
+        writeBits(MAX_BLOCK_FRAMES, 16);
+        writeBits(0, 24); // frame sizes unknown
+        writeBits(0, 24);
+        writeBits(sampleRate, 20);
+        writeBits(channels - 1, 3);
+        writeBits(BITS_PER_SAMPLE - 1, 5);
+        writeBits(0, 4); // total samples unknown
+        writeBits(0, 32);
+        for (int i = 0; i < 4; i++) {
+            writeBits(0, 32); // no MD5
+        }
+    }
+
+    /**
+     * Encodes {@code frames} interleaved 16 bit little endian frames from the absolute position {@code offset} of
+     * {@code pcm} as one FLAC frame into {@link #output()}.
+     */
+    void encodeFrame(ByteBuffer pcm, int offset, int frames) {
+        if (frames <= 0 || frames > MAX_BLOCK_FRAMES) {
+            throw new IllegalArgumentException("Block of " + frames + " frames");
+        }
+        if (samples.length < channels || samples[0].length < frames) {
+            samples = new int[channels][frames];
+            residual = new int[frames];
+        }
+        for (int f = 0, index = offset; f < frames; f++) {
+            for (int c = 0; c < channels; c++, index += BYTES_PER_SAMPLE) {
+                samples[c][f] = pcm.getShort(index);
+            }
+        }
+        // Worst case is verbatim, plus headers, padding and CRC.
+        begin(frames * channels * BYTES_PER_SAMPLE + 16 + 2 * channels);
+
+        writeBits(0xfff9, 16); // sync code, variable block size
+        boolean smallBlock = frames <= 256;
+        writeBits(smallBlock ? 6 : 7, 4); // block size in 8 or 16 bits at the end of the header
+        writeBits(0, 4); // sample rate from STREAMINFO
+        writeBits(channels - 1, 4); // independent channels
+        writeBits(4, 3); // 16 bits per sample
+        writeBits(0, 1);
+        writeUtf8(sampleNumber);
+        writeBits(frames - 1, smallBlock ? 8 : 16);
+        writeBits(crc8(out, length), 8);
+
+        for (int c = 0; c < channels; c++) {
+            writeSubframe(samples[c], frames);
+        }
+        if (bitCount > 0) {
+            writeBits(0, 8 - bitCount);
+        }
+        writeBits(crc16(out, length), 16);
+        sampleNumber += frames;
+    }
+
+    private void writeSubframe(int[] x, int n) {
+        boolean constant = true;
+        for (int i = 1; i < n && constant; i++) {
+            constant = x[i] == x[0];
+        }
+        if (constant) {
+            writeBits(0, 8);
+            writeBits(x[0], BITS_PER_SAMPLE);
+            return;
+        }
+        long verbatimBits = (long) n * BITS_PER_SAMPLE;
+        if (n > MAX_FIXED_ORDER) {
+            int order = fixedOrder(x, n);
+            computeResidual(x, n, order);
+            int partitionOrder = choosePartitions(n, order);
+            long fixedBits = (long) order * BITS_PER_SAMPLE + riceBits(n, order, partitionOrder);
+            if (fixedBits < verbatimBits) {
+                writeBits(0x10 | order << 1, 8);
+                for (int i = 0; i < order; i++) {
+                    writeBits(x[i], BITS_PER_SAMPLE);
+                }
+                writeResidual(n, order, partitionOrder);
+                return;
+            }
+        }
+        writeBits(0x02, 8);
+        for (int i = 0; i < n; i++) {
+            writeBits(x[i], BITS_PER_SAMPLE);
+        }
+    }
+
+    /**
+     * @return the fixed predictor order with the smallest sum of absolute residuals
+     */
+    private static int fixedOrder(int[] x, int n) {
+        long sum0 = 0;
+        long sum1 = 0;
+        long sum2 = 0;
+        long sum3 = 0;
+        long sum4 = 0;
+        int last0 = x[3];
+        int last1 = x[3] - x[2];
+        int last2 = last1 - (x[2] - x[1]);
+        int last3 = last2 - (x[2] - x[1] - (x[1] - x[0]));
+        for (int i = MAX_FIXED_ORDER; i < n; i++) {
+            int e0 = x[i];
+            int e1 = e0 - last0;
+            int e2 = e1 - last1;
+            int e3 = e2 - last2;
+            int e4 = e3 - last3;
+            sum0 += Math.abs(e0);
+            sum1 += Math.abs(e1);
+            sum2 += Math.abs(e2);
+            sum3 += Math.abs(e3);
+            sum4 += Math.abs(e4);
+            last0 = e0;
+            last1 = e1;
+            last2 = e2;
+            last3 = e3;
+        }
+        long min = Math.min(Math.min(sum0, sum1), Math.min(Math.min(sum2, sum3), sum4));
+        return min == sum0 ? 0 : min == sum1 ? 1 : min == sum2 ? 2 : min == sum3 ? 3 : 4;
+    }
+
+    private void computeResidual(int[] x, int n, int order) {
+        switch (order) {
+            case 0:
+                System.arraycopy(x, 0, residual, 0, n);
+                break;
+            case 1:
+                for (int i = 1; i < n; i++) {
+                    residual[i] = x[i] - x[i - 1];
+                }
+                break;
+            case 2:
+                for (int i = 2; i < n; i++) {
+                    residual[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                }
+                break;
+            case 3:
+                for (int i = 3; i < n; i++) {
+                    residual[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                }
+                break;
+            default:
+                for (int i = 4; i < n; i++) {
+                    residual[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                }
+        }
+    }
+
+    /**
+     * Picks the partition order with the fewest estimated bits, leaving the Rice parameter of each partition in
+     * {@link #riceParameters}. The estimate {@code (sum >> k)} bounds the unary part from above, so the bits
+     * written never exceed it.
+     *
+     * @return partition order
+     */
+    private int choosePartitions(int n, int order) {
+        int maxOrder = 0;
+        while (maxOrder < MAX_PARTITION_ORDER && n % (2 << maxOrder) == 0 && (n >> (maxOrder + 1)) > order) {
+            maxOrder++;
+        }
+        int partitions = 1 << maxOrder;
+        int partitionSize = n >> maxOrder;
+        for (int p = 0, i = order; p < partitions; p++) {
+            long sum = 0;
+            for (int end = (p + 1) * partitionSize; i < end; i++) {
+                int r = residual[i];
+                sum += (r << 1) ^ (r >> 31);
+            }
+            partitionSums[p] = sum;
+        }
+        int bestOrder = maxOrder;
+        long bestBits = Long.MAX_VALUE;
+        for (int partitionOrder = maxOrder; ; partitionOrder--) {
+            long bits = partitionBits(n, order, partitionOrder, false);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestOrder = partitionOrder;
+            }
+            if (partitionOrder == 0) {
+                break;
+            }
+            // Merges pairs of partitions into the sums of the next lower order.
+            for (int p = 0; p < 1 << (partitionOrder - 1); p++) {
+                partitionSums[p] = partitionSums[2 * p] + partitionSums[2 * p + 1];
+            }
+        }
+        // Recomputes the sums of the chosen order, which the merges overwrote, and keeps its parameters.
+        int size = n >> bestOrder;
+        for (int p = 0, i = order; p < 1 << bestOrder; p++) {
+            long sum = 0;
+            for (int end = (p + 1) * size; i < end; i++) {
+                int r = residual[i];
+                sum += (r << 1) ^ (r >> 31);
+            }
+            partitionSums[p] = sum;
+        }
+        partitionBits(n, order, bestOrder, true);
+        return bestOrder;
+    }
+
+    private long partitionBits(int n, int order, int partitionOrder, boolean keep) {
+        long bits = 2 + 4; // coding method, partition order
+        int size = n >> partitionOrder;
+        for (int p = 0; p < 1 << partitionOrder; p++) {
+            int count = p == 0 ? size - order : size;
+            long sum = partitionSums[p];
+            int k = count == 0 || sum < count ? 0 : Math.min(MAX_RICE_PARAMETER, 63 - Long.numberOfLeadingZeros(sum / count));
+            long best = riceBits(sum, count, k);
+            if (k > 0 && riceBits(sum, count, k - 1) < best) {
+                k--;
+                best = riceBits(sum, count, k);
+            } else if (k < MAX_RICE_PARAMETER && riceBits(sum, count, k + 1) < best) {
+                k++;
+                best = riceBits(sum, count, k);
+            }
+            if (keep) {
+                riceParameters[p] = k;
+            }
+            bits += 4 + best;
+        }
+        return bits;
+    }
+
+    private static long riceBits(long sum, int count, int k) {
+        return (sum >> k) + (long) count * (k + 1);
+    }
+
+    private long riceBits(int n, int order, int partitionOrder) {
+        long bits = 2 + 4;
+        int size = n >> partitionOrder;
+        for (int p = 0; p < 1 << partitionOrder; p++) {
+            int count = p == 0 ? size - order : size;
+            bits += 4 + riceBits(partitionSums[p], count, riceParameters[p]);
+        }
+        return bits;
+    }
+
+    private void writeResidual(int n, int order, int partitionOrder) {
+        writeBits(0, 2); // Rice coding with 4 bit parameters
+        writeBits(partitionOrder, 4);
+        int size = n >> partitionOrder;
+        for (int p = 0, i = order; p < 1 << partitionOrder; p++) {
+            int k = riceParameters[p];
+            writeBits(k, 4);
+            for (int end = (p + 1) * size; i < end; i++) {
+                int r = residual[i];
+                int u = (r << 1) ^ (r >> 31);
+                int quotient = u >>> k;
+                while (quotient >= 32) {
+                    writeBits(0, 32);
+                    quotient -= 32;
+                }
+                writeBits(0, quotient);
+                writeBits(1 << k | (u & ((1 << k) - 1)), k + 1);
+            }
+        }
+    }
+
+    /**
+     * Sample number in the UTF-8 like coding of frame headers, up to 36 bits.
+     */
+    private void writeUtf8(long value) {
+        if (value < 0x80) {
+            writeBits((int) value, 8);
+            return;
+        }
+        int bytes = value < 0x800 ? 2 : value < 0x10000 ? 3 : value < 0x200000 ? 4 : value < 0x4000000 ? 5
+                : value < 0x80000000L ? 6 : 7;
+        int shift = 6 * (bytes - 1);
+        writeBits((0xff << (8 - bytes)) & 0xff | (int) (value >>> shift), 8);
+        for (shift -= 6; shift >= 0; shift -= 6) {
+            writeBits(0x80 | (int) (value >>> shift) & 0x3f, 8);
+        }
+    }
+
+    private void begin(int capacity) {
+        if (out.length < capacity) {
+            out = new byte[capacity];
+        }
+        length = 0;
+        bits = 0;
+        bitCount = 0;
+    }
+
+    /**
+     * Appends the low {@code count} bits of {@code value}, most significant first; {@code count} is at most 32.
+     */
+    private void writeBits(int value, int count) {
+        if (count == 0) {
+            return;
+        }
+        bits = bits << count | (value & (-1L >>> (64 - count)));
+        bitCount += count;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            out[length++] = (byte) (bits >>> bitCount);
+        }
+    }
+
+    private static int crc8(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc = CRC8[(crc ^ data[i]) & 0xff];
+        }
+        return crc;
+    }
+
+    private static int crc16(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc = ((crc << 8) ^ CRC16[((crc >>> 8) ^ data[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,139 @@
+package com.sample.transcribestreamin.multichannel;
+
+import software.amazon.awssdk.services.transcribestreaming.model.MediaEncoding;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * StreamReader that sends the PCM of its source as a FLAC stream, with the request's media encoding set to FLAC.
+ * <p>
+ * Each read takes as much PCM from the source as the caller's buffer would hold and encodes it as one FLAC frame,
+ * so a chunk still carries the audio duration it was sized for and pacing is unchanged; only fewer bytes are
+ * sent. A frame that does not fit, which only happens when the audio does not compress, is sent over the next
+ * reads. The stream header goes out with the first frame, and again after a retry since the service sees a new
+ * stream.
+ * <p>
+ * It reads above {@link ReplayableStreamReader}, which keeps and replays PCM, so encoding is the last stage.
+ */
+public class FlacEncodingStreamReader implements ByteToAudioEventSubscription.StreamReader {
+    private static final int BYTES_PER_SAMPLE = 2;
+    private final ByteToAudioEventSubscription.StreamReader source;
+    private final StartStreamTranscriptionRequest request;
+    private final StreamingMetrics.SessionMeter meter;
+    private final FlacEncoder encoder;
+    private final int frameSize;
+    private ByteBuffer pcm = ByteBuffer.allocate(0);
+    private byte[] pendingArray = new byte[0];
+    private int pendingPosition;
+    private int pendingLimit;
+    private boolean headerSent;
+
+    /**
+     * @param meter meters of the session, which count the PCM encoded, or null
+     */
+    public FlacEncodingStreamReader(ByteToAudioEventSubscription.StreamReader source, StreamingMetrics.SessionMeter meter) {
+        StartStreamTranscriptionRequest sourceRequest = source.getTranscriptionRequest();
+        int channels = sourceRequest.numberOfChannels() == null ? 1 : sourceRequest.numberOfChannels();
+        this.source = source;
+        this.meter = meter;
+        this.encoder = new FlacEncoder(sourceRequest.mediaSampleRateHertz(), channels);
+        this.frameSize = channels * BYTES_PER_SAMPLE;
+        this.request = sourceRequest.toBuilder().mediaEncoding(MediaEncoding.FLAC).build();
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(ByteBuffer.wrap(b));
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        if (pendingPosition == pendingLimit && !encodeNext(buffer.remaining())) {
+            return -1;
+        }
+        int n = Math.min(buffer.remaining(), pendingLimit - pendingPosition);
+        buffer.put(pendingArray, pendingPosition, n);
+        pendingPosition += n;
+        return n;
+    }
+
+    /**
+     * Encodes the PCM that {@code chunkBytes} of the caller's buffer would hold, after the stream header if it has
+     * not been sent yet.
+     *
+     * @return false at the end of the source
+     */
+    private boolean encodeNext(int chunkBytes) throws IOException {
+        int pcmBytes = Math.max(frameSize, Math.min(chunkBytes, FlacEncoder.MAX_BLOCK_FRAMES * frameSize));
+        pcmBytes -= pcmBytes % frameSize;
+        if (pcm.capacity() < pcmBytes) {
+            // Keeps a partial frame left by the last read.
+            ByteBuffer larger = ByteBuffer.allocate(pcmBytes).order(ByteOrder.LITTLE_ENDIAN);
+            pcm.flip();
+            pcm = larger.put(pcm);
+        }
+        pcm.limit(pcmBytes);
+        while (pcm.hasRemaining()) {
+            if (source.read(pcm) <= 0) {
+                break;
+            }
+        }
+        int frames = pcm.position() / frameSize;
+        if (frames == 0) {
+            return false;
+        }
+        pendingLimit = 0;
+        if (!headerSent) {
+            encoder.encodeStreamHeader();
+            append(encoder.output(), encoder.length());
+            headerSent = true;
+        }
+        encoder.encodeFrame(pcm, 0, frames);
+        append(encoder.output(), encoder.length());
+        pendingPosition = 0;
+        if (meter != null) {
+            meter.encoded(frames * frameSize);
+        }
+        pcm.flip().position(frames * frameSize);
+        pcm.compact();
+        return true;
+    }
+
+    private void append(byte[] bytes, int length) {
+        if (pendingArray.length < pendingLimit + length) {
+            byte[] larger = new byte[pendingLimit + length];
+            System.arraycopy(pendingArray, 0, larger, 0, pendingLimit);
+            pendingArray = larger;
+        }
+        System.arraycopy(bytes, 0, pendingArray, pendingLimit, length);
+        pendingLimit += length;
+    }
+
+    @Override
+    public StartStreamTranscriptionRequest getTranscriptionRequest() {
+        return request;
+    }
+
+    @Override
+    public void onResubscribe() {
+        source.onResubscribe();
+        encoder.reset();
+        headerSent = false;
+        pcm.clear();
+        pendingPosition = 0;
+        pendingLimit = 0;
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+
+    @Override
+    public String label() {
+        return source.label();
+    }
+}
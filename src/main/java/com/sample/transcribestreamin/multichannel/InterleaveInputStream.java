@@ -1,95 +1,72 @@
 package com.sample.transcribestreamin.multichannel;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * InputStream view of a {@link ChannelInterleaver}. The two stream constructor keeps the original agent/caller
+ * layout of 16 bit samples; the list constructors take any number of sources, sample width and channels per source.
+ */
 public class InterleaveInputStream extends InputStream {
-    private static final int BLOCK_SIZE = 2; // Assuming 2 bytes per sample
-    private final InputStream agentStream;
-    private final InputStream callerStream;
+    private static final int BITS_PER_SAMPLE = 16; // Assuming 2 bytes per sample
+    private final ChannelInterleaver interleaver;
+    private final byte[] single = new byte[1];
 
     public InterleaveInputStream(InputStream agentStream, InputStream callerStream) {
-        this.agentStream = agentStream;
-        this.callerStream = callerStream;
+        this(Arrays.asList(agentStream, callerStream), BITS_PER_SAMPLE);
     }
 
-    @Override
-    public int read(byte[] byteBuffer) throws IOException {
-        byte[] agentBuffer = new byte[BLOCK_SIZE];
-        byte[] callerBuffer = new byte[BLOCK_SIZE];
-        FixedSizeByteArrayOutputStream combinedStream = new FixedSizeByteArrayOutputStream(byteBuffer);
-        int bytesRead;
-        while (byteBuffer.length - combinedStream.size() >= 2 * BLOCK_SIZE && (bytesRead = read(agentBuffer, callerBuffer)) != -1) {
-            combinedStream.write(agentBuffer, 0, bytesRead);
-            combinedStream.write(callerBuffer, 0, bytesRead);
-            agentBuffer = new byte[BLOCK_SIZE];
-            callerBuffer = new byte[BLOCK_SIZE];
-        }
-        return combinedStream.size();
+    public InterleaveInputStream(InputStream agentStream, InputStream callerStream, int readAheadBytes) {
+        this(Arrays.asList(agentStream, callerStream), BITS_PER_SAMPLE, readAheadBytes);
     }
 
+    public InterleaveInputStream(List<? extends InputStream> streams, int bitsPerSample) {
+        this(streams, bitsPerSample, ChannelInterleaver.DEFAULT_READ_AHEAD_BYTES);
+    }
 
-    private int read(InputStream stream, byte[] buffer) throws IOException {
-        if (stream != null) {
-            return stream.read(buffer);
-        } else {
-            return -1;
-        }
+    public InterleaveInputStream(List<? extends InputStream> streams, int bitsPerSample, int readAheadBytes) {
+        this(streams, bitsPerSample, 1, readAheadBytes);
     }
 
-    private int read(byte[] agentBuffer, byte[] callerBuffer) throws IOException {
-        int agentBytesRead = read(agentStream, agentBuffer);
-        int callerBytesRead = read(callerStream, callerBuffer);
+    /**
+     * @param channelsPerStream channels of each stream, whose samples stay adjacent in the interleaved frame
+     */
+    public InterleaveInputStream(List<? extends InputStream> streams, int bitsPerSample, int channelsPerStream,
+                                 int readAheadBytes) {
+        this.interleaver = new ChannelInterleaver(streams, bitsPerSample, channelsPerStream, readAheadBytes);
+    }
 
-        if (agentBytesRead == -1 && callerBytesRead == -1) {
-            return -1; // End of both streams
-        }
+    public int channels() {
+        return interleaver.channels();
+    }
 
-        if (agentBytesRead == -1) {
-            return callerBytesRead; // End of agent stream
-        }
+    @Override
+    public int read(byte[] byteBuffer) throws IOException {
+        return interleaver.read(byteBuffer, 0, byteBuffer.length);
+    }
 
-        if (callerBytesRead == -1) {
-            return agentBytesRead; // End of caller stream
-        }
+    @Override
+    public int read(byte[] byteBuffer, int off, int len) throws IOException {
+        return interleaver.read(byteBuffer, off, len);
+    }
 
-        return Math.min(agentBytesRead, callerBytesRead); // Return the minimum number of bytes read
+    /**
+     * Reads whole frames into the remaining space of {@code buffer}, see {@link ChannelInterleaver#read(ByteBuffer)}.
+     */
+    public int read(ByteBuffer buffer) throws IOException {
+        return interleaver.read(buffer);
     }
 
     @Override
     public int read() throws IOException {
-        throw new UnsupportedOperationException("read() is not supported");
+        return interleaver.read(single, 0, 1) == 1 ? single[0] & 0xff : -1;
     }
 
     @Override
     public void close() throws IOException {
-        if (agentStream != null) agentStream.close();
-        if (callerStream != null) callerStream.close();
-    }
-
-    public static class FixedSizeByteArrayOutputStream extends ByteArrayOutputStream {
-        private final int maxSize;
-
-        public FixedSizeByteArrayOutputStream(byte[] byteArr) {
-            this.buf = byteArr;
-            this.maxSize = byteArr.length;
-        }
-
-        @Override
-        public synchronized void write(int b) {
-            if (count + 1 > maxSize) {
-                throw new RuntimeException("Buffer limit exceeded");
-            }
-            super.write(b);
-        }
-
-        @Override
-        public synchronized void write(byte[] b, int off, int len) {
-            if (count + len > maxSize) {
-                throw new RuntimeException("Buffer limit exceeded");
-            }
-            super.write(b, off, len);
-        }
+        interleaver.close();
     }
 }
@@ -0,0 +1,62 @@
+package com.sample.transcribestreamin.multichannel;
+
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * StreamReader that records in an {@link AudioOffsetIndex} when each chunk of audio is read. The subscription
+ * sends a chunk as soon as it has read it, so this is the time the audio left the pipeline.
+ * <p>
+ * It sits under {@link ReplayableStreamReader}, so offsets are in stream time and audio replayed after a retry
+ * keeps the time it was first read.
+ */
+public class LatencyTrackingStreamReader implements ByteToAudioEventSubscription.StreamReader {
+    private final ByteToAudioEventSubscription.StreamReader delegate;
+    private final AudioOffsetIndex index;
+    private long offset;
+
+    public LatencyTrackingStreamReader(ByteToAudioEventSubscription.StreamReader delegate, AudioOffsetIndex index) {
+        this.delegate = delegate;
+        this.index = index;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return recorded(delegate.read(b));
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        return recorded(delegate.read(buffer));
+    }
+
+    private int recorded(int n) {
+        if (n > 0) {
+            offset += n;
+            index.record(offset, System.nanoTime());
+        }
+        return n;
+    }
+
+    @Override
+    public StartStreamTranscriptionRequest getTranscriptionRequest() {
+        return delegate.getTranscriptionRequest();
+    }
+
+    @Override
+    public void onResubscribe() {
+        delegate.onResubscribe();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public String label() {
+        return delegate.label();
+    }
+}
@@ -0,0 +1,241 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StreamReader over local audio files read through {@link FileChannel#map}. The WAV header of each file is parsed
+ * and skipped, and the transcription request takes its sample rate and channel count from it. Files without a
+ * RIFF header are read as raw 16 bit mono PCM at the fallback sample rate.
+ * <p>
+ * One file is streamed as is, with as many channels as it has. Several files must have the same format; they are
+ * interleaved one file after the other in each frame, and stereo files are downmixed to one channel per file by
+ * {@link AudioDspStreamReader}. Audio is copied straight from the mapping into the caller's
+ * buffer, without read syscalls or an intermediate buffer. Files are mapped in windows of at most
+ * {@link #DEFAULT_WINDOW_BYTES}, so files larger than 2 GB are read in several mappings.
+ */
+public class MappedWavStreamReader implements ByteToAudioEventSubscription.StreamReader {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedWavStreamReader.class);
+    public static final long DEFAULT_WINDOW_BYTES = 256L * 1024 * 1024;
+    private static final int HEADER_PROBE_BYTES = 64 * 1024;
+    private static final int BITS_PER_SAMPLE = 16;
+    private final List<MappedAudio> files;
+    private final ChannelInterleaver interleaver;
+    private final StartStreamTranscriptionRequest request;
+    private final int channelsPerSource;
+    private final String label;
+    private volatile boolean stopped;
+
+    /**
+     * @param paths              audio files, one per channel if more than one
+     * @param fallbackSampleRate sample rate of files without a WAV header
+     * @param label              label of the stream for logging
+     */
+    public MappedWavStreamReader(List<Path> paths, int fallbackSampleRate, String label) throws IOException {
+        this(paths, fallbackSampleRate, label, DEFAULT_WINDOW_BYTES);
+    }
+
+    MappedWavStreamReader(List<Path> paths, int fallbackSampleRate, String label, long windowBytes) throws IOException {
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("At least one file is required");
+        }
+        this.label = label;
+        this.files = new ArrayList<>(paths.size());
+        try {
+            for (Path path : paths) {
+                files.add(new MappedAudio(path, windowBytes));
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        int sampleRate = 0;
+        int bits = 0;
+        int fileChannelCount = 0;
+        int channels = 0;
+        for (MappedAudio file : files) {
+            WavHeader header = file.header;
+            int fileRate = header == null ? fallbackSampleRate : header.sampleRate();
+            int fileBits = header == null ? BITS_PER_SAMPLE : header.bitsPerSample();
+            int fileChannels = header == null ? 1 : header.channels();
+            if (header == null) {
+                LOG.warn("No WAV header in {}, reading it as 16 bit mono PCM at {} Hz", file.path, fallbackSampleRate);
+            }
+            if (sampleRate != 0 && (fileRate != sampleRate || fileBits != bits || fileChannels != fileChannelCount)) {
+                close();
+                throw new IllegalArgumentException("Files must have the same format, " + file.path + " is "
+                        + fileRate + " Hz " + fileBits + " bit " + fileChannels + " channel(s), expected " + sampleRate
+                        + " Hz " + bits + " bit " + fileChannelCount + " channel(s)");
+            }
+            sampleRate = fileRate;
+            bits = fileBits;
+            fileChannelCount = fileChannels;
+            channels += fileChannels;
+        }
+        if (bits != BITS_PER_SAMPLE) {
+            // Transcribe takes 16 bit PCM; anything else would be billed and transcribed as noise.
+            close();
+            throw new IllegalArgumentException("Only 16 bit PCM is supported, " + files.get(0).path + " is " + bits + " bit");
+        }
+        if (files.size() > 1) {
+            List<InputStream> streams = new ArrayList<>(files.size());
+            for (MappedAudio file : files) {
+                streams.add(file.asInputStream());
+            }
+            // The channels of each file stay adjacent in the interleaved frame.
+            this.interleaver = new ChannelInterleaver(streams, bits, fileChannelCount, ChannelInterleaver.DEFAULT_READ_AHEAD_BYTES);
+            this.channelsPerSource = fileChannelCount;
+        } else {
+            this.interleaver = null;
+            this.channelsPerSource = 1;
+        }
+        this.request = TranscribeHelper.getPcmRequest(sampleRate, channels);
+        LOG.info("Reading {} file(s), {} Hz, {} channel(s) :{}", files.size(), sampleRate, channels, label);
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(ByteBuffer.wrap(b));
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        if (stopped) {
+            return -1;
+        }
+        if (interleaver != null) {
+            return interleaver.read(buffer);
+        }
+        return files.get(0).read(buffer);
+    }
+
+    @Override
+    public StartStreamTranscriptionRequest getTranscriptionRequest() {
+        return request;
+    }
+
+    @Override
+    public int channelsPerSource() {
+        return channelsPerSource;
+    }
+
+    @Override
+    public void close() {
+        stopped = true;
+        for (MappedAudio file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close {}", file.path, e);
+            }
+        }
+    }
+
+    @Override
+    public String label() {
+        return label;
+    }
+
+    /**
+     * Audio data of one file, mapped one window at a time. Windows are a whole number of frames so that no frame
+     * is split across two mappings.
+     */
+    static final class MappedAudio implements Closeable {
+        private final Path path;
+        private final FileChannel channel;
+        private final WavHeader header;
+        private final long dataEnd;
+        private final long windowBytes;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        MappedAudio(Path path, long windowBytes) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                WavHeader parsed = WavHeader.parse(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        Math.min(size, HEADER_PROBE_BYTES)));
+                long dataStart = parsed == null ? 0 : parsed.dataOffset();
+                long dataLength = parsed == null || parsed.dataLength() < 0 ? size - dataStart : parsed.dataLength();
+                int frameSize = parsed == null ? 2 : Math.max(1, parsed.blockAlign());
+                this.header = parsed;
+                this.dataEnd = Math.min(size, dataStart + dataLength);
+                this.windowBytes = Math.max(frameSize, Math.min(windowBytes, Integer.MAX_VALUE) / frameSize * frameSize);
+                this.windowStart = dataStart;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Copies audio from the mapping into the remaining space of {@code dst}.
+         *
+         * @return number of bytes copied, -1 at the end of the audio data
+         */
+        int read(ByteBuffer dst) throws IOException {
+            int total = 0;
+            while (dst.hasRemaining()) {
+                if ((window == null || !window.hasRemaining()) && !nextWindow()) {
+                    break;
+                }
+                int n = Math.min(dst.remaining(), window.remaining());
+                int limit = window.limit();
+                window.limit(window.position() + n);
+                dst.put(window);
+                window.limit(limit);
+                total += n;
+            }
+            return total == 0 && dst.hasRemaining() ? -1 : total;
+        }
+
+        private boolean nextWindow() throws IOException {
+            if (window != null) {
+                windowStart += window.capacity();
+            }
+            long length = Math.min(windowBytes, dataEnd - windowStart);
+            if (length <= 0) {
+                window = null;
+                return false;
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+            return true;
+        }
+
+        InputStream asInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return len == 0 ? 0 : MappedAudio.this.read(ByteBuffer.wrap(b, off, len));
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The mapping itself is released when the buffer is collected.
+            window = null;
+            channel.close();
+        }
+    }
+
+}
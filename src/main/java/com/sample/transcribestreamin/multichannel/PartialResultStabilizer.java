@@ -0,0 +1,240 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.transcribestreaming.model.Alternative;
+import software.amazon.awssdk.services.transcribestreaming.model.Item;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Turns the partial results of a session into {@link TranscriptDelta}s, so a consumer re-renders only the words
+ * that changed instead of the whole partial transcript on every event.
+ * <p>
+ * Each channel has at most one open result, and the words of that result are split by speaker label, so a speaker
+ * whose words are interleaved with another's in the partial results keeps a stable prefix of its own. The
+ * hypothesis of each speaker is compared word by word with its words in the next partial result; the delta drops
+ * the words after the first difference and appends the new ones. A word becomes stable once the service marks it
+ * stable (partial results stabilization) or once it has come back unchanged in {@code stableAfterUpdates} partial
+ * results in a row. Stable words are kept even if a later partial result disagrees, so a consumer can render them
+ * as settled. The final result is authoritative: its deltas reconcile the hypothesis of every speaker with it,
+ * stable words included, and close the result.
+ * <p>
+ * A result left open when another starts on the same channel, as after a retry that replays audio, is closed
+ * with deltas that remove all of its words. One instance per session; calls must not overlap.
+ */
+public class PartialResultStabilizer {
+    private static final Logger LOG = LoggerFactory.getLogger(PartialResultStabilizer.class);
+    private static final String NO_CHANNEL = "";
+    private static final String NO_SPEAKER = "";
+    private final String session;
+    private final List<TranscriptDeltaListener> listeners;
+    private final int stableAfterUpdates;
+    private final Map<String, OpenResult> channels = new HashMap<>();
+
+    /**
+     * @param session            id of the session the deltas belong to
+     * @param stableAfterUpdates partial results in a row a word must survive to become stable
+     */
+    public PartialResultStabilizer(String session, List<TranscriptDeltaListener> listeners, int stableAfterUpdates) {
+        this.session = session;
+        this.listeners = listeners;
+        this.stableAfterUpdates = Math.max(1, stableAfterUpdates);
+    }
+
+    public void onPartial(Result result) {
+        OpenResult open = open(result);
+        Map<String, List<Item>> bySpeaker = bySpeaker(items(result));
+        for (Hypothesis hypothesis : open.speakers.values()) {
+            if (!bySpeaker.containsKey(hypothesis.speaker)) {
+                update(hypothesis, Collections.emptyList());
+            }
+        }
+        for (Map.Entry<String, List<Item>> speaker : bySpeaker.entrySet()) {
+            update(open.hypothesis(speaker.getKey()), speaker.getValue());
+        }
+    }
+
+    public void onFinal(Result result) {
+        OpenResult open = open(result);
+        Map<String, List<Item>> bySpeaker = bySpeaker(items(result));
+        for (Hypothesis hypothesis : open.speakers.values()) {
+            if (!bySpeaker.containsKey(hypothesis.speaker)) {
+                reconcile(hypothesis, Collections.emptyList());
+            }
+        }
+        for (Map.Entry<String, List<Item>> speaker : bySpeaker.entrySet()) {
+            reconcile(open.hypothesis(speaker.getKey()), speaker.getValue());
+        }
+        channels.remove(open.channel);
+    }
+
+    /**
+     * Compares the hypothesis of a speaker with its words in a partial result.
+     */
+    private void update(Hypothesis hypothesis, List<Item> items) {
+        int stable = hypothesis.stable;
+        // Stable words stay; the partial result is compared with the rest of the hypothesis.
+        int prefix = stable + commonPrefix(hypothesis.words, stable, items, stable);
+        int removed = hypothesis.words.size() - prefix;
+        List<Item> added = prefix < items.size() ? items.subList(prefix, items.size()) : Collections.emptyList();
+        hypothesis.replaceFrom(prefix, added);
+        for (int i = stable; i < hypothesis.words.size(); i++) {
+            hypothesis.unchanged[i] = i < prefix ? hypothesis.unchanged[i] + 1 : 0;
+        }
+        while (hypothesis.stable < hypothesis.words.size() && isStable(hypothesis, hypothesis.stable)) {
+            hypothesis.stable++;
+        }
+        if (removed > 0 || !added.isEmpty() || hypothesis.stable != stable) {
+            emit(hypothesis, removed, added, false);
+        }
+    }
+
+    /**
+     * Replaces the hypothesis of a speaker with its words in the final result, stable words included.
+     */
+    private void reconcile(Hypothesis hypothesis, List<Item> items) {
+        int prefix = commonPrefix(hypothesis.words, 0, items, 0);
+        int removed = hypothesis.words.size() - prefix;
+        List<Item> added = prefix < items.size() ? items.subList(prefix, items.size()) : Collections.emptyList();
+        hypothesis.replaceFrom(prefix, added);
+        hypothesis.stable = hypothesis.words.size();
+        emit(hypothesis, removed, added, true);
+    }
+
+    private boolean isStable(Hypothesis hypothesis, int i) {
+        return Boolean.TRUE.equals(hypothesis.words.get(i).stable()) || hypothesis.unchanged[i] >= stableAfterUpdates;
+    }
+
+    /**
+     * @return the open result on the channel of {@code result}, closing the one open before if it is another result
+     */
+    private OpenResult open(Result result) {
+        String channel = result.channelId() == null ? NO_CHANNEL : result.channelId();
+        OpenResult open = channels.get(channel);
+        if (open != null && !Objects.equals(open.resultId, result.resultId())) {
+            for (Hypothesis hypothesis : open.speakers.values()) {
+                int removed = hypothesis.words.size();
+                hypothesis.words.clear();
+                hypothesis.stable = 0;
+                emit(hypothesis, removed, Collections.emptyList(), true);
+            }
+            open = null;
+        }
+        if (open == null) {
+            open = new OpenResult(channel, result.resultId());
+            channels.put(channel, open);
+        }
+        return open;
+    }
+
+    private static List<Item> items(Result result) {
+        List<Alternative> alternatives = result.alternatives();
+        return alternatives.isEmpty() ? Collections.emptyList() : alternatives.get(0).items();
+    }
+
+    /**
+     * @return the items of each speaker, in order; the list itself when there is only one speaker
+     */
+    private static Map<String, List<Item>> bySpeaker(List<Item> items) {
+        if (items.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        String first = speaker(items.get(0));
+        int i = 1;
+        while (i < items.size() && first.equals(speaker(items.get(i)))) {
+            i++;
+        }
+        if (i == items.size()) {
+            return Collections.singletonMap(first, items);
+        }
+        Map<String, List<Item>> bySpeaker = new LinkedHashMap<>();
+        for (Item item : items) {
+            bySpeaker.computeIfAbsent(speaker(item), key -> new ArrayList<>()).add(item);
+        }
+        return bySpeaker;
+    }
+
+    private static String speaker(Item item) {
+        return item.speaker() == null ? NO_SPEAKER : item.speaker();
+    }
+
+    /**
+     * @return number of words with the same content from {@code a[aFrom]} and {@code b[bFrom]} on; times are not
+     * compared, since they move slightly from one partial result to the next
+     */
+    private static int commonPrefix(List<Item> a, int aFrom, List<Item> b, int bFrom) {
+        int n = 0;
+        while (aFrom + n < a.size() && bFrom + n < b.size()
+                && Objects.equals(a.get(aFrom + n).content(), b.get(bFrom + n).content())) {
+            n++;
+        }
+        return n;
+    }
+
+    private void emit(Hypothesis hypothesis, int removed, List<Item> added, boolean isFinal) {
+        TranscriptDelta delta = new TranscriptDelta(session, hypothesis.channel, hypothesis.resultId,
+                NO_SPEAKER.equals(hypothesis.speaker) ? null : hypothesis.speaker, removed,
+                added.isEmpty() ? Collections.emptyList() : new ArrayList<>(added), hypothesis.stable, isFinal);
+        for (TranscriptDeltaListener listener : listeners) {
+            try {
+                listener.onDelta(delta);
+            } catch (RuntimeException e) {
+                LOG.warn("Delta listener {} failed", listener, e);
+            }
+        }
+    }
+
+    /**
+     * The result open on a channel, with the hypothesis of each speaker heard in it so far.
+     */
+    private static final class OpenResult {
+        private final String channel;
+        private final String resultId;
+        private final Map<String, Hypothesis> speakers = new LinkedHashMap<>();
+
+        private OpenResult(String channel, String resultId) {
+            this.channel = channel;
+            this.resultId = resultId;
+        }
+
+        private Hypothesis hypothesis(String speaker) {
+            return speakers.computeIfAbsent(speaker, key -> new Hypothesis(channel, resultId, key));
+        }
+    }
+
+    /**
+     * Words of one speaker in the open result of a channel, with the number of partial results in a row each has
+     * survived.
+     */
+    private static final class Hypothesis {
+        private final String channel;
+        private final String resultId;
+        private final String speaker;
+        private final List<Item> words = new ArrayList<>();
+        private int[] unchanged = new int[32];
+        private int stable;
+
+        private Hypothesis(String channel, String resultId, String speaker) {
+            this.channel = channel;
+            this.resultId = resultId;
+            this.speaker = speaker;
+        }
+
+        private void replaceFrom(int index, List<Item> added) {
+            words.subList(index, words.size()).clear();
+            words.addAll(added);
+            if (unchanged.length < words.size()) {
+                unchanged = Arrays.copyOf(unchanged, Math.max(words.size(), 2 * unchanged.length));
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.sample.transcribestreamin.multichannel;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streaming rational resampler for interleaved 16 bit PCM, as a polyphase FIR filter: the rate is changed by
+ * {@code up / down}, the two rates divided by their greatest common divisor, and each output sample is one dot
+ * product of a filter phase with the latest input samples of its channel.
+ * <p>
+ * The prototype filter is a Blackman windowed sinc cut off at {@link #ROLLOFF} of the lower Nyquist frequency,
+ * {@link #ZERO_CROSSINGS} zero crossings on each side, so it also serves as the anti-aliasing filter when the rate
+ * goes down. Filters are computed once per ratio and shared by all sessions; each instance only holds the input
+ * history of its channels, allocated up front. The group delay is half the filter, under a millisecond at the
+ * usual rates, and is not compensated.
+ * <p>
+ * Instances are not thread safe.
+ */
+public final class PolyphaseResampler {
+    static final int ZERO_CROSSINGS = 8;
+    static final double ROLLOFF = 0.9;
+    private static final Map<Long, float[][]> FILTERS = new ConcurrentHashMap<>();
+    private final int channels;
+    private final int up;
+    private final int down;
+    private final int taps;
+    private final float[][] phases;
+    /**
+     * Per channel, the last {@code taps} input samples newest first, stored twice so that every window is one
+     * contiguous run of the array.
+     */
+    private final float[][] history;
+    private int position;
+    private int phase;
+    private int skip;
+
+    public PolyphaseResampler(int inputRate, int outputRate, int channels) {
+        if (inputRate <= 0 || outputRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("Rates and channels must be positive: " + inputRate + " Hz to "
+                    + outputRate + " Hz, " + channels + " channel(s)");
+        }
+        int gcd = gcd(inputRate, outputRate);
+        this.up = outputRate / gcd;
+        this.down = inputRate / gcd;
+        this.channels = channels;
+        this.phases = FILTERS.computeIfAbsent((long) up << 32 | down, key -> filter(up, down));
+        this.taps = phases[0].length;
+        this.history = new float[channels][2 * taps];
+    }
+
+    /**
+     * @return the most output frames {@link #process} can write for {@code frames} input frames
+     */
+    public int maxOutputFrames(int frames) {
+        return (int) (((long) frames * up + down - 1) / down) + 1;
+    }
+
+    /**
+     * Resamples {@code frames} interleaved input frames. Samples are kept across calls, so input may be split at
+     * any frame.
+     *
+     * @param out holds at least {@link #maxOutputFrames} frames
+     * @return number of frames written to {@code out}
+     */
+    public int process(short[] in, int frames, short[] out) {
+        int written = 0;
+        for (int frame = 0, i = 0; frame < frames; frame++, i += channels) {
+            position = position == 0 ? taps - 1 : position - 1;
+            for (int c = 0; c < channels; c++) {
+                float sample = in[i + c];
+                history[c][position] = sample;
+                history[c][position + taps] = sample;
+            }
+            if (skip > 0) {
+                skip--;
+            }
+            while (skip == 0) {
+                float[] coefficients = phases[phase];
+                for (int c = 0, o = written * channels; c < channels; c++) {
+                    float[] window = history[c];
+                    float sum = 0;
+                    for (int k = 0; k < taps; k++) {
+                        sum += coefficients[k] * window[position + k];
+                    }
+                    out[o + c] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sum)));
+                }
+                written++;
+                // The next output falls this many input samples later, at this phase.
+                phase += down;
+                skip = phase / up;
+                phase -= skip * up;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return the filter split into {@code up} phases of equal length, each phase normalized to unity DC gain
+     */
+    private static float[][] filter(int up, int down) {
+        int max = Math.max(up, down);
+        int length = (int) Math.ceil(2 * ZERO_CROSSINGS * max / ROLLOFF);
+        int taps = (length + up - 1) / up;
+        length = taps * up;
+        double cutoff = ROLLOFF * 0.5 / max;
+        double center = (length - 1) / 2.0;
+        float[][] phases = new float[up][taps];
+        for (int p = 0; p < up; p++) {
+            double[] values = new double[taps];
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                int n = p + k * up;
+                double x = 2 * cutoff * (n - center);
+                double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+                double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * n / (length - 1))
+                        + 0.08 * Math.cos(4 * Math.PI * n / (length - 1));
+                values[k] = sinc * window;
+                sum += values[k];
+            }
+            for (int k = 0; k < taps; k++) {
+                phases[p][k] = (float) (values[k] / sum);
+            }
+        }
+        return phases;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
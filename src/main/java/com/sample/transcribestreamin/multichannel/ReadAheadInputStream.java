@@ -0,0 +1,192 @@
+package com.sample.transcribestreamin.multichannel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads a slow source, such as an S3 GET response, ahead of the consumer on a background task, into a bounded
+ * number of reusable chunks. Reads return as soon as a chunk holds data, so the consumer can start on the first
+ * few KB while the rest is still being fetched, and at most {@code readAheadBytes} are held in memory whatever the
+ * size of the source.
+ * <p>
+ * The background work is one task per chunk: a task reads one chunk and schedules the next only while a free
+ * chunk is left, and a chunk the consumer frees schedules one again. A stream therefore holds a thread of the
+ * executor only while a read from its source is in progress, not while it waits for the consumer, so a small
+ * bounded pool serves many streams consumed at real time.
+ * <p>
+ * A failure of the source is thrown from the read that reaches it. {@link #close()} closes the source, which
+ * ends the background work. One consumer thread at a time.
+ */
+public class ReadAheadInputStream extends InputStream {
+    public static final int DEFAULT_CHUNK_BYTES = 64 * 1024;
+    private static final Chunk END = new Chunk(0);
+    private final InputStream source;
+    private final BlockingQueue<Chunk> filled;
+    private final BlockingQueue<Chunk> free;
+    private final Executor executor;
+    /**
+     * True while a fill task is queued or running, so at most one reads the source.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean done;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private Chunk current;
+    private int position;
+    private boolean ended;
+
+    /**
+     * @param source         stream to read ahead of the consumer
+     * @param readAheadBytes bytes to buffer ahead, split into chunks of at most {@link #DEFAULT_CHUNK_BYTES}
+     * @param executor       runs the background reads, one chunk per task
+     */
+    public ReadAheadInputStream(InputStream source, int readAheadBytes, Executor executor) {
+        this.source = source;
+        int chunkBytes = Math.max(1, Math.min(DEFAULT_CHUNK_BYTES, readAheadBytes / 2));
+        int chunks = Math.max(2, readAheadBytes / chunkBytes);
+        this.filled = new ArrayBlockingQueue<>(chunks + 1);
+        this.free = new ArrayBlockingQueue<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            free.add(new Chunk(chunkBytes));
+        }
+        this.executor = executor;
+        schedule();
+    }
+
+    private void schedule() {
+        if (!done && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::fill);
+        }
+    }
+
+    /**
+     * Reads the source into one free chunk, then schedules the next read if another chunk is free.
+     */
+    private void fill() {
+        Chunk chunk = free.poll();
+        if (chunk == null || chunk == END) {
+            scheduled.set(false);
+            // The consumer may have freed a chunk after the poll and before the flag was cleared.
+            if (chunk == null && !free.isEmpty()) {
+                schedule();
+            }
+            return;
+        }
+        try {
+            int n = closed ? -1 : source.read(chunk.data, 0, chunk.data.length);
+            if (n < 0) {
+                end();
+                return;
+            }
+            // Top up with what has already arrived, without waiting for more.
+            while (n < chunk.data.length && source.available() > 0) {
+                int more = source.read(chunk.data, n, chunk.data.length - n);
+                if (more < 0) {
+                    break;
+                }
+                n += more;
+            }
+            chunk.length = n;
+            filled.offer(chunk);
+        } catch (IOException e) {
+            if (!closed) {
+                failure = e;
+            }
+            end();
+            return;
+        }
+        scheduled.set(false);
+        if (!free.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void end() {
+        done = true;
+        filled.offer(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (closed) {
+            return false;
+        }
+        if (current != null && position < current.length) {
+            return true;
+        }
+        if (ended) {
+            return false;
+        }
+        if (current != null) {
+            free.offer(current);
+            current = null;
+            schedule();
+        }
+        Chunk chunk;
+        try {
+            chunk = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for read ahead");
+        }
+        if (chunk == END) {
+            ended = true;
+            if (failure != null) {
+                throw failure;
+            }
+            return false;
+        }
+        current = chunk;
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // Closing the source unblocks a read in progress; a fill task that has not started reads nothing.
+        free.offer(END);
+        source.close();
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        int length;
+
+        Chunk(int capacity) {
+            this.data = new byte[capacity];
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.sample.transcribestreamin.multichannel;
+
+import software.amazon.awssdk.services.transcribestreaming.model.Alternative;
+import software.amazon.awssdk.services.transcribestreaming.model.Item;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponse;
+import software.amazon.awssdk.services.transcribestreaming.model.Transcript;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Keeps the transcript continuous across retries of a session that replays audio with a
+ * {@link ReplayableStreamReader}.
+ * <p>
+ * Result times of a retried session are relative to the point it resumed from, so they are shifted to stream
+ * time before they reach the delegate. Replayed audio may be transcribed again; final results that end at or
+ * before the last final result already delivered on the same channel are dropped. Once results are final the
+ * reader is told it can release the audio before them.
+ */
+public class ReplayTranscriptionBehavior implements StreamTranscriptionBehavior {
+    private static final double EPSILON_SECONDS = 0.001;
+    private static final String NO_CHANNEL = "";
+    private final StreamTranscriptionBehavior delegate;
+    private final ReplayableStreamReader reader;
+    private final Map<String, Double> lastFinalEnd = new HashMap<>();
+    private final Map<String, Double> openPartialStart = new HashMap<>();
+
+    public ReplayTranscriptionBehavior(StreamTranscriptionBehavior delegate, ReplayableStreamReader reader) {
+        this.delegate = delegate;
+        this.reader = reader;
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        delegate.onError(e);
+    }
+
+    @Override
+    public void onStream(TranscriptResultStream e) {
+        if (!(e instanceof TranscriptEvent)) {
+            delegate.onStream(e);
+            return;
+        }
+        List<Result> results = ((TranscriptEvent) e).transcript().results();
+        double shift = reader.sessionStartSeconds();
+        List<Result> kept = null;
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            Result shifted = shift == 0 ? result : shift(result, shift);
+            boolean keep = track(shifted);
+            if (kept == null && (!keep || shifted != result)) {
+                kept = new ArrayList<>(results.subList(0, i));
+            }
+            if (kept != null && keep) {
+                kept.add(shifted);
+            }
+        }
+        commit();
+        if (kept == null) {
+            delegate.onStream(e);
+        } else if (!kept.isEmpty()) {
+            delegate.onStream(TranscriptEvent.builder()
+                    .transcript(Transcript.builder().results(kept).build())
+                    .build());
+        }
+    }
+
+    /**
+     * Updates the per channel positions with a result in stream time.
+     *
+     * @return false if the result repeats audio already finalized on its channel
+     */
+    private synchronized boolean track(Result result) {
+        String channel = result.channelId() == null ? NO_CHANNEL : result.channelId();
+        double end = result.endTime() == null ? 0 : result.endTime();
+        Double finalEnd = lastFinalEnd.get(channel);
+        if (finalEnd != null && end <= finalEnd + EPSILON_SECONDS) {
+            return false;
+        }
+        if (Boolean.TRUE.equals(result.isPartial())) {
+            openPartialStart.putIfAbsent(channel, result.startTime() == null ? 0 : result.startTime());
+        } else {
+            lastFinalEnd.put(channel, end);
+            openPartialStart.remove(channel);
+        }
+        return true;
+    }
+
+    /**
+     * Audio can be released up to the earliest point any channel still needs: the start of its open partial
+     * result, or else the end of its last final result. A channel that has gone quiet after a final result holds
+     * the audio after it, since its next words may not have reached a partial result yet; the ring then stops
+     * growing at {@code bufferSeconds}.
+     */
+    private void commit() {
+        double commit = Double.MAX_VALUE;
+        synchronized (this) {
+            for (Map.Entry<String, Double> channel : lastFinalEnd.entrySet()) {
+                commit = Math.min(commit, openPartialStart.getOrDefault(channel.getKey(), channel.getValue()));
+            }
+            for (double partialStart : openPartialStart.values()) {
+                commit = Math.min(commit, partialStart);
+            }
+        }
+        if (commit > 0 && commit < Double.MAX_VALUE) {
+            reader.commit(commit);
+        }
+    }
+
+    private static Result shift(Result result, double seconds) {
+        return retime(result, time -> time + seconds, time -> time + seconds);
+    }
+
+    /**
+     * @return {@code result} with the start and end times of the result and of its items mapped. An empty
+     * interval, such as punctuation, is mapped as an end, so it stays with what comes before it.
+     */
+    static Result retime(Result result, DoubleUnaryOperator start, DoubleUnaryOperator end) {
+        List<Alternative> alternatives = new ArrayList<>(result.alternatives().size());
+        for (Alternative alternative : result.alternatives()) {
+            List<Item> items = new ArrayList<>(alternative.items().size());
+            for (Item item : alternative.items()) {
+                Double itemEnd = map(item.endTime(), end);
+                items.add(item.toBuilder()
+                        .startTime(mapStart(item.startTime(), item.endTime(), itemEnd, start))
+                        .endTime(itemEnd)
+                        .build());
+            }
+            alternatives.add(alternative.toBuilder().items(items).build());
+        }
+        Double resultEnd = map(result.endTime(), end);
+        return result.toBuilder()
+                .startTime(mapStart(result.startTime(), result.endTime(), resultEnd, start))
+                .endTime(resultEnd)
+                .alternatives(alternatives)
+                .build();
+    }
+
+    private static Double mapStart(Double time, Double endTime, Double mappedEnd, DoubleUnaryOperator operator) {
+        return time != null && time.equals(endTime) ? mappedEnd : map(time, operator);
+    }
+
+    private static Double map(Double time, DoubleUnaryOperator operator) {
+        return time == null ? null : operator.applyAsDouble(time);
+    }
+
+    @Override
+    public void onResponse(StartStreamTranscriptionResponse r) {
+        delegate.onResponse(r);
+    }
+
+    @Override
+    public void onComplete() {
+        delegate.onComplete();
+    }
+}
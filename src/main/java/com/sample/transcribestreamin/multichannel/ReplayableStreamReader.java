@@ -0,0 +1,210 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * StreamReader that keeps the audio sent since the last committed offset in a bounded ring buffer, so that a
+ * retried session can resume from there instead of losing the audio the failed session had already consumed.
+ * <p>
+ * Offsets are absolute byte offsets into the audio stream. {@link #commit(double)} moves the start of the
+ * retained audio forward once the service has finalized results up to a point in time, and
+ * {@link #onResubscribe()} rewinds reading to it. The ring starts at {@link #INITIAL_SECONDS} of audio and doubles
+ * while the audio not yet committed outgrows it, up to {@code bufferSeconds}, so a session only holds about as
+ * much as its results lag behind. If the ring is full at its largest before a commit, the oldest audio is dropped
+ * and a retry resumes from the oldest byte still held.
+ */
+public class ReplayableStreamReader implements ByteToAudioEventSubscription.StreamReader {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplayableStreamReader.class);
+    static final int INITIAL_SECONDS = 2;
+    private final ByteToAudioEventSubscription.StreamReader delegate;
+    private final int maxCapacity;
+    private final boolean direct;
+    private ByteBuffer ring;
+    private ByteBuffer cursor;
+    private final int bytesPerSecond;
+    private final int frameSize;
+    /**
+     * Offset of the oldest retained byte.
+     */
+    private long committedOffset;
+    /**
+     * Offset one past the last byte read from the delegate.
+     */
+    private long sourceOffset;
+    /**
+     * Offset of the next byte to return.
+     */
+    private long readOffset;
+    /**
+     * Offset at which the current session started.
+     */
+    private long sessionStartOffset;
+    private boolean overflowLogged;
+
+    /**
+     * @param delegate       source of the audio
+     * @param bufferSeconds  most seconds of audio to retain
+     * @param direct         keep the ring off-heap
+     */
+    public ReplayableStreamReader(ByteToAudioEventSubscription.StreamReader delegate, int bufferSeconds, boolean direct) {
+        StartStreamTranscriptionRequest request = delegate.getTranscriptionRequest();
+        this.delegate = delegate;
+        this.bytesPerSecond = AudioPacer.bytesPerSecond(request);
+        if (bytesPerSecond == 0) {
+            throw new IllegalArgumentException("Replay needs the sample rate of the request: " + delegate.label());
+        }
+        this.frameSize = bytesPerSecond / request.mediaSampleRateHertz();
+        this.maxCapacity = Math.multiplyExact(bytesPerSecond, bufferSeconds);
+        this.direct = direct;
+        allocate(Math.min(maxCapacity, bytesPerSecond * INITIAL_SECONDS));
+    }
+
+    private void allocate(int capacity) {
+        ring = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        cursor = ring.duplicate();
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(ByteBuffer.wrap(b));
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer buffer) throws IOException {
+        if (readOffset < sourceOffset) {
+            int len = (int) Math.min(buffer.remaining(), sourceOffset - readOffset);
+            copyFromRing(readOffset, buffer, len);
+            readOffset += len;
+            return len;
+        }
+        int start = buffer.position();
+        int len = delegate.read(buffer);
+        if (len > 0) {
+            copyToRing(buffer, start, len);
+            sourceOffset += len;
+            readOffset = sourceOffset;
+        }
+        return len;
+    }
+
+    private void copyFromRing(long offset, ByteBuffer dst, int len) {
+        int capacity = ring.capacity();
+        while (len > 0) {
+            int index = (int) (offset % capacity);
+            int n = Math.min(len, capacity - index);
+            cursor.limit(index + n).position(index);
+            dst.put(cursor);
+            offset += n;
+            len -= n;
+        }
+    }
+
+    private void copyToRing(ByteBuffer src, int start, int len) {
+        if (sourceOffset + len - committedOffset > ring.capacity() && ring.capacity() < maxCapacity) {
+            grow(sourceOffset + len - committedOffset);
+        }
+        int capacity = ring.capacity();
+        ByteBuffer source = src.hasArray() ? null : src.duplicate();
+        long offset = sourceOffset;
+        int from = start;
+        int remaining = len;
+        while (remaining > 0) {
+            int index = (int) (offset % capacity);
+            int n = Math.min(remaining, capacity - index);
+            cursor.limit(index + n).position(index);
+            if (source == null) {
+                cursor.put(src.array(), src.arrayOffset() + from, n);
+            } else {
+                source.limit(from + n).position(from);
+                cursor.put(source);
+            }
+            offset += n;
+            from += n;
+            remaining -= n;
+        }
+        long oldestRetained = sourceOffset + len - capacity;
+        if (oldestRetained > committedOffset) {
+            committedOffset = oldestRetained;
+            if (!overflowLogged) {
+                overflowLogged = true;
+                LOG.warn("Replay buffer full, a retry can no longer resume from the last final result :{}", delegate.label());
+            }
+        }
+    }
+
+    /**
+     * Doubles the ring until it holds {@code needed} bytes or reaches its largest size, moving the retained audio
+     * to its place in the new ring.
+     */
+    private void grow(long needed) {
+        int capacity = ring.capacity();
+        long grown = capacity;
+        while (grown < needed && grown < maxCapacity) {
+            grown *= 2;
+        }
+        ByteBuffer old = cursor;
+        allocate((int) Math.min(grown, maxCapacity));
+        int newCapacity = ring.capacity();
+        for (long offset = committedOffset; offset < sourceOffset; ) {
+            int from = (int) (offset % capacity);
+            int to = (int) (offset % newCapacity);
+            int n = (int) Math.min(sourceOffset - offset, Math.min(capacity - from, newCapacity - to));
+            old.limit(from + n).position(from);
+            cursor.limit(to + n).position(to);
+            cursor.put(old);
+            offset += n;
+        }
+    }
+
+    /**
+     * Releases the audio before {@code seconds}, measured from the start of the stream. Results up to that point
+     * are final and do not need to be transcribed again.
+     */
+    public synchronized void commit(double seconds) {
+        long offset = (long) (seconds * bytesPerSecond);
+        offset -= offset % frameSize;
+        if (offset > committedOffset) {
+            committedOffset = Math.min(offset, readOffset);
+            overflowLogged = false;
+        }
+    }
+
+    /**
+     * Rewinds to the oldest retained byte. The next session starts there.
+     */
+    @Override
+    public synchronized void onResubscribe() {
+        LOG.info("Replaying {} bytes after retry :{}", sourceOffset - committedOffset, delegate.label());
+        readOffset = committedOffset;
+        sessionStartOffset = committedOffset;
+        delegate.onResubscribe();
+    }
+
+    /**
+     * @return start of the current session in seconds from the start of the stream. Result times of the session
+     * are relative to it.
+     */
+    public synchronized double sessionStartSeconds() {
+        return (double) sessionStartOffset / bytesPerSecond;
+    }
+
+    @Override
+    public StartStreamTranscriptionRequest getTranscriptionRequest() {
+        return delegate.getTranscriptionRequest();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public String label() {
+        return delegate.label();
+    }
+}
@@ -0,0 +1,146 @@
+package com.sample.transcribestreamin.multichannel;
+
+import io.micrometer.core.instrument.Timer;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponse;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures end-to-end recognition latency: for each result, the time from sending the audio at its end time to
+ * receiving the result. The send time comes from the session's {@link AudioOffsetIndex}.
+ * <p>
+ * Latencies go to the aggregate {@code transcribe.result.latency} timers and, if asked for, to per session
+ * HdrHistograms logged when the session ends; those are allocated with the first result they record. Comparing them with {@code transcribe.audio.send} and the executor
+ * queue tells whether time is spent in this pipeline or in the service. Sits under
+ * {@link ReplayTranscriptionBehavior}, so result times are already in stream time.
+ */
+public class ResultLatencyTracker implements StreamTranscriptionBehavior {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultLatencyTracker.class);
+    private static final long HIGHEST_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private final StreamTranscriptionBehavior delegate;
+    private final String label;
+    private final AudioOffsetIndex index;
+    private final long bytesPerSecond;
+    private final Timer partialTimer;
+    private final Timer finalTimer;
+    private final boolean sessionHistograms;
+    private Histogram partialMillis;
+    private Histogram finalMillis;
+    private long untracked;
+
+    /**
+     * @param bytesPerSecond    rate of the audio read into the index, all channels together
+     * @param sessionHistograms whether to keep and log latency percentiles of this session
+     */
+    public ResultLatencyTracker(StreamTranscriptionBehavior delegate, String label, AudioOffsetIndex index,
+                                long bytesPerSecond, Timer partialTimer, Timer finalTimer, boolean sessionHistograms) {
+        this.delegate = delegate;
+        this.label = label;
+        this.index = index;
+        this.bytesPerSecond = bytesPerSecond;
+        this.partialTimer = partialTimer;
+        this.finalTimer = finalTimer;
+        this.sessionHistograms = sessionHistograms;
+    }
+
+    @Override
+    public void onStream(TranscriptResultStream e) {
+        if (e instanceof TranscriptEvent && bytesPerSecond > 0) {
+            long now = System.nanoTime();
+            List<Result> results = ((TranscriptEvent) e).transcript().results();
+            for (int i = 0; i < results.size(); i++) {
+                record(results.get(i), now);
+            }
+        }
+        delegate.onStream(e);
+    }
+
+    private void record(Result result, long now) {
+        if (result.endTime() == null) {
+            return;
+        }
+        long lastByte = (long) (result.endTime() * bytesPerSecond) - 1;
+        long readAt = index.readAt(Math.max(0, lastByte));
+        if (readAt < 0) {
+            synchronized (this) {
+                untracked++;
+            }
+            return;
+        }
+        long nanos = Math.max(0, now - readAt);
+        boolean partial = Boolean.TRUE.equals(result.isPartial());
+        (partial ? partialTimer : finalTimer).record(nanos, TimeUnit.NANOSECONDS);
+        if (!sessionHistograms) {
+            return;
+        }
+        long millis = Math.min(HIGHEST_MILLIS, TimeUnit.NANOSECONDS.toMillis(nanos));
+        synchronized (this) {
+            if (partial) {
+                if (partialMillis == null) {
+                    partialMillis = new Histogram(HIGHEST_MILLIS, 2);
+                }
+                partialMillis.recordValue(millis);
+            } else {
+                if (finalMillis == null) {
+                    finalMillis = new Histogram(HIGHEST_MILLIS, 2);
+                }
+                finalMillis.recordValue(millis);
+            }
+        }
+    }
+
+    /**
+     * @return latency of final results of this session so far, in milliseconds, or null if none was recorded
+     */
+    public synchronized Histogram finalLatencyMillis() {
+        return finalMillis == null ? null : finalMillis.copy();
+    }
+
+    /**
+     * @return latency of partial results of this session so far, in milliseconds, or null if none was recorded
+     */
+    public synchronized Histogram partialLatencyMillis() {
+        return partialMillis == null ? null : partialMillis.copy();
+    }
+
+    private synchronized void logSummary() {
+        if (!sessionHistograms) {
+            return;
+        }
+        LOG.info("Result latency :{} final {}, partial {}, {} results past the index", label,
+                describe(finalMillis), describe(partialMillis), untracked);
+    }
+
+    private static String describe(Histogram histogram) {
+        if (histogram == null) {
+            return "n=0";
+        }
+        return String.format("n=%d p50=%d ms p90=%d ms p99=%d ms max=%d ms", histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getMaxValue());
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        logSummary();
+        delegate.onError(e);
+    }
+
+    @Override
+    public void onResponse(StartStreamTranscriptionResponse r) {
+        delegate.onResponse(r);
+    }
+
+    @Override
+    public void onComplete() {
+        logSummary();
+        delegate.onComplete();
+    }
+}
@@ -0,0 +1,40 @@
+package com.sample.transcribestreamin.multichannel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries allowed across all sessions: a token bucket that refills at a steady rate up to a burst. Each retry
+ * takes one token, and a failure that finds the bucket empty is reported instead of retried, so a service outage
+ * does not turn into a retry storm.
+ */
+class RetryBudget {
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param retriesPerSecond sustained retries per second
+     * @param burst            retries allowed in a burst
+     */
+    RetryBudget(double retriesPerSecond, int burst) {
+        this.tokensPerNano = retriesPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @return true if a retry may go ahead
+     */
+    synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
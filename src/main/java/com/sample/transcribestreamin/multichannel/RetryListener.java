@@ -0,0 +1,13 @@
+package com.sample.transcribestreamin.multichannel;
+
+/**
+ * Notified by {@link TranscribeStreamingRetryClient} each time a failed stream attempt is retried.
+ * Beans implementing this interface are registered with the client automatically.
+ */
+public interface RetryListener {
+    /**
+     * @param cause   failure of the attempt, unwrapped from CompletionException
+     * @param attempt number of the retry about to be scheduled, starting at 1
+     */
+    void onRetry(Throwable cause, int attempt);
+}
@@ -0,0 +1,78 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Appends every record as one line of JSON to {@code transcripts-<time>.jsonl} files in
+ * {@code transcripts.jsonl.directory}. A new file is started once the current one reaches
+ * {@code transcripts.jsonl.maxBytes}. Each batch is flushed as a whole, so a crash loses at most the batch being
+ * written.
+ */
+@Component
+@ConditionalOnProperty(name = "transcripts.jsonl.directory")
+public class RollingJsonlTranscriptSink implements TranscriptSink {
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    private final Path directory;
+    private final long maxBytes;
+    private Writer writer;
+    private long bytes;
+
+    @Autowired
+    public RollingJsonlTranscriptSink(@Value("${transcripts.jsonl.directory}") String directory,
+                                      @Value("${transcripts.jsonl.maxBytes:104857600}") long maxBytes) throws IOException {
+        this.directory = Paths.get(directory);
+        this.maxBytes = Math.max(1, maxBytes);
+        Files.createDirectories(this.directory);
+    }
+
+    @Override
+    public void write(List<TranscriptRecord> records) throws IOException {
+        for (TranscriptRecord record : records) {
+            String line = record.toJson() + "\n";
+            if (writer == null || bytes >= maxBytes) {
+                roll();
+            }
+            writer.write(line);
+            bytes += line.getBytes(StandardCharsets.UTF_8).length;
+        }
+        writer.flush();
+    }
+
+    private void roll() throws IOException {
+        close();
+        Path file = directory.resolve("transcripts-" + LocalDateTime.now().format(FILE_TIME) + ".jsonl");
+        writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8), 64 * 1024);
+        bytes = Files.size(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            Writer current = writer;
+            writer = null;
+            current.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RollingJsonlTranscriptSink(" + directory + ")";
+    }
+}
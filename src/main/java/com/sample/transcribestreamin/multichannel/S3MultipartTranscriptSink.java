@@ -0,0 +1,196 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the transcript of each session to its own S3 object, {@code <transcripts.s3.prefix><session>.jsonl},
+ * one record per line.
+ * <p>
+ * Records of a session are buffered until they make up a part of {@code transcripts.s3.partBytes} (at least the
+ * 5 MiB S3 allows), which is then sent as a part of a multipart upload, so a long session never holds more than
+ * one part in memory. The upload is completed when the session ends. A session that never fills a part is
+ * written with a single PUT instead. An upload that fails is aborted and the rest of its session is dropped.
+ * <p>
+ * Uses the application's {@link S3Client} bean if there is one, otherwise a client for
+ * {@code transcripts.s3.region}.
+ */
+@Component
+@ConditionalOnProperty(name = "transcripts.s3.bucket")
+public class S3MultipartTranscriptSink implements TranscriptSink {
+    private static final Logger LOG = LoggerFactory.getLogger(S3MultipartTranscriptSink.class);
+    private static final int MIN_PART_BYTES = 5 * 1024 * 1024;
+    private final S3Client s3;
+    private final boolean ownsClient;
+    private final String bucket;
+    private final String prefix;
+    private final int partBytes;
+    private final Map<String, Upload> uploads = new HashMap<>();
+
+    @Autowired
+    public S3MultipartTranscriptSink(ObjectProvider<S3Client> s3Client,
+                                     @Value("${transcripts.s3.region:ap-south-1}") String region,
+                                     @Value("${transcripts.s3.bucket}") String bucket,
+                                     @Value("${transcripts.s3.prefix:transcripts/}") String prefix,
+                                     @Value("${transcripts.s3.partBytes:5242880}") int partBytes) {
+        S3Client client = s3Client.getIfAvailable();
+        this.ownsClient = client == null;
+        this.s3 = client != null ? client : S3Client.builder().region(Region.of(region)).build();
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.partBytes = Math.max(MIN_PART_BYTES, partBytes);
+    }
+
+    @Override
+    public void write(List<TranscriptRecord> records) {
+        for (TranscriptRecord record : records) {
+            Upload upload = uploads.computeIfAbsent(record.session(), Upload::new);
+            if (upload.failed) {
+                continue;
+            }
+            byte[] line = (record.toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+            upload.buffer.write(line, 0, line.length);
+            if (upload.buffer.size() >= partBytes) {
+                upload.sendPart();
+            }
+        }
+    }
+
+    @Override
+    public void endSession(String session) {
+        Upload upload = uploads.remove(session);
+        if (upload != null && !upload.failed) {
+            upload.complete();
+        }
+    }
+
+    /**
+     * Completes the uploads of sessions that have not ended, so what they have so far is not lost.
+     */
+    @Override
+    public void close() {
+        for (Upload upload : new ArrayList<>(uploads.values())) {
+            if (!upload.failed) {
+                upload.complete();
+            }
+        }
+        uploads.clear();
+        if (ownsClient) {
+            s3.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "S3MultipartTranscriptSink(s3://" + bucket + "/" + prefix + ")";
+    }
+
+    private static String sanitize(String session) {
+        return session.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private final class Upload {
+        private final String key;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final List<CompletedPart> parts = new ArrayList<>();
+        private String uploadId;
+        private boolean failed;
+
+        private Upload(String session) {
+            this.key = prefix + sanitize(session) + ".jsonl";
+        }
+
+        private void sendPart() {
+            try {
+                if (uploadId == null) {
+                    uploadId = s3.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .contentType("application/x-ndjson")
+                            .build()).uploadId();
+                }
+                int partNumber = parts.size() + 1;
+                String eTag = s3.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .uploadId(uploadId)
+                                .partNumber(partNumber)
+                                .build(),
+                        RequestBody.fromBytes(buffer.toByteArray())).eTag();
+                parts.add(CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+                buffer.reset();
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void complete() {
+            try {
+                if (uploadId == null) {
+                    s3.putObject(PutObjectRequest.builder()
+                                    .bucket(bucket)
+                                    .key(key)
+                                    .contentType("application/x-ndjson")
+                                    .build(),
+                            RequestBody.fromBytes(buffer.toByteArray()));
+                } else {
+                    if (buffer.size() > 0) {
+                        // The last part may be smaller than the minimum.
+                        sendPart();
+                        if (failed) {
+                            return;
+                        }
+                    }
+                    s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                            .build());
+                }
+                LOG.info("Wrote transcript s3://{}/{}", bucket, key);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(RuntimeException e) {
+            failed = true;
+            buffer.reset();
+            LOG.error("Failed to upload transcript s3://{}/{}, dropping the rest of the session", bucket, key, e);
+            if (uploadId != null) {
+                try {
+                    s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .build());
+                } catch (RuntimeException abortFailure) {
+                    LOG.warn("Failed to abort upload {} of s3://{}/{}", uploadId, bucket, key, abortFailure);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.sample.transcribestreamin.multichannel;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.transcribestreaming.model.LimitExceededException;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponse;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control in front of {@link TranscribeStreamingRetryClient}: caps the number of concurrent Transcribe
+ * sessions and adapts the cap with AIMD (additive increase, multiplicative decrease).
+ * <p>
+ * Each session that completes without being throttled, and that ran while the limit was reached, raises the limit by
+ * 1/limit, so by about one per round of sessions. Sessions that never saw the limit reached say nothing about
+ * whether a higher one would hold, so they leave it as it is. Throttling ({@code LimitExceededException}, a throttling error or HTTP 429), whether it ends a session
+ * or only causes a retry, halves the limit; a time to first response above {@code admission.latencyThresholdMillis}
+ * lowers it by 10%. The time is measured from the start of each attempt, so retry backoff is not counted as
+ * service latency. Decreases are applied at most once per {@code admission.decreaseIntervalMillis}, so a burst of
+ * throttles counts as one signal.
+ * <p>
+ * Sessions over the limit wait in a FIFO queue of at most {@code admission.maxQueued} entries; beyond that
+ * {@link #acquire()} fails with {@link RejectedExecutionException}. A queued session is admitted on the
+ * transcription executor, not on the thread of the session that ended and made room for it. Cancelling the future
+ * of a queued session removes it from the queue.
+ */
+@Component
+public class SessionAdmissionController implements RetryListener, MeterBinder {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionAdmissionController.class);
+    private static final double THROTTLE_DECREASE = 0.5;
+    private static final double LATENCY_DECREASE = 0.9;
+    private final double minLimit;
+    private final double maxLimit;
+    private final int maxQueued;
+    private final long latencyThresholdNanos;
+    private final long decreaseIntervalNanos;
+    private final ExecutorService executor;
+    private final ArrayDeque<CompletableFuture<Permit>> waiting = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    /**
+     * Number of times the limit was reached: a session was admitted up to it, or had to wait.
+     */
+    private long saturations;
+    private long lastDecrease;
+
+    @Autowired
+    public SessionAdmissionController(@Value("${admission.initialLimit:20}") int initialLimit,
+                                      @Value("${admission.minLimit:1}") int minLimit,
+                                      @Value("${admission.maxLimit:1000}") int maxLimit,
+                                      @Value("${admission.maxQueued:1000}") int maxQueued,
+                                      @Value("${admission.latencyThresholdMillis:3000}") long latencyThresholdMillis,
+                                      @Value("${admission.decreaseIntervalMillis:1000}") long decreaseIntervalMillis,
+                                      @Qualifier("transcriptionExecutorService") ExecutorService executor) {
+        this.executor = executor;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.maxQueued = maxQueued;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+        this.decreaseIntervalNanos = TimeUnit.MILLISECONDS.toNanos(decreaseIntervalMillis);
+        this.lastDecrease = System.nanoTime() - decreaseIntervalNanos;
+    }
+
+    /**
+     * @return a future completed with a permit once the session may start, failed with
+     * {@link RejectedExecutionException} if the wait queue is full. The caller may cancel it to stop waiting;
+     * otherwise only the controller completes it.
+     */
+    public CompletableFuture<Permit> acquire() {
+        CompletableFuture<Permit> admitted = new CompletableFuture<>();
+        Permit permit;
+        synchronized (this) {
+            if (waiting.isEmpty() && inFlight < (int) limit) {
+                permit = admit();
+            } else if (waiting.size() >= maxQueued) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException(
+                        "Admission queue full: " + waiting.size() + " sessions waiting"));
+            } else {
+                saturations++;
+                waiting.add(admitted);
+                admitted.whenComplete((p, e) -> {
+                    if (admitted.isCancelled()) {
+                        synchronized (this) {
+                            waiting.remove(admitted);
+                        }
+                    }
+                });
+                return admitted;
+            }
+        }
+        admitted.complete(permit);
+        return admitted;
+    }
+
+    /**
+     * Called holding the lock, with room under the limit.
+     */
+    private Permit admit() {
+        Permit permit = new Permit(saturations);
+        inFlight++;
+        if (inFlight >= (int) limit) {
+            saturations++;
+        }
+        return permit;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("transcribe.sessions.active", this, SessionAdmissionController::inFlight)
+                .description("Transcribe sessions admitted and running")
+                .register(registry);
+        Gauge.builder("transcribe.sessions.queued", this, SessionAdmissionController::queueDepth)
+                .description("Sessions waiting for admission")
+                .register(registry);
+        Gauge.builder("transcribe.sessions.limit", this, SessionAdmissionController::limit)
+                .description("Current adaptive cap on concurrent sessions")
+                .register(registry);
+    }
+
+    public synchronized int queueDepth() {
+        return waiting.size();
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    @Override
+    public void onRetry(Throwable cause, int attempt) {
+        if (isThrottle(cause)) {
+            decrease(THROTTLE_DECREASE, cause.getClass().getSimpleName());
+        }
+    }
+
+    static boolean isThrottle(Throwable cause) {
+        Throwable e = TranscribeStreamingRetryClient.unwrap(cause);
+        if (e instanceof LimitExceededException) {
+            return true;
+        }
+        if (e instanceof SdkServiceException) {
+            SdkServiceException serviceException = (SdkServiceException) e;
+            return serviceException.isThrottlingException() || serviceException.statusCode() == 429;
+        }
+        return false;
+    }
+
+    private void decrease(double factor, String reason) {
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - lastDecrease < decreaseIntervalNanos) {
+                return;
+            }
+            lastDecrease = now;
+            limit = Math.max(minLimit, limit * factor);
+        }
+        LOG.info("Session limit lowered to {} after {}", limit(), reason);
+    }
+
+    private void release(Permit permit, Throwable failure) {
+        if (failure != null && isThrottle(failure)) {
+            decrease(THROTTLE_DECREASE, failure.getClass().getSimpleName());
+        }
+        List<CompletableFuture<Permit>> admitted = new ArrayList<>(1);
+        List<Permit> permits = new ArrayList<>(1);
+        synchronized (this) {
+            boolean ranAtLimit = permit.saturations != saturations || inFlight >= (int) limit;
+            inFlight--;
+            if (failure == null && ranAtLimit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            while (inFlight < (int) limit && !waiting.isEmpty()) {
+                CompletableFuture<Permit> next = waiting.poll();
+                if (!next.isDone()) {
+                    admitted.add(next);
+                    permits.add(admit());
+                }
+            }
+        }
+        // This is the SDK thread that completed the ended session; the admitted ones start on the executor.
+        for (int i = 0; i < admitted.size(); i++) {
+            CompletableFuture<Permit> next = admitted.get(i);
+            Permit nextPermit = permits.get(i);
+            try {
+                executor.execute(() -> {
+                    if (!next.complete(nextPermit)) {
+                        nextPermit.release(new CancellationException("Cancelled while waiting for admission"));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                nextPermit.release(e);
+                next.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Admission of one session. Must be released exactly once when the session ends.
+     */
+    public final class Permit {
+        private final long admittedAt = System.nanoTime();
+        /**
+         * {@link #saturations} when admitted; the session ran at the limit if it has changed since.
+         */
+        private final long saturations;
+        private boolean released;
+
+        private Permit(long saturations) {
+            this.saturations = saturations;
+        }
+
+        /**
+         * Wraps the session's behavior to measure the time from the start of each attempt to its first response
+         * from the service.
+         */
+        public StreamTranscriptionBehavior observe(StreamTranscriptionBehavior delegate) {
+            return new StreamTranscriptionBehavior() {
+                private volatile long attemptStart = admittedAt;
+                private volatile boolean responded;
+
+                @Override
+                public void onAttempt(int attempt) {
+                    attemptStart = System.nanoTime();
+                    responded = false;
+                    delegate.onAttempt(attempt);
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    delegate.onError(e);
+                }
+
+                @Override
+                public void onStream(TranscriptResultStream e) {
+                    delegate.onStream(e);
+                }
+
+                @Override
+                public void onResponse(StartStreamTranscriptionResponse r) {
+                    if (!responded) {
+                        responded = true;
+                        long latency = System.nanoTime() - attemptStart;
+                        if (latency > latencyThresholdNanos) {
+                            decrease(LATENCY_DECREASE, "slow start " + TimeUnit.NANOSECONDS.toMillis(latency) + " ms");
+                        }
+                    }
+                    delegate.onResponse(r);
+                }
+
+                @Override
+                public void onComplete() {
+                    delegate.onComplete();
+                }
+            };
+        }
+
+        /**
+         * @param failure failure of the session, null if it completed
+         */
+        public void release(Throwable failure) {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            SessionAdmissionController.this.release(this, failure);
+        }
+    }
+}
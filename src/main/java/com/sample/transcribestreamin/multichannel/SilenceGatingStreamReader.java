@@ -0,0 +1,261 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * StreamReader that shortens long silences shared by all channels, so they are not streamed.
+ * <p>
+ * Audio is classified in windows of {@link #WINDOW_MILLIS}. A channel is active in a window when its mean
+ * amplitude reaches the threshold, or a quarter of it with at least {@link #FRICATIVE_CROSSINGS} zero crossings
+ * per sample, which catches quiet unvoiced sounds; both take one add and one compare per sample. A window is
+ * silent when no channel is active. Of a run of silent windows, the first half of {@code keepMillis} is sent as
+ * it comes and the last half is held in a ring and sent before the next active window, so speech keeps its lead
+ * in and tail; windows pushed out of the ring are skipped.
+ * <p>
+ * Each skip is kept as a cut, so {@link #toRecordingSeconds} maps stream time back to recording time, see
+ * {@link SilenceGatingTranscriptionBehavior}. The cuts are written by the subscription drain and read by the
+ * thread delivering results, so access to them is synchronized. It reads under {@link ReplayableStreamReader},
+ * so a retry replays gated audio and the cuts stay valid.
+ */
+public class SilenceGatingStreamReader implements ByteToAudioEventSubscription.StreamReader {
+    private static final Logger LOG = LoggerFactory.getLogger(SilenceGatingStreamReader.class);
+    static final int WINDOW_MILLIS = 10;
+    static final double FRICATIVE_CROSSINGS = 0.25;
+    private static final int BYTES_PER_SAMPLE = 2;
+    private final ByteToAudioEventSubscription.StreamReader source;
+    private final int sampleRate;
+    private final int channels;
+    private final int windowBytes;
+    private final int frameSize;
+    private final long activeSum;
+    private final long quietSum;
+    private final int fricativeCrossings;
+    private final int hangoverWindows;
+    private final ByteBuffer window;
+    /**
+     * Silent windows held to be sent before the next active one, oldest at {@link #heldStart}.
+     */
+    private final byte[] held;
+    private final int heldCapacity;
+    private int heldStart;
+    private int heldCount;
+    private final ByteBuffer output;
+    private int silentWindows;
+    private boolean ended;
+    private long sentFrames;
+    private long skippedFrames;
+    /**
+     * Stream frame of each cut and the frames skipped up to and including it.
+     */
+    private long[] cutAt = new long[16];
+    private long[] skippedAt = new long[16];
+    private int cuts;
+
+    /**
+     * @param threshold  mean absolute amplitude, in 16 bit units, at which a channel counts as active
+     * @param keepMillis silence kept of each silent run, split between its start and its end
+     */
+    public SilenceGatingStreamReader(ByteToAudioEventSubscription.StreamReader source, int threshold, int keepMillis) {
+        StartStreamTranscriptionRequest request = source.getTranscriptionRequest();
+        this.source = source;
+        this.sampleRate = request.mediaSampleRateHertz();
+        this.channels = request.numberOfChannels() == null ? 1 : request.numberOfChannels();
+        this.frameSize = channels * BYTES_PER_SAMPLE;
+        int windowFrames = Math.max(1, sampleRate * WINDOW_MILLIS / 1000);
+        this.windowBytes = windowFrames * frameSize;
+        this.activeSum = (long) threshold * windowFrames;
+        this.quietSum = activeSum / 4;
+        this.fricativeCrossings = (int) Math.ceil(FRICATIVE_CROSSINGS * windowFrames);
+        int keepWindows = Math.max(0, keepMillis / WINDOW_MILLIS);
+        this.hangoverWindows = keepWindows - keepWindows / 2;
+        this.heldCapacity = keepWindows / 2;
+        this.held = new byte[heldCapacity * windowBytes];
+        this.window = ByteBuffer.allocate(windowBytes).order(ByteOrder.LITTLE_ENDIAN);
+        this.output = ByteBuffer.allocate((heldCapacity + 1) * windowBytes);
+        output.flip();
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(ByteBuffer.wrap(b));
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            if (!output.hasRemaining() && !fill()) {
+                break;
+            }
+            int n = Math.min(buffer.remaining(), output.remaining());
+            buffer.put(output.array(), output.position(), n);
+            output.position(output.position() + n);
+            total += n;
+        }
+        return total > 0 ? total : -1;
+    }
+
+    /**
+     * Reads and classifies the next window of the source, leaving in {@link #output} what is to be sent of it,
+     * which may be nothing.
+     *
+     * @return false at the end of the source
+     */
+    private boolean fill() throws IOException {
+        if (ended) {
+            return false;
+        }
+        window.clear();
+        while (window.hasRemaining()) {
+            if (source.read(window) <= 0) {
+                ended = true;
+                break;
+            }
+        }
+        // A trailing partial frame is dropped.
+        int length = window.position() - window.position() % frameSize;
+        if (length == 0) {
+            logSummary();
+            return false;
+        }
+        output.clear();
+        if (isActive(length)) {
+            silentWindows = 0;
+            sendHeld();
+            output.put(window.array(), 0, length);
+        } else if (silentWindows++ < hangoverWindows) {
+            output.put(window.array(), 0, length);
+        } else if (length < windowBytes) {
+            // Only the last window is short; it is sent whole, after what is held so times stay in order.
+            sendHeld();
+            output.put(window.array(), 0, length);
+        } else {
+            hold();
+        }
+        output.flip();
+        sentFrames += output.remaining() / frameSize;
+        if (ended) {
+            logSummary();
+        }
+        return true;
+    }
+
+    private void logSummary() {
+        // Windows still held at the end are not sent either.
+        long unsent = skippedFrames + (long) heldCount * windowBytes / frameSize;
+        LOG.info("Skipped {} of {} seconds of silence :{}", String.format("%.1f", (double) unsent / sampleRate),
+                String.format("%.1f", (double) (sentFrames + unsent) / sampleRate), source.label());
+    }
+
+    /**
+     * Moves the held windows to {@link #output}, oldest first.
+     */
+    private void sendHeld() {
+        for (int i = 0; i < heldCount; i++) {
+            output.put(held, (heldStart + i) % heldCapacity * windowBytes, windowBytes);
+        }
+        heldCount = 0;
+        heldStart = 0;
+    }
+
+    /**
+     * Holds the silent window just read, skipping the oldest held one if the ring is full.
+     */
+    private void hold() {
+        if (heldCount == heldCapacity) {
+            skip(windowBytes / frameSize);
+            if (heldCapacity == 0) {
+                return;
+            }
+            heldStart = (heldStart + 1) % heldCapacity;
+            heldCount--;
+        }
+        System.arraycopy(window.array(), 0, held, (heldStart + heldCount) % heldCapacity * windowBytes, windowBytes);
+        heldCount++;
+    }
+
+    /**
+     * @return true if any channel of the window reaches the threshold, on amplitude or as an unvoiced sound
+     */
+    private boolean isActive(int length) {
+        for (int c = 0; c < channels; c++) {
+            long sum = 0;
+            int crossings = 0;
+            int previous = window.getShort(c * BYTES_PER_SAMPLE);
+            for (int i = c * BYTES_PER_SAMPLE; i < length; i += frameSize) {
+                int sample = window.getShort(i);
+                sum += sample < 0 ? -sample : sample;
+                crossings += (sample ^ previous) >>> 31;
+                previous = sample;
+            }
+            if (sum >= activeSum || sum >= quietSum && crossings >= fricativeCrossings) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void skip(int frames) {
+        skippedFrames += frames;
+        if (cuts > 0 && cutAt[cuts - 1] == sentFrames) {
+            skippedAt[cuts - 1] = skippedFrames;
+            return;
+        }
+        if (cuts == cutAt.length) {
+            cutAt = Arrays.copyOf(cutAt, cuts * 2);
+            skippedAt = Arrays.copyOf(skippedAt, cuts * 2);
+        }
+        cutAt[cuts] = sentFrames;
+        skippedAt[cuts] = skippedFrames;
+        cuts++;
+    }
+
+    /**
+     * @param streamSeconds time in the audio as sent
+     * @param start         true for the start of a result or item, which maps past a cut at that time; an end maps
+     *                      before it
+     * @return the same time in the audio as read from the source
+     */
+    public synchronized double toRecordingSeconds(double streamSeconds, boolean start) {
+        double frame = streamSeconds * sampleRate;
+        // Cuts at or before the frame (before it, for an end).
+        int low = 0;
+        int high = cuts;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (start ? cutAt[mid] <= frame : cutAt[mid] < frame) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == 0 ? streamSeconds : streamSeconds + (double) skippedAt[low - 1] / sampleRate;
+    }
+
+    @Override
+    public StartStreamTranscriptionRequest getTranscriptionRequest() {
+        return source.getTranscriptionRequest();
+    }
+
+    @Override
+    public void onResubscribe() {
+        source.onResubscribe();
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+
+    @Override
+    public String label() {
+        return source.label();
+    }
+}
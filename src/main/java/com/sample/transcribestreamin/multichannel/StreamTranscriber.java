@@ -1,11 +1,16 @@
 package com.sample.transcribestreamin.multichannel;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
@@ -17,6 +22,88 @@ public class StreamTranscriber implements ApplicationContextAware {
     @Autowired
     private TranscribeStreamingRetryClient transcribeStreamingRetryClient;
 
+    @Autowired
+    private SessionAdmissionController admissionController;
+
+    @Autowired
+    private AsyncTranscriptWriter transcriptWriter;
+
+    @Autowired
+    private StreamingMetrics metrics;
+
+    @Autowired(required = false)
+    private List<TranscriptDeltaListener> deltaListeners = Collections.emptyList();
+
+    /**
+     * Partial results in a row a word must survive to be reported stable.
+     */
+    @Value("${partials.stableAfterUpdates:2}")
+    private int stableAfterUpdates = 2;
+
+    /**
+     * Seconds of audio kept for replay after a retry, 0 to retry without replay.
+     */
+    @Value("${replay.bufferSeconds:60}")
+    private int replayBufferSeconds = 60;
+
+    @Value("${replay.direct:false}")
+    private boolean replayDirect;
+
+    /**
+     * Chunks of audio whose send time is kept to measure result latency.
+     */
+    @Value("${latency.indexEntries:4096}")
+    private int latencyIndexEntries = AudioOffsetIndex.DEFAULT_ENTRIES;
+
+    /**
+     * Whether each session keeps its own latency histograms and logs their percentiles when it ends; the
+     * aggregate timers are always recorded.
+     */
+    @Value("${latency.logPerSession:false}")
+    private boolean latencyLogPerSession;
+
+    /**
+     * Audio above this sample rate is resampled down to it before it is sent, 0 to send it at its own rate.
+     */
+    @Value("${dsp.sampleRate:0}")
+    private int dspSampleRate;
+
+    @Value("${vad.enabled:false}")
+    private boolean vadEnabled;
+
+    /**
+     * Mean absolute amplitude, in 16 bit units, at which a channel counts as speaking.
+     */
+    @Value("${vad.threshold:300}")
+    private int vadThreshold = 300;
+
+    /**
+     * Silence kept of each silence shared by all channels; the rest is not sent.
+     */
+    @Value("${vad.keepSilenceMillis:1000}")
+    private int vadKeepSilenceMillis = 1000;
+
+    private boolean flac;
+
+    /**
+     * Encoding of the audio sent: {@code pcm} as read, or {@code flac} to send fewer bytes for the same audio.
+     */
+    @Value("${stream.mediaEncoding:pcm}")
+    public void setMediaEncoding(String mediaEncoding) {
+        switch (mediaEncoding.toLowerCase()) {
+            case "pcm":
+                flac = false;
+                break;
+            case "flac":
+                flac = true;
+                break;
+            default:
+                // Ogg Opus would need a native Opus encoder.
+                throw new IllegalArgumentException("Unsupported stream.mediaEncoding " + mediaEncoding
+                        + ", expected pcm or flac");
+        }
+    }
+
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) {
         this.applicationContext = applicationContext;
@@ -31,12 +118,90 @@ public class StreamTranscriber implements ApplicationContextAware {
 
     public CompletableFuture<Void> transcribe(ByteToAudioEventSubscription.StreamReader streamReader) throws ExecutionException, InterruptedException, IOException {
         // Implementation for transcribing audio streams
+        streamReader = AudioDspStreamReader.forService(streamReader, dspSampleRate);
+        AsyncTranscriptWriter.Session session = transcriptWriter.openSession(streamReader.label());
+        PartialResultStabilizer stabilizer = deltaListeners.isEmpty() ? null
+                : new PartialResultStabilizer(session.id(), deltaListeners, stableAfterUpdates);
+        StreamTranscriptionBehavior behavior = new StreamTranscriptionBehaviorImpl(streamReader.label(), session, stabilizer);
+        if (vadEnabled) {
+            SilenceGatingStreamReader gatingStreamReader = new SilenceGatingStreamReader(streamReader, vadThreshold, vadKeepSilenceMillis);
+            behavior = new SilenceGatingTranscriptionBehavior(behavior, gatingStreamReader);
+            streamReader = gatingStreamReader;
+        }
+        AudioOffsetIndex latencyIndex = new AudioOffsetIndex(latencyIndexEntries);
+        behavior = new ResultLatencyTracker(behavior, streamReader.label(), latencyIndex,
+                AudioPacer.bytesPerSecond(streamReader.getTranscriptionRequest()),
+                metrics.resultLatency(false), metrics.resultLatency(true), latencyLogPerSession);
+        streamReader = new LatencyTrackingStreamReader(streamReader, latencyIndex);
+        if (replayBufferSeconds > 0) {
+            ReplayableStreamReader replayableStreamReader = new ReplayableStreamReader(streamReader, replayBufferSeconds, replayDirect);
+            behavior = new ReplayTranscriptionBehavior(behavior, replayableStreamReader);
+            streamReader = replayableStreamReader;
+        }
+        // Metered on the PCM format, which the encoding stage reports what it encodes in.
+        StreamingMetrics.SessionMeter meter = metrics.newSession(streamReader.getTranscriptionRequest());
+        if (flac) {
+            streamReader = new FlacEncodingStreamReader(streamReader, meter);
+        }
         AudioStreamPublisher publisherTwoChannels = getAudioStreamPublisher(streamReader);
+        StartStreamTranscriptionRequest request = streamReader.getTranscriptionRequest();
+        publisherTwoChannels.setSessionMeter(meter);
+        StreamTranscriptionBehavior sessionBehavior = meter.observe(behavior);
+
+        // The session starts once admitted, on the caller's thread or, after waiting, on the transcription executor.
+        // Cancelling the returned future ends it: retries stop and the attempt in progress is aborted.
+        CompletableFuture<Void> transcription = new CompletableFuture<>();
+        CompletableFuture<SessionAdmissionController.Permit> admission = admissionController.acquire();
+        transcription.whenComplete((r, e) -> {
+            if (transcription.isCancelled()) {
+                // Leaves the admission queue if still waiting; does nothing once admitted.
+                admission.cancel(false);
+            }
+        });
+        admission.thenCompose(permit -> {
+            if (transcription.isCancelled()) {
+                CancellationException cancelled = new CancellationException("Cancelled while waiting for admission");
+                permit.release(cancelled);
+                return CompletableFuture.<Void>failedFuture(cancelled);
+            }
+            CompletableFuture<Void> result;
+            meter.start();
+            try {
+                result = transcribeStreamingRetryClient.startStreamTranscription(
+                        request,
+                        publisherTwoChannels,
+                        permit.observe(sessionBehavior));
+            } catch (RuntimeException e) {
+                permit.release(e);
+                throw e;
+            }
+            transcription.whenComplete((r, e) -> {
+                if (transcription.isCancelled()) {
+                    result.cancel(true);
+                }
+            });
+            return result.whenComplete((r, e) -> permit.release(e));
+        }).whenComplete((r, e) -> {
+            // After the last retry, not after each attempt.
+            session.close();
+            Throwable error = e;
+            if (error == null && session.lostRecords() > 0) {
+                // The message is not deleted, so the objects are transcribed again into a complete transcript.
+                error = new IllegalStateException(session.lostRecords() + " final results of " + session.id()
+                        + " were dropped before reaching the transcript sinks");
+            }
+            meter.end(error);
+            if (error != null) {
+                transcription.completeExceptionally(error);
+            } else {
+                transcription.complete(null);
+            }
+        });
+        return transcription;
+    }
 
-        return transcribeStreamingRetryClient.startStreamTranscription(
-                streamReader.getTranscriptionRequest(),
-                publisherTwoChannels,
-                new StreamTranscriptionBehaviorImpl(streamReader.label()));
+    public SessionAdmissionController getAdmissionController() {
+        return admissionController;
     }
 
 }
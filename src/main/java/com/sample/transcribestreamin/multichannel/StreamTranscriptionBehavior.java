@@ -42,6 +42,13 @@ public interface StreamTranscriptionBehavior {
      */
     void onResponse(StartStreamTranscriptionResponse r);
 
+    /**
+     * Called by the retry client as it starts each attempt of the stream, after any backoff.
+     *
+     * @param attempt 0 for the first attempt, then the number of the retry
+     */
+    default void onAttempt(int attempt) {
+    }
 
     /**
      * Defines what to do on stream completion
@@ -7,19 +7,38 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.transcribestreaming.model.*;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Objects;
 
 // snippet-start:[transcribe.java-streaming-client-behavior-imp]
 public class StreamTranscriptionBehaviorImpl implements StreamTranscriptionBehavior {
     private static final Logger LOG = LoggerFactory.getLogger(StreamTranscriptionBehaviorImpl.class);
+    private static final String SPEAKER_PREFIX = "speaker_";
     private final String label;
-    StringBuffer finalResult = new StringBuffer();
+    private final AsyncTranscriptWriter.Session session;
+    private final PartialResultStabilizer stabilizer;
+    // Reused from event to event; events of a session are delivered one at a time.
+    private final StringBuilder line = new StringBuilder(256);
+    private final List<String> speakers = new ArrayList<>(4);
+    private final List<StringBuilder> speakerWords = new ArrayList<>(4);
+    private int speakerCount;
 
     public StreamTranscriptionBehaviorImpl(String label) {
+        this(label, null, null);
+    }
+
+    /**
+     * @param session    receives the final results, null to only log them
+     * @param stabilizer receives partial and final results to emit deltas, null to skip partial results
+     */
+    public StreamTranscriptionBehaviorImpl(String label, AsyncTranscriptWriter.Session session,
+                                           PartialResultStabilizer stabilizer) {
         this.label = label;
+        this.session = session;
+        this.stabilizer = stabilizer;
     }
 
     private String addLabel(String in) {
@@ -41,40 +60,91 @@ public class StreamTranscriptionBehaviorImpl implements StreamTranscriptionBehav
         onStreamWithChannel(e);
     }
 
+    /**
+     * Handles the final results of an event in one pass over its results, in event order. Partial results only go
+     * to the stabilizer, if any; several results on the same channel are each handled. The words of each
+     * speaker are gathered into builders reused from event to event, and the log line is only formatted when
+     * it is logged.
+     */
     private void onStreamWithChannel(TranscriptResultStream e) {
         List<Result> results = ((TranscriptEvent) e).transcript().results();
-        Map<String, List<Alternative>> partialTranscript = results.stream().filter(Result::isPartial)
-                .collect(Collectors.toMap(Result::channelId, Result::alternatives));
-
-        Map<String, List<Alternative>> nonPartialTranscript = results.stream().filter(r -> !r.isPartial())
-                .collect(Collectors.toMap(Result::channelId, Result::alternatives));
-
-        nonPartialTranscript.forEach((channel, alternatives) -> {
-            alternatives.stream().forEach(a -> {
-                if (!a.transcript().isEmpty()) {
-//                    System.out.println();
-//                    System.out.println("<<"+channel+">>  : "+ a.transcript());
-                    print("<<" + channel + ">>  : " + getSpeakerLabels(a.items().stream()));
-                    finalResult.append(" ").append(a.transcript());
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            if (Boolean.TRUE.equals(result.isPartial())) {
+                if (stabilizer != null) {
+                    stabilizer.onPartial(result);
+                }
+                continue;
+            }
+            if (stabilizer != null) {
+                stabilizer.onFinal(result);
+            }
+            List<Alternative> alternatives = result.alternatives();
+            for (int j = 0; j < alternatives.size(); j++) {
+                Alternative alternative = alternatives.get(j);
+                if (!alternative.transcript().isEmpty()) {
+                    onFinalResult(result, alternative);
                 }
-            });
-        });
+            }
+        }
     }
 
-    public String getSpeakerLabels(Stream<Item> stream) {
-        return String.valueOf(stream.collect(Collectors.groupingBy(
-                this::speaker,
-                Collectors.mapping(
-                        Item::content,
-                        Collectors.joining(" ", " ", " ")
-                )
-        )));
+    private void onFinalResult(Result result, Alternative alternative) {
+        groupBySpeaker(alternative.items());
+        if (LOG.isInfoEnabled()) {
+            line.setLength(0);
+            line.append("<<").append(label).append(">>  : <<").append(result.channelId()).append(">>  : {");
+            for (int k = 0; k < speakerCount; k++) {
+                line.append(k == 0 ? "" : ", ").append(SPEAKER_PREFIX).append(speakers.get(k))
+                        .append('=').append(speakerWords.get(k));
+            }
+            LOG.info(line.append('}').toString());
+        }
+        if (session != null && session.isOpen()) {
+            Map<String, String> bySpeaker = new LinkedHashMap<>();
+            for (int k = 0; k < speakerCount; k++) {
+                bySpeaker.put(SPEAKER_PREFIX + speakers.get(k), speakerWords.get(k).toString());
+            }
+            session.write(result.channelId(), result.resultId(), time(result.startTime()), time(result.endTime()),
+                    alternative.transcript(), bySpeaker);
+        }
     }
 
-    public String speaker(Item item) {
-        return "speaker_" + item.speaker();
+    /**
+     * Gathers the words of each speaker, in order of their first word, into the first {@link #speakerCount}
+     * entries of {@link #speakers} and {@link #speakerWords}. Results have a handful of speakers, so a linear
+     * search beats a map.
+     */
+    private void groupBySpeaker(List<Item> items) {
+        speakerCount = 0;
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            String speaker = item.speaker();
+            int k = 0;
+            while (k < speakerCount && !Objects.equals(speakers.get(k), speaker)) {
+                k++;
+            }
+            StringBuilder words;
+            if (k == speakerCount) {
+                if (k == speakers.size()) {
+                    speakers.add(speaker);
+                    speakerWords.add(new StringBuilder(128));
+                } else {
+                    speakers.set(k, speaker);
+                }
+                words = speakerWords.get(k);
+                words.setLength(0);
+                speakerCount++;
+            } else {
+                words = speakerWords.get(k).append(' ');
+            }
+            words.append(item.content());
+        }
     }
 
+    private static double time(Double seconds) {
+        return seconds == null ? 0 : seconds;
+    }
 
     @Override
     public void onResponse(StartStreamTranscriptionResponse r) {
@@ -83,7 +153,6 @@ public class StreamTranscriptionBehaviorImpl implements StreamTranscriptionBehav
 
     @Override
     public void onComplete() {
-        print(String.valueOf(finalResult));
         print("=== All records streamed successfully ===");
     }
 }
@@ -0,0 +1,55 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor shared by every audio stream subscription. Sessions do not own a thread: each subscription
+ * serializes its own work on this pool (see {@link ByteToAudioEventSubscription}), so the number of threads
+ * is bounded by {@code transcription.executor.threads} whatever the number of concurrent streams.
+ */
+@Configuration
+public class StreamingExecutorConfiguration {
+
+    /**
+     * @param threads pool size; 0 or less sizes the pool at twice the number of processors, since reads from
+     *                files and S3 block the thread while they run
+     */
+    @Bean(name = "transcriptionExecutorService", destroyMethod = "shutdown")
+    public ExecutorService getExecutorService(@Value("${transcription.executor.threads:0}") int threads) {
+        int poolSize = threads > 0 ? threads : 2 * Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads("transcription-"));
+    }
+
+    /**
+     * Runs the background reads of {@link ReadAheadInputStream}. A stream only holds a thread while a read from
+     * its source is in progress, so a bounded pool serves all open streams; reads queue when every thread is busy.
+     *
+     * @param threads pool size; 0 or less sizes the pool at four times the number of processors, since the
+     *                reads block on the network
+     */
+    @Bean(name = "readAheadExecutorService", destroyMethod = "shutdownNow")
+    public ExecutorService getReadAheadExecutorService(@Value("${readAhead.executor.threads:0}") int threads) {
+        int poolSize = threads > 0 ? threads : 4 * Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads("read-ahead-"));
+    }
+
+    static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
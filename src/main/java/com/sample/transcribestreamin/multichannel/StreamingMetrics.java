@@ -0,0 +1,217 @@
+package com.sample.transcribestreamin.multichannel;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponse;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Meters of the streaming pipeline, registered with the Micrometer registry of the application, which Spring
+ * Boot actuator exposes through its {@code metrics} endpoint.
+ * <p>
+ * Counters cover all sessions together; per session figures (audio sent, real-time factor, time to first
+ * result) are recorded as distributions when the session ends, so the number of meters does not grow with
+ * the number of sessions. Retries are counted by exception class through {@link RetryListener}, and the
+ * transcription executor is bound with the standard executor metrics ({@code executor.queued},
+ * {@code executor.active}, ...).
+ */
+@Component
+public class StreamingMetrics implements RetryListener {
+    private final MeterRegistry registry;
+    private final Counter bytesSent;
+    private final Counter chunksSent;
+    private final Timer sendLatency;
+    private final Timer firstResult;
+    private final Timer sessionDuration;
+    private final DistributionSummary sessionBytes;
+    private final DistributionSummary sessionChunks;
+    private final DistributionSummary realTimeFactor;
+    private final DistributionSummary compression;
+    private final Timer partialLatency;
+    private final Timer finalLatency;
+
+    @Autowired
+    public StreamingMetrics(MeterRegistry registry,
+                            @Qualifier("transcriptionExecutorService") ExecutorService transcriptionExecutor) {
+        this.registry = registry;
+        this.bytesSent = Counter.builder("transcribe.audio.sent")
+                .description("Audio bytes sent to Transcribe by all sessions")
+                .baseUnit("bytes")
+                .register(registry);
+        this.chunksSent = Counter.builder("transcribe.audio.chunks")
+                .description("Audio events sent to Transcribe by all sessions")
+                .register(registry);
+        this.sendLatency = Timer.builder("transcribe.audio.send")
+                .description("Time the SDK subscriber takes to accept one audio event (onNext)")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.firstResult = Timer.builder("transcribe.session.first.result")
+                .description("Time from the start of a session to its first transcript result")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.sessionDuration = Timer.builder("transcribe.session.duration")
+                .description("Time from the start of a session to its end, retries included")
+                .register(registry);
+        this.sessionBytes = DistributionSummary.builder("transcribe.session.audio.sent")
+                .description("Audio bytes sent per session")
+                .baseUnit("bytes")
+                .register(registry);
+        this.sessionChunks = DistributionSummary.builder("transcribe.session.audio.chunks")
+                .description("Audio events sent per session")
+                .register(registry);
+        this.realTimeFactor = DistributionSummary.builder("transcribe.session.realtime.factor")
+                .description("Seconds of audio sent per second of session; 1 is real time")
+                .register(registry);
+        this.compression = DistributionSummary.builder("transcribe.session.compression")
+                .description("PCM bytes per byte sent, for sessions that encode their audio")
+                .register(registry);
+        this.partialLatency = resultLatencyTimer("partial", registry);
+        this.finalLatency = resultLatencyTimer("final", registry);
+        new ExecutorServiceMetrics(transcriptionExecutor, "transcription", Tags.empty()).bindTo(registry);
+    }
+
+    private static Timer resultLatencyTimer(String type, MeterRegistry registry) {
+        return Timer.builder("transcribe.result.latency")
+                .description("Time from sending the audio at the end of a result to receiving the result")
+                .tag("type", type)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * @return aggregate end-to-end latency of partial or final results, see {@link ResultLatencyTracker}
+     */
+    public Timer resultLatency(boolean isFinal) {
+        return isFinal ? finalLatency : partialLatency;
+    }
+
+    /**
+     * @param request request of the session, for the audio format
+     */
+    public SessionMeter newSession(StartStreamTranscriptionRequest request) {
+        return new SessionMeter(AudioPacer.bytesPerSecond(request));
+    }
+
+    @Override
+    public void onRetry(Throwable cause, int attempt) {
+        registry.counter("transcribe.retries", "exception", cause.getClass().getSimpleName()).increment();
+    }
+
+    /**
+     * Meters of one session. Chunks are counted by the drain of its subscription, which runs on one thread at a
+     * time, and the session is started and ended once.
+     */
+    public final class SessionMeter {
+        private final long bytesPerSecond;
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong chunks = new AtomicLong();
+        private final AtomicLong pcmBytes = new AtomicLong();
+        private volatile long startedAt;
+        private volatile boolean resultSeen;
+
+        private SessionMeter(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        /**
+         * Called when the session is admitted and its first attempt starts.
+         */
+        public void start() {
+            startedAt = System.nanoTime();
+        }
+
+        /**
+         * @param length       bytes of audio in the event
+         * @param onNextNanos time the subscriber took to accept it
+         */
+        void sent(int length, long onNextNanos) {
+            bytes.addAndGet(length);
+            chunks.incrementAndGet();
+            bytesSent.increment(length);
+            chunksSent.increment();
+            sendLatency.record(onNextNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Called by an encoding stage for the PCM behind the bytes it sends.
+         *
+         * @param pcmLength bytes of PCM encoded
+         */
+        void encoded(int pcmLength) {
+            pcmBytes.addAndGet(pcmLength);
+        }
+
+        private void onEvent(TranscriptResultStream event) {
+            if (!resultSeen && startedAt != 0 && event instanceof TranscriptEvent
+                    && !((TranscriptEvent) event).transcript().results().isEmpty()) {
+                resultSeen = true;
+                firstResult.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Records the per session distributions once the session has ended, after its last retry.
+         */
+        public void end(Throwable failure) {
+            registry.counter("transcribe.sessions", "outcome", failure == null ? "success"
+                    : TranscribeStreamingRetryClient.unwrap(failure).getClass().getSimpleName()).increment();
+            if (startedAt == 0) {
+                return; // never admitted
+            }
+            long nanos = System.nanoTime() - startedAt;
+            sessionDuration.record(nanos, TimeUnit.NANOSECONDS);
+            sessionBytes.record(bytes.get());
+            sessionChunks.record(chunks.get());
+            // Audio is measured as PCM; the bytes sent are fewer when the session encodes it.
+            long audioBytes = pcmBytes.get() > 0 ? pcmBytes.get() : bytes.get();
+            if (pcmBytes.get() > 0 && bytes.get() > 0) {
+                compression.record((double) pcmBytes.get() / bytes.get());
+            }
+            if (bytesPerSecond > 0 && nanos > 0) {
+                double audioSeconds = (double) audioBytes / bytesPerSecond;
+                realTimeFactor.record(audioSeconds / (nanos / 1e9));
+            }
+        }
+
+        /**
+         * Wraps the behavior of the session to time its first result.
+         */
+        public StreamTranscriptionBehavior observe(StreamTranscriptionBehavior delegate) {
+            return new StreamTranscriptionBehavior() {
+                @Override
+                public void onError(Throwable e) {
+                    delegate.onError(e);
+                }
+
+                @Override
+                public void onStream(TranscriptResultStream e) {
+                    onEvent(e);
+                    delegate.onStream(e);
+                }
+
+                @Override
+                public void onResponse(StartStreamTranscriptionResponse r) {
+                    delegate.onResponse(r);
+                }
+
+                @Override
+                public void onComplete() {
+                    delegate.onComplete();
+                }
+            };
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package com.sample.transcribestreamin.multichannel;
 
+import software.amazon.awssdk.services.transcribestreaming.model.LanguageCode;
+import software.amazon.awssdk.services.transcribestreaming.model.MediaEncoding;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
 import javax.sound.sampled.*;
 import java.io.File;
 import java.io.FileInputStream;
@@ -38,5 +42,20 @@ public class TranscribeHelper {
         return getStreamFromFile(new File(audioFile));
     }
 
+    /**
+     * Request for 16 bit PCM audio. Channel identification is enabled when there is more than one channel.
+     */
+    public static StartStreamTranscriptionRequest getPcmRequest(int sampleRate, int channels) {
+        StartStreamTranscriptionRequest.Builder builder = StartStreamTranscriptionRequest.builder()
+                .languageCode(LanguageCode.EN_US.toString())
+                .mediaEncoding(MediaEncoding.PCM)
+                .mediaSampleRateHertz(sampleRate)
+                .showSpeakerLabel(Boolean.TRUE);
+        if (channels > 1) {
+            builder.enableChannelIdentification(true).numberOfChannels(channels);
+        }
+        return builder.build();
+    }
+
 
 }
@@ -23,20 +23,45 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
 import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
 import software.amazon.awssdk.services.transcribestreaming.model.BadRequestException;
+import software.amazon.awssdk.services.transcribestreaming.model.ConflictException;
+import software.amazon.awssdk.services.transcribestreaming.model.InternalFailureException;
+import software.amazon.awssdk.services.transcribestreaming.model.LimitExceededException;
+import software.amazon.awssdk.services.transcribestreaming.model.ServiceUnavailableException;
 import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
 import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponseHandler;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
  * This class wraps the AWS SDK implementation of the AWS Transcribe API with some retry logic to handle common
  * error cases, such as flaky network connections.
+ * <p>
+ * Retries are scheduled on a timer rather than slept on the SDK completion thread. The delay before attempt n is
+ * drawn uniformly from [0, min(maxSleepTime, sleepTime * 2^n)] (exponential backoff with full jitter), so sessions
+ * that fail together do not retry in lockstep. A retry budget shared by all sessions bounds the retry rate; once
+ * it is spent, failures are reported instead of retried. Cancelling the returned future aborts the attempt in
+ * progress and schedules no more.
  */
 @Component
 public class TranscribeStreamingRetryClient {
@@ -44,13 +69,21 @@ public class TranscribeStreamingRetryClient {
 
     private static final int DEFAULT_MAX_RETRIES = 10;
     private static final int DEFAULT_MAX_SLEEP_TIME_MILLS = 100;
-    List<Class<?>> nonRetriableExceptions = List.of(BadRequestException.class);
+    private static final int DEFAULT_MAX_BACKOFF_MILLS = 5000;
+    List<Class<?>> nonRetriableExceptions = List.of(BadRequestException.class, ConflictException.class);
     @Value("${maxRetries:10}")
     private int maxRetries = DEFAULT_MAX_RETRIES;
     @Value("${sleepTime:100}")
     private int sleepTime = DEFAULT_MAX_SLEEP_TIME_MILLS;
+    @Value("${maxSleepTime:5000}")
+    private int maxSleepTime = DEFAULT_MAX_BACKOFF_MILLS;
     @Autowired
     private TranscribeStreamingAsyncClient client;
+    private final ScheduledExecutorService retryScheduler =
+            Executors.newSingleThreadScheduledExecutor(StreamingExecutorConfiguration.daemonThreads("transcribe-retry-"));
+    private RetryBudget retryBudget = new RetryBudget(10, 50);
+    @Autowired(required = false)
+    private List<RetryListener> retryListeners = List.of();
 
     public TranscribeStreamingRetryClient() {
 
@@ -101,6 +134,36 @@ public class TranscribeStreamingRetryClient {
         this.sleepTime = sleepTime;
     }
 
+    /**
+     * Get the cap on the delay before a single retry
+     *
+     * @return maximum sleep time between retries
+     */
+    public int getMaxSleepTime() {
+        return maxSleepTime;
+    }
+
+    /**
+     * Set the cap on the delay before a single retry
+     *
+     * @param maxSleepTime maximum sleep time
+     */
+    public void setMaxSleepTime(int maxSleepTime) {
+        this.maxSleepTime = maxSleepTime;
+    }
+
+    /**
+     * Set the retry budget shared by all sessions
+     *
+     * @param retriesPerSecond sustained retries per second
+     * @param burst            retries allowed in a burst
+     */
+    @Autowired
+    public void setRetryBudget(@Value("${retryBudget.perSecond:10}") double retriesPerSecond,
+                               @Value("${retryBudget.burst:50}") int burst) {
+        this.retryBudget = new RetryBudget(retriesPerSecond, burst);
+    }
+
     /**
      * Initiate a Stream Transcription with retry.
      *
@@ -115,8 +178,15 @@ public class TranscribeStreamingRetryClient {
                                                             final StreamTranscriptionBehavior responseHandler) {
 
         CompletableFuture<Void> finalFuture = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<Void>> attempt = new AtomicReference<>();
+        finalFuture.whenComplete((r, e) -> {
+            CompletableFuture<Void> current = attempt.get();
+            if (finalFuture.isCancelled() && current != null) {
+                current.cancel(true);
+            }
+        });
 
-        recursiveStartStream(rebuildRequestWithSession(request), publisher, responseHandler, finalFuture, 0);
+        recursiveStartStream(rebuildRequestWithSession(request), publisher, responseHandler, finalFuture, attempt, 0);
 
         return finalFuture;
     }
@@ -128,28 +198,52 @@ public class TranscribeStreamingRetryClient {
      * @param publisher       The source audio stream as Publisher
      * @param responseHandler StreamTranscriptionBehavior object that defines how the response needs to be handled.
      * @param finalFuture     final future to finish on completing the chained futures.
+     * @param attempt         the attempt in progress, cancelled if finalFuture is
      * @param retryAttempt    Current attempt number
      */
     private void recursiveStartStream(final StartStreamTranscriptionRequest request,
                                       final Publisher<AudioStream> publisher,
                                       final StreamTranscriptionBehavior responseHandler,
                                       final CompletableFuture<Void> finalFuture,
+                                      final AtomicReference<CompletableFuture<Void>> attempt,
                                       final int retryAttempt) {
-        CompletableFuture<Void> result = client.startStreamTranscription(request, publisher,
-                getResponseHandler(responseHandler));
+        if (finalFuture.isDone()) {
+            return; // cancelled during the backoff
+        }
+        CompletableFuture<Void> result;
+        try {
+            responseHandler.onAttempt(retryAttempt);
+            result = client.startStreamTranscription(request, publisher, getResponseHandler(responseHandler));
+        } catch (RuntimeException e) {
+            // Retries run on the timer thread, where a thrown exception would leave finalFuture incomplete.
+            result = CompletableFuture.failedFuture(e);
+        }
+        attempt.set(result);
+        if (finalFuture.isCancelled()) {
+            // Cancelled after the check above, before the hook could see this attempt.
+            result.cancel(true);
+        }
         result.whenComplete((r, e) -> {
+            if (finalFuture.isCancelled()) {
+                return;
+            }
             if (e != null) {
 
-                if (retryAttempt <= maxRetries && isExceptionRetriable(e)) {
-                    LOG.info("Retry attempt:" + (retryAttempt + 1));
-
+                if (retryAttempt < maxRetries && isExceptionRetriable(e) && retryBudget.tryAcquire()) {
+                    long delay = backoffMillis(retryAttempt);
+                    LOG.warn("Retry attempt:{} in {} ms after {}", retryAttempt + 1, delay, describe(e));
+                    notifyRetry(e, retryAttempt + 1);
                     try {
-                        Thread.sleep(sleepTime);
-                    } catch (InterruptedException e1) {
-                        e1.printStackTrace();
+                        retryScheduler.schedule(
+                                () -> recursiveStartStream(request, publisher, responseHandler, finalFuture, attempt,
+                                        retryAttempt + 1),
+                                delay, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException rejected) {
+                        responseHandler.onError(e);
+                        finalFuture.completeExceptionally(e);
                     }
-                    recursiveStartStream(request, publisher, responseHandler, finalFuture, retryAttempt + 1);
                 } else {
+                    LOG.warn("Not retrying after attempt:{} :{}", retryAttempt + 1, describe(e));
                     responseHandler.onError(e);
                     finalFuture.completeExceptionally(e);
                 }
@@ -188,19 +282,97 @@ public class TranscribeStreamingRetryClient {
         return build;
     }
 
+    private void notifyRetry(Throwable e, int attempt) {
+        Throwable cause = unwrap(e);
+        for (RetryListener listener : retryListeners) {
+            try {
+                listener.onRetry(cause, attempt);
+            } catch (RuntimeException listenerFailure) {
+                LOG.warn("Retry listener failed", listenerFailure);
+            }
+        }
+    }
+
+    /**
+     * Delay before the retry following {@code retryAttempt}: exponential backoff with full jitter.
+     */
+    long backoffMillis(int retryAttempt) {
+        long ceiling = Math.min(maxSleepTime, (long) sleepTime << Math.min(retryAttempt, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
     /**
-     * Check if the exception is retriable or not.
+     * Check if the exception is retriable or not, from its type and the status code the service returned.
+     * Throttling, service side (5xx) and client side I/O failures are retried; invalid requests are not. Other
+     * SDK client side failures, such as missing credentials or a bad configuration, fail the same way on a retry.
+     * Exceptions from outside the SDK are retried, as they always have been, unless they are an {@link Error}.
      *
      * @param e Exception that occurred
      * @return True if the exception is retriable
      */
-    private boolean isExceptionRetriable(Throwable e) {
-        e.printStackTrace();
-        return !nonRetriableExceptions.contains(e.getClass());
+    boolean isExceptionRetriable(Throwable e) {
+        Throwable cause = unwrap(e);
+        for (Class<?> nonRetriable : nonRetriableExceptions) {
+            if (nonRetriable.isInstance(cause)) {
+                return false;
+            }
+        }
+        if (cause instanceof LimitExceededException
+                || cause instanceof InternalFailureException
+                || cause instanceof ServiceUnavailableException) {
+            return true;
+        }
+        if (cause instanceof SdkServiceException) {
+            SdkServiceException serviceException = (SdkServiceException) cause;
+            return serviceException.isThrottlingException()
+                    || serviceException.statusCode() >= 500
+                    || serviceException.isRetryableException();
+        }
+        if (cause instanceof SdkClientException) {
+            return cause instanceof ApiCallAttemptTimeoutException
+                    || ((SdkClientException) cause).retryable()
+                    || hasIoCause(cause);
+        }
+        if (cause instanceof SdkException) {
+            return ((SdkException) cause).retryable();
+        }
+        return !(cause instanceof Error);
     }
 
+    /**
+     * @return true if the exception or one of its causes is an I/O failure, such as a refused or dropped connection
+     */
+    private static boolean hasIoCause(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Throwable unwrap(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static String describe(Throwable e) {
+        Throwable cause = unwrap(e);
+        if (cause instanceof AwsServiceException && ((AwsServiceException) cause).awsErrorDetails() != null) {
+            return cause.getClass().getSimpleName() + "(" + ((AwsServiceException) cause).awsErrorDetails().errorCode() + "): " + cause.getMessage();
+        }
+        return cause.getClass().getSimpleName() + ": " + cause.getMessage();
+    }
+
+    /**
+     * Stops scheduling retries. The streaming client is a bean of the application and is closed by it.
+     */
+    @PreDestroy
     public void close() {
-        this.client.close();
+        this.retryScheduler.shutdownNow();
     }
 
 
@@ -0,0 +1,87 @@
+package com.sample.transcribestreamin.multichannel;
+
+import software.amazon.awssdk.services.transcribestreaming.model.Item;
+
+import java.util.List;
+
+/**
+ * A change to the hypothesis of one speaker in the result open on a channel: drop the last {@link #removed()} words
+ * of that speaker, then append {@link #added()}. Applied in order, the deltas of a result and speaker rebuild the
+ * speaker's current words; once {@link #isFinal()} they are the speaker's words in the final result. Words of
+ * different speakers are ordered by their start time.
+ * <p>
+ * The first {@link #stableWords()} words of the hypothesis are stable: partial results never remove them, only
+ * the final result can, when it disagrees with them.
+ */
+public final class TranscriptDelta {
+    private final String session;
+    private final String channel;
+    private final String resultId;
+    private final String speaker;
+    private final int removed;
+    private final List<Item> added;
+    private final int stableWords;
+    private final boolean isFinal;
+
+    TranscriptDelta(String session, String channel, String resultId, String speaker, int removed, List<Item> added,
+                    int stableWords, boolean isFinal) {
+        this.session = session;
+        this.channel = channel;
+        this.resultId = resultId;
+        this.speaker = speaker;
+        this.removed = removed;
+        this.added = added;
+        this.stableWords = stableWords;
+        this.isFinal = isFinal;
+    }
+
+    /**
+     * @return id of the session, as in {@link TranscriptRecord#session()}
+     */
+    public String session() {
+        return session;
+    }
+
+    public String channel() {
+        return channel;
+    }
+
+    public String resultId() {
+        return resultId;
+    }
+
+    /**
+     * @return speaker label of the words, null for words without one
+     */
+    public String speaker() {
+        return speaker;
+    }
+
+    /**
+     * @return number of words to drop from the end of the hypothesis before appending
+     */
+    public int removed() {
+        return removed;
+    }
+
+    /**
+     * @return words to append
+     */
+    public List<Item> added() {
+        return added;
+    }
+
+    /**
+     * @return number of words at the start of the hypothesis that will not change before the final result
+     */
+    public int stableWords() {
+        return stableWords;
+    }
+
+    /**
+     * @return true if the result is closed and no more deltas will follow for it
+     */
+    public boolean isFinal() {
+        return isFinal;
+    }
+}
@@ -0,0 +1,12 @@
+package com.sample.transcribestreamin.multichannel;
+
+/**
+ * Receives the changes to partial results of every session, see {@link PartialResultStabilizer}. Listeners are
+ * Spring beans; partial results are only tracked when there is at least one.
+ * <p>
+ * Called on the thread delivering transcription events, one session at a time; implementations must hand the
+ * delta off rather than block.
+ */
+public interface TranscriptDeltaListener {
+    void onDelta(TranscriptDelta delta);
+}
@@ -0,0 +1,73 @@
+package com.sample.transcribestreamin.multichannel;
+
+import com.google.gson.Gson;
+
+import java.util.Map;
+
+/**
+ * One final result of a session, as written to a {@link TranscriptSink}.
+ */
+public final class TranscriptRecord {
+    private static final Gson GSON = new Gson();
+    private final String session;
+    private final String channel;
+    private final String resultId;
+    private final double startTime;
+    private final double endTime;
+    private final String transcript;
+    private final Map<String, String> speakers;
+
+    /**
+     * @param session    id of the session, see {@link AsyncTranscriptWriter.Session#id()}
+     * @param channel    channel id of the result, null without channel identification
+     * @param startTime  start of the result in seconds from the start of the stream
+     * @param endTime    end of the result in seconds from the start of the stream
+     * @param transcript text of the best alternative
+     * @param speakers   words of the best alternative by speaker label, in order of first appearance
+     */
+    public TranscriptRecord(String session, String channel, String resultId, double startTime, double endTime,
+                            String transcript, Map<String, String> speakers) {
+        this.session = session;
+        this.channel = channel;
+        this.resultId = resultId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.transcript = transcript;
+        this.speakers = speakers;
+    }
+
+    public String session() {
+        return session;
+    }
+
+    public String channel() {
+        return channel;
+    }
+
+    public String resultId() {
+        return resultId;
+    }
+
+    public double startTime() {
+        return startTime;
+    }
+
+    public double endTime() {
+        return endTime;
+    }
+
+    public String transcript() {
+        return transcript;
+    }
+
+    public Map<String, String> speakers() {
+        return speakers;
+    }
+
+    /**
+     * @return the record as one line of JSON, without the line terminator
+     */
+    public String toJson() {
+        return GSON.toJson(this);
+    }
+}
@@ -0,0 +1,31 @@
+package com.sample.transcribestreamin.multichannel;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination for the final results of transcription sessions. Sinks are Spring beans; every sink in the context
+ * receives every record through {@link AsyncTranscriptWriter}.
+ * <p>
+ * All methods are called from the single writer thread, never from the thread delivering transcription events,
+ * so a sink may block on I/O and does not need to be thread safe.
+ */
+public interface TranscriptSink {
+    /**
+     * Writes a batch of records, possibly of several sessions, in the order they were produced.
+     */
+    void write(List<TranscriptRecord> records) throws IOException;
+
+    /**
+     * Called once a session has ended, after all of its records have been written.
+     *
+     * @param session id of the session
+     */
+    default void endSession(String session) throws IOException {
+    }
+
+    /**
+     * Flushes and releases everything the sink holds. Called once, when the application stops.
+     */
+    void close() throws IOException;
+}
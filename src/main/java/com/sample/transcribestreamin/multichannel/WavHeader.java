@@ -0,0 +1,179 @@
+package com.sample.transcribestreamin.multichannel;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Format and data location read from the header of a RIFF/WAV file. Only PCM data (format 1, or
+ * WAVE_FORMAT_EXTENSIBLE with a PCM sub format) is accepted.
+ */
+public class WavHeader {
+    private static final int RIFF = 0x46464952; // "RIFF" read little endian
+    private static final int WAVE = 0x45564157; // "WAVE"
+    private static final int FMT = 0x20746d66;  // "fmt "
+    private static final int DATA = 0x61746164; // "data"
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+    private static final long UNKNOWN_SIZE = 0xFFFFFFFFL;
+
+    private final int channels;
+    private final int sampleRate;
+    private final int bitsPerSample;
+    private final int blockAlign;
+    private final long dataOffset;
+    private final long dataLength;
+
+    private WavHeader(ByteBuffer fmt, long dataOffset, long dataLength) {
+        int format = fmt.getShort(0) & 0xffff;
+        if (format == FORMAT_EXTENSIBLE && fmt.limit() >= 26) {
+            format = fmt.getShort(24) & 0xffff; // first two bytes of the sub format GUID
+        }
+        if (format != FORMAT_PCM) {
+            throw new IllegalArgumentException("Only PCM WAV data is supported, format: " + format);
+        }
+        this.channels = fmt.getShort(2) & 0xffff;
+        this.sampleRate = fmt.getInt(4);
+        this.blockAlign = fmt.getShort(12) & 0xffff;
+        this.bitsPerSample = fmt.getShort(14) & 0xffff;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Parses the header at the start of {@code file}. The buffer's position is not changed.
+     *
+     * @return the header, or null if the buffer does not start with a RIFF/WAVE header
+     */
+    public static WavHeader parse(ByteBuffer file) {
+        ByteBuffer buffer = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = buffer.position();
+        if (buffer.remaining() < 12 || buffer.getInt(start) != RIFF || buffer.getInt(start + 8) != WAVE) {
+            return null;
+        }
+        ByteBuffer fmt = null;
+        int position = start + 12;
+        while (position + 8 <= buffer.limit()) {
+            int id = buffer.getInt(position);
+            long size = buffer.getInt(position + 4) & 0xffffffffL;
+            int body = position + 8;
+            if (id == DATA) {
+                return header(fmt, body - start, size);
+            }
+            if (id == FMT) {
+                fmt = buffer.duplicate().position(body).limit((int) Math.min(buffer.limit(), body + size)).slice()
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+            position = (int) Math.min(Integer.MAX_VALUE, body + size + (size & 1));
+        }
+        throw new IllegalArgumentException("WAV header has no data chunk");
+    }
+
+    /**
+     * Reads the header from the start of {@code in} and leaves the stream at the first byte of audio data.
+     * If the stream does not start with a RIFF/WAVE header and supports mark, it is reset to where it started.
+     *
+     * @return the header, or null if the stream does not start with a RIFF/WAVE header
+     */
+    public static WavHeader read(InputStream in) throws IOException {
+        if (in.markSupported()) {
+            in.mark(12);
+        }
+        ByteBuffer riff = ByteBuffer.wrap(readFully(in, 12)).order(ByteOrder.LITTLE_ENDIAN);
+        if (riff.getInt(0) != RIFF || riff.getInt(8) != WAVE) {
+            if (in.markSupported()) {
+                in.reset();
+            }
+            return null;
+        }
+        ByteBuffer fmt = null;
+        long position = 12;
+        while (true) {
+            ByteBuffer chunk = ByteBuffer.wrap(readFully(in, 8)).order(ByteOrder.LITTLE_ENDIAN);
+            int id = chunk.getInt(0);
+            long size = chunk.getInt(4) & 0xffffffffL;
+            position += 8;
+            if (id == DATA) {
+                return header(fmt, position, size);
+            }
+            long padded = size + (size & 1);
+            if (id == FMT) {
+                fmt = ByteBuffer.wrap(readFully(in, (int) padded)).order(ByteOrder.LITTLE_ENDIAN);
+            } else {
+                skipFully(in, padded);
+            }
+            position += padded;
+        }
+    }
+
+    private static WavHeader header(ByteBuffer fmt, long dataOffset, long size) {
+        if (fmt == null || fmt.limit() < 16) {
+            throw new IllegalArgumentException("WAV header has no fmt chunk before the data chunk");
+        }
+        // Writers that stream WAV files leave the size unset.
+        long dataLength = size == UNKNOWN_SIZE || size == 0 ? -1 : size;
+        return new WavHeader(fmt, dataOffset, dataLength);
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("Truncated WAV header");
+        }
+        return bytes;
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Truncated WAV header");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    public int bitsPerSample() {
+        return bitsPerSample;
+    }
+
+    /**
+     * @return bytes per frame, one sample of every channel
+     */
+    public int blockAlign() {
+        return blockAlign;
+    }
+
+    /**
+     * @return offset of the first byte of audio data from the start of the file
+     */
+    public long dataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * @return length of the audio data in bytes, or -1 if the header does not say and the data runs to the end
+     */
+    public long dataLength() {
+        return dataLength;
+    }
+
+    @Override
+    public String toString() {
+        return "WavHeader{channels=" + channels + ", sampleRate=" + sampleRate + ", bitsPerSample=" + bitsPerSample
+                + ", dataOffset=" + dataOffset + ", dataLength=" + dataLength + "}";
+    }
+}
@@ -0,0 +1,250 @@
+package com.sample.transcribestreamin.file.s3event;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory S3 for load tests: objects are byte arrays kept by reference, served by a synchronous and an
+ * asynchronous client through GetObject only. Range GETs and If-Match behave as in S3 (206 with Content-Range,
+ * 416 past the end, 412 on an ETag mismatch). Each GET waits {@code firstByteMillis} before its body starts, on a
+ * timer thread for the asynchronous client. The time of the first GET of each key is kept, to measure how long an
+ * object waited between its upload and its transcription.
+ */
+public class LocalS3 {
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+    private final Map<String, Long> firstReads = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final AtomicLong gets = new AtomicLong();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "local-s3");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long firstByteMillis;
+    private final S3Client syncClient = new SyncClient();
+    private final S3AsyncClient asyncClient = new AsyncClient();
+
+    /**
+     * @param firstByteMillis latency of every GET before its body starts
+     */
+    public LocalS3(long firstByteMillis) {
+        this.firstByteMillis = firstByteMillis;
+    }
+
+    public void put(String bucket, String key, byte[] content) {
+        objects.put(bucket + "/" + key, new StoredObject(content, "\"" + versions.incrementAndGet() + "\""));
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of the first GET of the object, or 0 if it has not been read
+     */
+    public long firstReadAt(String bucket, String key) {
+        return firstReads.getOrDefault(bucket + "/" + key, 0L);
+    }
+
+    public long gets() {
+        return gets.get();
+    }
+
+    public S3Client syncClient() {
+        return syncClient;
+    }
+
+    public S3AsyncClient asyncClient() {
+        return asyncClient;
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private final class SyncClient implements S3Client {
+        @Override
+        public <ReturnT> ReturnT getObject(GetObjectRequest request,
+                                           ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+            sleep(firstByteMillis);
+            Slice slice = slice(request);
+            try {
+                return transformer.transform(slice.response, AbortableInputStream.create(
+                        new ByteArrayInputStream(slice.content, slice.offset, slice.length)));
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final class AsyncClient implements S3AsyncClient {
+        @Override
+        public <ReturnT> CompletableFuture<ReturnT> getObject(GetObjectRequest request,
+                                                              AsyncResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+            CompletableFuture<ReturnT> result = transformer.prepare();
+            timer.schedule(() -> {
+                Slice slice;
+                try {
+                    slice = slice(request);
+                } catch (S3Exception e) {
+                    transformer.exceptionOccurred(e);
+                    result.completeExceptionally(e);
+                    return;
+                }
+                transformer.onResponse(slice.response);
+                transformer.onStream(new BodyPublisher(slice));
+            }, firstByteMillis, TimeUnit.MILLISECONDS);
+            return result;
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private Slice slice(GetObjectRequest request) {
+        gets.incrementAndGet();
+        String path = request.bucket() + "/" + request.key();
+        StoredObject object = objects.get(path);
+        if (object == null) {
+            throw NoSuchKeyException.builder().statusCode(404).message("No such key: " + path).build();
+        }
+        firstReads.putIfAbsent(path, System.nanoTime());
+        if (request.ifMatch() != null && !request.ifMatch().equals(object.eTag)) {
+            throw S3Exception.builder().statusCode(412).message("Precondition failed: " + path).build();
+        }
+        int size = object.content.length;
+        GetObjectResponse.Builder response = GetObjectResponse.builder().eTag(object.eTag).contentType("audio/wav");
+        if (request.range() == null) {
+            return new Slice(object.content, 0, size, response.contentLength((long) size).build());
+        }
+        // bytes=first-last, the only form the listener sends
+        String[] bounds = request.range().substring("bytes=".length()).split("-");
+        long first = Long.parseLong(bounds[0]);
+        long last = bounds.length > 1 && !bounds[1].isEmpty() ? Long.parseLong(bounds[1]) : size - 1;
+        if (first >= size) {
+            throw S3Exception.builder().statusCode(416).message("Range not satisfiable: " + path).build();
+        }
+        last = Math.min(last, size - 1);
+        int length = (int) (last - first + 1);
+        return new Slice(object.content, (int) first, length, response
+                .contentLength((long) length)
+                .contentRange("bytes " + first + "-" + last + "/" + size)
+                .build());
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class StoredObject {
+        private final byte[] content;
+        private final String eTag;
+
+        private StoredObject(byte[] content, String eTag) {
+            this.content = content;
+            this.eTag = eTag;
+        }
+    }
+
+    private static final class Slice {
+        private final byte[] content;
+        private final int offset;
+        private final int length;
+        private final GetObjectResponse response;
+
+        private Slice(byte[] content, int offset, int length, GetObjectResponse response) {
+            this.content = content;
+            this.offset = offset;
+            this.length = length;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Body of a GET as read-only chunks of the stored array, sent on the caller's thread against demand.
+     */
+    private static final class BodyPublisher implements SdkPublisher<ByteBuffer> {
+        private final Slice slice;
+
+        private BodyPublisher(Slice slice) {
+            this.slice = slice;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                private int position;
+                private long demand;
+                private boolean emitting;
+                private boolean done;
+
+                @Override
+                public void request(long n) {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    if (emitting) {
+                        return; // requested from onNext; the loop below picks it up
+                    }
+                    emitting = true;
+                    while (!done && demand > 0 && position < slice.length) {
+                        int length = Math.min(CHUNK_BYTES, slice.length - position);
+                        ByteBuffer chunk = ByteBuffer.wrap(slice.content, slice.offset + position, length).slice().asReadOnlyBuffer();
+                        position += length;
+                        demand--;
+                        subscriber.onNext(chunk);
+                    }
+                    if (!done && position == slice.length) {
+                        done = true;
+                        subscriber.onComplete();
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public void cancel() {
+                    done = true;
+                }
+            });
+        }
+    }
+}
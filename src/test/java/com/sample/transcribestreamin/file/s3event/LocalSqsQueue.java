@@ -0,0 +1,224 @@
+package com.sample.transcribestreamin.file.s3event;
+
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory standard SQS queue for load tests. Any queue URL maps to this one queue.
+ * <p>
+ * Received messages are hidden for their visibility timeout and come back if they are not deleted in time, as in
+ * SQS; every receive gives a new receipt handle, and only the latest one deletes the message or changes its
+ * visibility. Long polls wait on the queue and end early when the polling thread is interrupted, with the
+ * {@link AbortedException} the SDK throws. Each message keeps when it was sent, first received and deleted, so
+ * queue lag and time to completion can be read after a run.
+ */
+public class LocalSqsQueue implements SqsClient {
+    private final ArrayDeque<Entry> visible = new ArrayDeque<>();
+    private final Map<String, Entry> hidden = new HashMap<>();
+    private final Map<String, Entry> messages = new HashMap<>();
+    private long redeliveries;
+    private long deleted;
+
+    @Override
+    public synchronized SendMessageResponse sendMessage(SendMessageRequest request) {
+        Entry entry = new Entry(UUID.randomUUID().toString(), request.messageBody());
+        messages.put(entry.messageId, entry);
+        visible.add(entry);
+        notifyAll();
+        return SendMessageResponse.builder().messageId(entry.messageId).build();
+    }
+
+    @Override
+    public synchronized ReceiveMessageResponse receiveMessage(ReceiveMessageRequest request) {
+        int max = request.maxNumberOfMessages() == null ? 1 : request.maxNumberOfMessages();
+        long waitNanos = TimeUnit.SECONDS.toNanos(request.waitTimeSeconds() == null ? 0 : request.waitTimeSeconds());
+        int visibilitySeconds = request.visibilityTimeout() == null ? 30 : request.visibilityTimeout();
+        long deadline = System.nanoTime() + waitNanos;
+        List<Message> received = new ArrayList<>(max);
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                restoreExpired(now);
+                while (received.size() < max && !visible.isEmpty()) {
+                    Entry entry = visible.poll();
+                    entry.receiptHandle = UUID.randomUUID().toString();
+                    entry.hiddenUntil = now + TimeUnit.SECONDS.toNanos(visibilitySeconds);
+                    if (entry.firstReceivedAt == 0) {
+                        entry.firstReceivedAt = now;
+                    } else {
+                        redeliveries++;
+                    }
+                    hidden.put(entry.messageId, entry);
+                    received.add(Message.builder()
+                            .messageId(entry.messageId)
+                            .receiptHandle(entry.receiptHandle)
+                            .body(entry.body)
+                            .build());
+                }
+                if (!received.isEmpty() || now >= deadline) {
+                    break;
+                }
+                // Wakes up for new messages, or in time for the next one to become visible again.
+                long waitMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(Math.min(deadline, nextExpiry()) - now));
+                wait(waitMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw AbortedException.create("Thread was interrupted");
+        }
+        return ReceiveMessageResponse.builder().messages(received).build();
+    }
+
+    @Override
+    public synchronized DeleteMessageBatchResponse deleteMessageBatch(DeleteMessageBatchRequest request) {
+        List<DeleteMessageBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        long now = System.nanoTime();
+        for (DeleteMessageBatchRequestEntry requestEntry : request.entries()) {
+            Entry entry = hiddenByReceipt(requestEntry.id(), requestEntry.receiptHandle());
+            if (entry == null) {
+                failed.add(invalidReceipt(requestEntry.id()));
+                continue;
+            }
+            hidden.remove(entry.messageId);
+            entry.deletedAt = now;
+            deleted++;
+            successful.add(DeleteMessageBatchResultEntry.builder().id(requestEntry.id()).build());
+        }
+        return DeleteMessageBatchResponse.builder().successful(successful).failed(failed).build();
+    }
+
+    @Override
+    public synchronized ChangeMessageVisibilityBatchResponse changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+        List<ChangeMessageVisibilityBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        long now = System.nanoTime();
+        for (ChangeMessageVisibilityBatchRequestEntry requestEntry : request.entries()) {
+            Entry entry = hiddenByReceipt(requestEntry.id(), requestEntry.receiptHandle());
+            if (entry == null) {
+                failed.add(invalidReceipt(requestEntry.id()));
+                continue;
+            }
+            entry.hiddenUntil = now + TimeUnit.SECONDS.toNanos(requestEntry.visibilityTimeout());
+            successful.add(ChangeMessageVisibilityBatchResultEntry.builder().id(requestEntry.id()).build());
+        }
+        restoreExpired(now);
+        notifyAll();
+        return ChangeMessageVisibilityBatchResponse.builder().successful(successful).failed(failed).build();
+    }
+
+    private Entry hiddenByReceipt(String messageId, String receiptHandle) {
+        Entry entry = hidden.get(messageId);
+        return entry != null && entry.receiptHandle.equals(receiptHandle) ? entry : null;
+    }
+
+    private static BatchResultErrorEntry invalidReceipt(String id) {
+        return BatchResultErrorEntry.builder()
+                .id(id)
+                .code("ReceiptHandleIsInvalid")
+                .senderFault(true)
+                .message("The receipt handle has expired")
+                .build();
+    }
+
+    private void restoreExpired(long now) {
+        if (hidden.isEmpty()) {
+            return;
+        }
+        hidden.values().removeIf(entry -> {
+            if (entry.hiddenUntil <= now) {
+                visible.add(entry);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private long nextExpiry() {
+        long next = Long.MAX_VALUE;
+        for (Entry entry : hidden.values()) {
+            next = Math.min(next, entry.hiddenUntil);
+        }
+        return next;
+    }
+
+    /**
+     * @return messages waiting to be received
+     */
+    public synchronized int visibleCount() {
+        return visible.size();
+    }
+
+    /**
+     * @return messages received and neither deleted nor visible again
+     */
+    public synchronized int inFlightCount() {
+        return hidden.size();
+    }
+
+    public synchronized long deletedCount() {
+        return deleted;
+    }
+
+    /**
+     * @return receives of messages that had been received before
+     */
+    public synchronized long redeliveries() {
+        return redeliveries;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at which the message was sent, first received and deleted; 0 for what has
+     * not happened yet
+     */
+    public synchronized long[] times(String messageId) {
+        Entry entry = messages.get(messageId);
+        return entry == null ? new long[3] : new long[]{entry.sentAt, entry.firstReceivedAt, entry.deletedAt};
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static final class Entry {
+        private final String messageId;
+        private final String body;
+        private final long sentAt = System.nanoTime();
+        private long firstReceivedAt;
+        private long deletedAt;
+        private long hiddenUntil;
+        private String receiptHandle;
+
+        private Entry(String messageId, String body) {
+            this.messageId = messageId;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.sample.transcribestreamin.file.s3event;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks {@link ObjectPairingIndex}: events for the same prefix added from many threads at once form one group
+ * that exactly one of them starts, an event delivered again after its group completed joins that group, a failed
+ * group is forgotten, manifest mode waits for the listed objects in manifest order, and groups evicted for age or
+ * for number fail their future with a {@link TimeoutException}.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.sample.transcribestreamin.file.s3event.ObjectPairingIndexTest
+ * </pre>
+ */
+public class ObjectPairingIndexTest {
+    private static final String BUCKET = "pairing";
+
+    public static void main(String[] args) throws Exception {
+        checkConcurrentAdds();
+        checkRedelivery();
+        checkManifest();
+        checkExpired();
+        checkOverflow();
+        System.out.println("Pairing checks passed");
+    }
+
+    /**
+     * Every prefix gets its two objects, each added several times, from threads released together.
+     */
+    private static void checkConcurrentAdds() throws Exception {
+        int prefixes = 500;
+        int threads = 8;
+        ObjectPairingIndex index = index(2, "", 3600, 10000);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger[] starts = new AtomicInteger[prefixes];
+            List<List<ObjectPairingIndex.Group>> groups = new ArrayList<>();
+            for (int p = 0; p < prefixes; p++) {
+                starts[p] = new AtomicInteger();
+                groups.add(new ArrayList<>());
+            }
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                tasks.add(executor.submit(() -> {
+                    start.await();
+                    for (int p = 0; p < prefixes; p++) {
+                        String prefix = "call-" + p + "/";
+                        // Even threads add the agent object and odd threads the caller, each several times.
+                        String key = prefix + (thread % 2 == 0 ? "agent" : "caller");
+                        ObjectPairingIndex.Group group = index.add(prefix, BUCKET, key);
+                        synchronized (groups.get(p)) {
+                            groups.get(p).add(group);
+                        }
+                        if (group.tryStart()) {
+                            starts[p].incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+            for (int p = 0; p < prefixes; p++) {
+                ObjectPairingIndex.Group complete = null;
+                for (ObjectPairingIndex.Group group : groups.get(p)) {
+                    if (group.isComplete()) {
+                        if (complete != null && complete != group) {
+                            throw new AssertionError("Two complete groups for prefix " + p);
+                        }
+                        complete = group;
+                    }
+                }
+                if (complete == null || starts[p].get() != 1) {
+                    throw new AssertionError("Prefix " + p + " started " + starts[p].get() + " times");
+                }
+                if (!complete.keys().equals(Arrays.asList("call-" + p + "/agent", "call-" + p + "/caller"))) {
+                    throw new AssertionError("Prefix " + p + " paired " + complete.keys());
+                }
+            }
+            if (index.pendingGroups() != 0 || index.completedGroups() != prefixes) {
+                throw new AssertionError(index.pendingGroups() + " groups pending and " + index.completedGroups()
+                        + " completed, expected 0 and " + prefixes);
+            }
+        } finally {
+            executor.shutdownNow();
+            index.shutdown();
+        }
+    }
+
+    private static void checkRedelivery() {
+        ObjectPairingIndex index = index(2, "", 3600, 10);
+        try {
+            ObjectPairingIndex.Group group = index.add("p/", BUCKET, "p/agent");
+            index.add("p/", BUCKET, "p/caller");
+            check(group.tryStart(), "the complete group starts");
+            ObjectPairingIndex.Group again = index.add("p/", BUCKET, "p/agent");
+            check(again == group && !again.tryStart(), "an event delivered again joins the running group");
+            check(index.pendingGroups() == 0 && index.duplicateEvents() == 1, "the repeat does not start a group");
+            group.result().complete(null);
+            check(index.add("p/", BUCKET, "p/caller").result().isDone(),
+                    "an event delivered after the transcription is done completes at once");
+            check(index.add("p/", "other-bucket", "p/caller") != group, "the same key in another bucket is new");
+
+            ObjectPairingIndex.Group failed = index.add("q/", BUCKET, "q/agent");
+            index.add("q/", BUCKET, "q/caller");
+            check(failed.tryStart(), "the second group starts");
+            failed.result().completeExceptionally(new RuntimeException("transcription failed"));
+            ObjectPairingIndex.Group retried = index.add("q/", BUCKET, "q/agent");
+            check(retried != failed && !retried.isComplete(), "a failed group is forgotten and pairs again");
+            index.add("q/", BUCKET, "q/caller");
+            check(retried.tryStart(), "the redelivered events start a new transcription");
+        } finally {
+            index.shutdown();
+        }
+    }
+
+    private static void checkManifest() {
+        ObjectPairingIndex index = index(2, "manifest.json", 3600, 10);
+        try {
+            check(index.isManifest("manifest.json") && !index.isManifest("agent.wav"), "manifest file name");
+            ObjectPairingIndex.Group group = index.add("m/", BUCKET, "m/agent.wav");
+            index.add("m/", BUCKET, "m/caller.wav");
+            check(!group.isComplete(), "objects alone do not complete a group in manifest mode");
+            index.expect("m/", BUCKET, Arrays.asList("m/supervisor.wav", "m/caller.wav", "m/agent.wav"));
+            check(!group.isComplete(), "a listed object is still missing");
+            index.add("m/", BUCKET, "m/supervisor.wav");
+            check(group.tryStart(), "every listed object has arrived");
+            check(group.keys().equals(Arrays.asList("m/supervisor.wav", "m/caller.wav", "m/agent.wav")),
+                    "channels in manifest order, not " + group.keys());
+            check(index.expect("m/", BUCKET, Arrays.asList("m/other.wav")) == group,
+                    "a manifest delivered again joins the completed group");
+
+            ObjectPairingIndex.Group first = index.expect("n/", BUCKET, Arrays.asList("n/a.wav"));
+            check(!first.isComplete(), "a manifest alone waits for its objects");
+            check(index.add("n/", BUCKET, "n/a.wav").tryStart(), "the manifest arrived before its object");
+        } finally {
+            index.shutdown();
+        }
+    }
+
+    private static void checkExpired() {
+        ObjectPairingIndex index = index(2, "", 0, 10);
+        try {
+            ObjectPairingIndex.Group orphan = index.add("old/", BUCKET, "old/agent");
+            ObjectPairingIndex.Group complete = index.add("done/", BUCKET, "done/agent");
+            index.add("done/", BUCKET, "done/caller");
+            index.evictExpired();
+            expectTimeout(orphan.result(), "an incomplete group past the TTL");
+            check(!complete.result().isDone(), "a complete group is not expired");
+            check(index.pendingGroups() == 0 && index.expiredGroups() == 1, "one group expired");
+            check(index.add("done/", BUCKET, "done/agent") != complete,
+                    "a completed group is forgotten after the TTL");
+        } finally {
+            index.shutdown();
+        }
+    }
+
+    private static void checkOverflow() {
+        ObjectPairingIndex index = index(2, "", 3600, 3);
+        try {
+            List<ObjectPairingIndex.Group> groups = new ArrayList<>();
+            for (int p = 0; p < 4; p++) {
+                groups.add(index.add("o" + p + "/", BUCKET, "o" + p + "/agent"));
+            }
+            expectTimeout(groups.get(0).result(), "the oldest group beyond the limit");
+            for (int p = 1; p < 4; p++) {
+                check(!groups.get(p).result().isDone(), "group " + p + " still pending");
+            }
+            check(index.pendingGroups() == 3 && index.overflowedGroups() == 1, "one group overflowed");
+        } finally {
+            index.shutdown();
+        }
+    }
+
+    private static ObjectPairingIndex index(int objectsPerPrefix, String manifestName, long ttlSeconds, int maxPending) {
+        return new ObjectPairingIndex(objectsPerPrefix, manifestName, ttlSeconds, maxPending, new SimpleMeterRegistry());
+    }
+
+    private static void expectTimeout(CompletableFuture<Void> result, String what) {
+        try {
+            result.getNow(null);
+            throw new AssertionError(what + " did not fail");
+        } catch (CompletionException e) {
+            if (!(e.getCause() instanceof TimeoutException)) {
+                throw new AssertionError(what + " failed with " + e.getCause());
+            }
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.sample.transcribestreamin.file.s3event;
+
+import com.sample.transcribestreamin.multichannel.FakeTranscribeStreamingClient;
+import com.sample.transcribestreamin.multichannel.SyntheticAudio;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput test of {@link TranscribeS3FilesOnEventListenerMain} in process, in place of {@code dropfiles.sh}.
+ * <p>
+ * The listener runs unchanged, with its SQS, S3 and Transcribe clients replaced by {@link LocalSqsQueue},
+ * {@link LocalS3} and {@link FakeTranscribeStreamingClient}. For each call, two WAV objects of
+ * {@code listenerload.audioSeconds} of {@link SyntheticAudio} are put under {@code calls/<n>/} and an S3 event
+ * notification is sent for each, the second up to {@code listenerload.pairGapMillis} after the first, as uploads
+ * of the two channels of a call arrive.
+ * <p>
+ * Events are offered in steps of {@code listenerload.stepSeconds} at each rate of
+ * {@code listenerload.eventsPerSecond}. Per step, the report gives events received per second, queue lag (sent to
+ * first received), pairing latency (first event of a call to the first GET of its objects) and time to completion
+ * (first event to the deletion of both messages). A step whose p90 queue lag exceeds
+ * {@code listenerload.maxLagMillis}, or with calls left unfinished, is past saturation: the listener stops taking
+ * messages once {@code sqs.maxInFlightMessages} are in flight, so a backlog shows as queue lag.
+ * <pre>
+ * mvn -Plistenerload test-compile exec:exec -Dlistenerload.args="--listenerload.eventsPerSecond=2,4,8,16 \
+ *     --listenerload.stepSeconds=120 --pacing.realTimeFactor=10 --fake.realTimeFactor=10"
+ * </pre>
+ * Not a Spring component, so the stand-ins are installed only by {@link #main}.
+ */
+public class S3ListenerLoadTest implements CommandLineRunner {
+    private static final Logger LOG = LoggerFactory.getLogger(S3ListenerLoadTest.class);
+    private static final long HIGHEST_MILLIS = TimeUnit.HOURS.toMillis(1);
+    @Autowired
+    private ApplicationContext context;
+    @Autowired
+    private LocalS3 s3;
+    @Autowired
+    private LocalSqsQueue queue;
+    @Autowired
+    private FakeTranscribeStreamingClient fakeClient;
+    @Value("${listenerload.eventsPerSecond:1,2,4}")
+    private double[] eventsPerSecond;
+    @Value("${listenerload.stepSeconds:60}")
+    private int stepSeconds;
+    @Value("${listenerload.audioSeconds:30}")
+    private double audioSeconds;
+    @Value("${listenerload.pairGapMillis:500}")
+    private long pairGapMillis;
+    @Value("${listenerload.maxLagMillis:1000}")
+    private long maxLagMillis;
+    @Value("${listenerload.drainSeconds:600}")
+    private int drainSeconds;
+    @Value("${listenerload.reportSeconds:10}")
+    private int reportSeconds;
+    @Value("${listenerload.bucket:listenerload}")
+    private String bucket;
+    @Value("${file.stream.sampleRate}")
+    private int sampleRate;
+
+    public static void main(String[] args) {
+        // The beans of this class replace the clients of the listener, which has the same names. They are static,
+        // as this class depends on them.
+        SpringApplication application = new SpringApplication(TranscribeS3FilesOnEventListenerMain.class, S3ListenerLoadTest.class);
+        application.setDefaultProperties(Map.of(
+                "spring.main.allow-bean-definition-overriding", "true",
+                "logging.level.com.sample.transcribestreamin", "WARN",
+                "logging.level.com.sample.transcribestreamin.file.s3event.S3ListenerLoadTest", "INFO"));
+        System.exit(SpringApplication.exit(application.run(args)));
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public static LocalS3 localS3(@Value("${listenerload.firstByteMillis:20}") long firstByteMillis) {
+        return new LocalS3(firstByteMillis);
+    }
+
+    @Bean("s3SqsClient")
+    public static LocalSqsQueue localSqsQueue() {
+        return new LocalSqsQueue();
+    }
+
+    @Bean("amazonS3")
+    public static S3Client localS3Client(LocalS3 localS3) {
+        return localS3.syncClient();
+    }
+
+    @Bean("amazonS3Async")
+    public static S3AsyncClient localS3AsyncClient(LocalS3 localS3) {
+        return localS3.asyncClient();
+    }
+
+    @Bean("getStreamingClient")
+    public static FakeTranscribeStreamingClient fakeTranscribeStreamingClient(
+            @Value("${fake.realTimeFactor:1}") double realTimeFactor,
+            @Value("${fake.partialIntervalMillis:500}") int partialIntervalMillis,
+            @Value("${fake.resultSeconds:5}") double resultSeconds,
+            @Value("${fake.limitExceededRate:0}") double limitExceededRate,
+            @Value("${fake.badRequestRate:0}") double badRequestRate,
+            @Value("${fake.disconnectsPerHour:0}") double disconnectsPerHour) {
+        FakeTranscribeStreamingClient client = new FakeTranscribeStreamingClient();
+        client.setRealTimeFactor(realTimeFactor);
+        client.setPartialIntervalMillis(partialIntervalMillis);
+        client.setResultSeconds(resultSeconds);
+        client.setLimitExceededRate(limitExceededRate);
+        client.setBadRequestRate(badRequestRate);
+        client.setDisconnectsPerHour(disconnectsPerHour);
+        return client;
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        // Never offer load to real AWS if a bean of the listener won over a stand-in.
+        if (context.getBean("amazonS3") != s3.syncClient() || context.getBean("amazonS3Async") != s3.asyncClient()
+                || context.getBean("getStreamingClient") != fakeClient) {
+            throw new IllegalStateException("The local stand-ins did not replace the listener's clients");
+        }
+        byte[] agent = SyntheticAudio.wav(sampleRate, audioSeconds, 1);
+        byte[] caller = SyntheticAudio.wav(sampleRate, audioSeconds, 2);
+        LOG.info("Offering {} events/s for {} s each, calls of {} s, fake client {}", Arrays.toString(eventsPerSecond), stepSeconds,
+                audioSeconds, fakeClient);
+
+        List<Step> steps = new ArrayList<>();
+        List<Call> calls = Collections.synchronizedList(new ArrayList<>());
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "listenerload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> LOG.info("{} calls offered, {} visible, {} in flight, {} deleted, {} redelivered",
+                        calls.size(), queue.visibleCount(), queue.inFlightCount(), queue.deletedCount(), queue.redeliveries()),
+                reportSeconds, reportSeconds, TimeUnit.SECONDS);
+
+        long next = System.nanoTime();
+        for (double rate : eventsPerSecond) {
+            Step step = new Step(rate, next, next + TimeUnit.SECONDS.toNanos(stepSeconds));
+            steps.add(step);
+            // Two events per call
+            long intervalNanos = (long) (2e9 / rate);
+            for (; next < step.end; next += intervalNanos) {
+                TimeUnit.NANOSECONDS.sleep(next - System.nanoTime());
+                Call call = new Call("calls/" + calls.size() + "/");
+                calls.add(call);
+                step.calls.add(call);
+                s3.put(bucket, call.prefix + "agent.wav", agent);
+                s3.put(bucket, call.prefix + "caller.wav", caller);
+                call.firstSentAt = System.nanoTime();
+                call.messageIds[0] = send(call.prefix + "agent.wav", agent.length);
+                scheduler.schedule(() -> {
+                    call.messageIds[1] = send(call.prefix + "caller.wav", caller.length);
+                }, ThreadLocalRandom.current().nextLong(pairGapMillis + 1), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+        while (queue.deletedCount() < 2L * calls.size() && System.nanoTime() < drainDeadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        scheduler.shutdownNow();
+        // Makes the message ids set on the scheduler visible here.
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        long drainedAt = System.nanoTime();
+        for (Step step : steps) {
+            report(step);
+        }
+        LOG.info("All {} calls: drained {} s after the last event, {} GETs, {} redeliveries", calls.size(),
+                format((drainedAt - next) / 1e9), s3.gets(), queue.redeliveries());
+        LOG.info("Fake client: {}", fakeClient);
+        Step saturated = steps.stream().filter(this::saturated).findFirst().orElse(null);
+        if (saturated == null) {
+            LOG.info("Saturation not reached at {} events/s", format(steps.get(steps.size() - 1).rate));
+        } else {
+            int index = steps.indexOf(saturated);
+            LOG.info("Saturation between {} and {} events/s", index == 0 ? "0" : format(steps.get(index - 1).rate),
+                    format(saturated.rate));
+        }
+    }
+
+    private String send(String key, long size) {
+        String body = "{\"Records\":[{\"eventVersion\":\"2.1\",\"eventSource\":\"aws:s3\",\"awsRegion\":\"ap-south-1\","
+                + "\"eventTime\":\"" + Instant.now() + "\",\"eventName\":\"ObjectCreated:Put\","
+                + "\"userIdentity\":{\"principalId\":\"listenerload\"},"
+                + "\"requestParameters\":{\"sourceIPAddress\":\"127.0.0.1\"},\"responseElements\":{},"
+                + "\"s3\":{\"s3SchemaVersion\":\"1.0\",\"configurationId\":\"listenerload\","
+                + "\"bucket\":{\"name\":\"" + bucket + "\",\"ownerIdentity\":{\"principalId\":\"listenerload\"},"
+                + "\"arn\":\"arn:aws:s3:::" + bucket + "\"},"
+                + "\"object\":{\"key\":\"" + key + "\",\"size\":" + size + ",\"sequencer\":\""
+                + Long.toHexString(System.nanoTime()) + "\"}}}]}";
+        return queue.sendMessage(SendMessageRequest.builder().queueUrl("local").messageBody(body).build()).messageId();
+    }
+
+    private void report(Step step) {
+        Histogram lag = new Histogram(HIGHEST_MILLIS, 2);
+        Histogram pairing = new Histogram(HIGHEST_MILLIS, 2);
+        Histogram completion = new Histogram(HIGHEST_MILLIS, 2);
+        int received = 0;
+        int unfinished = 0;
+        for (Call call : step.calls) {
+            long firstRead = Long.MAX_VALUE;
+            long lastDeleted = 0;
+            boolean finished = true;
+            for (int i = 0; i < call.messageIds.length; i++) {
+                long[] times = call.messageIds[i] == null ? new long[3] : queue.times(call.messageIds[i]);
+                if (times[1] != 0) {
+                    lag.recordValue(millis(times[1] - times[0]));
+                    if (times[1] < step.end) {
+                        received++;
+                    }
+                }
+                if (times[2] == 0) {
+                    finished = false;
+                }
+                lastDeleted = Math.max(lastDeleted, times[2]);
+                long read = s3.firstReadAt(bucket, call.prefix + (i == 0 ? "agent.wav" : "caller.wav"));
+                if (read != 0) {
+                    firstRead = Math.min(firstRead, read);
+                }
+            }
+            if (firstRead != Long.MAX_VALUE) {
+                pairing.recordValue(millis(firstRead - call.firstSentAt));
+            }
+            if (finished) {
+                completion.recordValue(millis(lastDeleted - call.firstSentAt));
+            } else {
+                unfinished++;
+            }
+        }
+        step.lagP90 = lag.getValueAtPercentile(90);
+        step.unfinished = unfinished;
+        LOG.info("Step {} events/s: {} calls, {} events/s received, {} unfinished{}", format(step.rate),
+                step.calls.size(), format(received / ((step.end - step.start) / 1e9)), unfinished,
+                saturated(step) ? ", saturated" : "");
+        LOG.info("  queue lag {}", describe(lag));
+        LOG.info("  pairing latency {}", describe(pairing));
+        LOG.info("  time to completion {}", describe(completion));
+    }
+
+    private boolean saturated(Step step) {
+        return step.lagP90 > maxLagMillis || step.unfinished > 0;
+    }
+
+    private static long millis(long nanos) {
+        return Math.min(HIGHEST_MILLIS, Math.max(0, TimeUnit.NANOSECONDS.toMillis(nanos)));
+    }
+
+    private static String describe(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return "n=0";
+        }
+        return String.format("n=%d p50=%d ms p90=%d ms p99=%d ms max=%d ms", histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getMaxValue());
+    }
+
+    private static String format(double value) {
+        return String.format("%.1f", value);
+    }
+
+    /**
+     * Calls offered at one rate.
+     */
+    private static final class Step {
+        private final double rate;
+        private final long start;
+        private final long end;
+        private final List<Call> calls = new ArrayList<>();
+        private long lagP90;
+        private int unfinished;
+
+        private Step(double rate, long start, long end) {
+            this.rate = rate;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class Call {
+        private final String prefix;
+        private final String[] messageIds = new String[2];
+        private volatile long firstSentAt;
+
+        private Call(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+}
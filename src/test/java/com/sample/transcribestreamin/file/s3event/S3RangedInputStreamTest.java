@@ -0,0 +1,92 @@
+package com.sample.transcribestreamin.file.s3event;
+
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks {@link S3RangedInputStream} against {@link LocalS3}: objects of sizes around the part size read back
+ * intact at several parallelisms, and an object overwritten while it is read fails with the If-Match precondition
+ * instead of mixing two versions.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.sample.transcribestreamin.file.s3event.S3RangedInputStreamTest
+ * </pre>
+ */
+public class S3RangedInputStreamTest {
+    private static final String BUCKET = "ranged";
+    private static final int PART_SIZE = 1000;
+
+    public static void main(String[] args) throws IOException {
+        LocalS3 s3 = new LocalS3(1);
+        try {
+            Random random = new Random(1);
+            int[] sizes = {0, 1, PART_SIZE - 1, PART_SIZE, PART_SIZE + 1, 5 * PART_SIZE + 123};
+            for (int size : sizes) {
+                byte[] content = new byte[size];
+                random.nextBytes(content);
+                s3.put(BUCKET, "object-" + size, content);
+                for (int parallelism = 1; parallelism <= 3; parallelism++) {
+                    byte[] read = readAll(s3, "object-" + size, parallelism, random);
+                    if (!Arrays.equals(content, read)) {
+                        throw new AssertionError("Object of " + size + " bytes read back as " + read.length
+                                + " different bytes at parallelism " + parallelism);
+                    }
+                }
+            }
+            System.out.println("Read back " + sizes.length + " object sizes at parallelism 1 to 3");
+            checkOverwrite(s3);
+            System.out.println("Overwrite during a read failed the read with 412");
+        } finally {
+            s3.shutdown();
+        }
+    }
+
+    private static byte[] readAll(LocalS3 s3, String key, int parallelism, Random random) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (S3RangedInputStream in = new S3RangedInputStream(s3.asyncClient(), BUCKET, key, PART_SIZE, parallelism)) {
+            byte[] buffer = new byte[PART_SIZE * 2];
+            int n;
+            // Reads of random lengths cross part boundaries at every offset.
+            while ((n = in.read(buffer, 0, 1 + random.nextInt(buffer.length))) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void checkOverwrite(LocalS3 s3) throws IOException {
+        s3.put(BUCKET, "overwritten", new byte[10 * PART_SIZE]);
+        try (S3RangedInputStream in = new S3RangedInputStream(s3.asyncClient(), BUCKET, "overwritten", PART_SIZE, 2)) {
+            byte[] buffer = new byte[PART_SIZE];
+            readFully(in, buffer);
+            // Parts after the first two are requested once the first is consumed, with the ETag it returned.
+            s3.put(BUCKET, "overwritten", new byte[10 * PART_SIZE]);
+            try {
+                while (in.read(buffer, 0, buffer.length) != -1) {
+                    // drain
+                }
+            } catch (IOException e) {
+                if (e.getCause() instanceof S3Exception && ((S3Exception) e.getCause()).statusCode() == 412) {
+                    return;
+                }
+                throw e;
+            }
+        }
+        throw new AssertionError("Read of an object overwritten midway did not fail");
+    }
+
+    private static void readFully(S3RangedInputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int n = in.read(buffer, offset, buffer.length - offset);
+            if (n == -1) {
+                throw new AssertionError("Object ended early");
+            }
+            offset += n;
+        }
+    }
+}
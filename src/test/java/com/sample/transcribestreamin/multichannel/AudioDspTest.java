@@ -0,0 +1,268 @@
+package com.sample.transcribestreamin.multichannel;
+
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks {@link PolyphaseResampler} and {@link AudioDspStreamReader}: the number of frames out for a rate change,
+ * unity gain on a constant signal, the same output whatever frame the input is split at, and two stereo sources
+ * interleaved by {@link ChannelInterleaver} and downmixed to one channel each.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.sample.transcribestreamin.multichannel.AudioDspTest
+ * </pre>
+ */
+public class AudioDspTest {
+
+    public static void main(String[] args) throws IOException {
+        checkOutputLength(48000, 16000, 2);
+        checkOutputLength(44100, 16000, 1);
+        checkOutputLength(8000, 16000, 2);
+        checkDcGain(48000, 16000);
+        checkDcGain(44100, 16000);
+        checkDcGain(8000, 16000);
+        checkSplitInput();
+        checkDownmix();
+        checkDownmixAndResample();
+        checkSplitSourceReads();
+        System.out.println("DSP checks passed");
+    }
+
+    private static void checkOutputLength(int inputRate, int outputRate, int channels) {
+        int frames = inputRate;
+        short[] out = new short[new PolyphaseResampler(inputRate, outputRate, channels).maxOutputFrames(frames) * channels];
+        int written = new PolyphaseResampler(inputRate, outputRate, channels)
+                .process(new short[frames * channels], frames, out);
+        long expected = (long) frames * outputRate / inputRate;
+        if (Math.abs(written - expected) > 1) {
+            throw new AssertionError(inputRate + " Hz to " + outputRate + " Hz wrote " + written + " frames for "
+                    + frames + ", expected " + expected);
+        }
+    }
+
+    /**
+     * A constant signal comes out at the same level once the filter history is full.
+     */
+    private static void checkDcGain(int inputRate, int outputRate) {
+        int frames = inputRate / 10;
+        short[] in = new short[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            in[2 * i] = 10000;
+            in[2 * i + 1] = -20000;
+        }
+        PolyphaseResampler resampler = new PolyphaseResampler(inputRate, outputRate, 2);
+        short[] out = new short[resampler.maxOutputFrames(frames) * 2];
+        int written = resampler.process(in, frames, out);
+        for (int i = written / 2; i < written; i++) {
+            if (Math.abs(out[2 * i] - 10000) > 2 || Math.abs(out[2 * i + 1] + 20000) > 2) {
+                throw new AssertionError(inputRate + " Hz to " + outputRate + " Hz: frame " + i + " is ("
+                        + out[2 * i] + ", " + out[2 * i + 1] + "), expected (10000, -20000)");
+            }
+        }
+    }
+
+    /**
+     * The input split at odd frames, down to one frame per call, gives the same output as one call.
+     */
+    private static void checkSplitInput() {
+        short[] in = tone(44100, 2, 4410);
+        short[] whole = resample(in, 2, 44100, 16000, new int[]{4410});
+        for (int[] splits : new int[][]{{777, 3633}, {1, 3, 5, 7, 4394}, ones(4410)}) {
+            short[] split = resample(in, 2, 44100, 16000, splits);
+            if (!Arrays.equals(whole, split)) {
+                throw new AssertionError("Output split at " + splits.length + " points differs at sample "
+                        + Arrays.mismatch(whole, split));
+            }
+        }
+    }
+
+    private static void checkDownmix() throws IOException {
+        // Left and right of each stereo source average to 2000 and -200.
+        byte[] first = pcm(stereo(1000, 3000, 5000));
+        byte[] second = pcm(stereo(-100, -300, 5000));
+        byte[] out = readAll(new AudioDspStreamReader(new StereoSources(16000, first, second), 16000), 4096);
+        short[] samples = samples(out);
+        if (samples.length != 10000) {
+            throw new AssertionError("Downmix wrote " + samples.length + " samples, expected 10000");
+        }
+        for (int i = 0; i < samples.length; i += 2) {
+            if (samples[i] != 2000 || samples[i + 1] != -200) {
+                throw new AssertionError("Frame " + i / 2 + " is (" + samples[i] + ", " + samples[i + 1]
+                        + "), expected (2000, -200)");
+            }
+        }
+    }
+
+    private static void checkDownmixAndResample() throws IOException {
+        byte[] first = pcm(stereo(1000, 3000, 48000));
+        byte[] second = pcm(stereo(-100, -300, 48000));
+        AudioDspStreamReader reader = new AudioDspStreamReader(new StereoSources(48000, first, second), 16000);
+        StartStreamTranscriptionRequest request = reader.getTranscriptionRequest();
+        if (request.mediaSampleRateHertz() != 16000 || request.numberOfChannels() != 2) {
+            throw new AssertionError("Request is " + request.mediaSampleRateHertz() + " Hz "
+                    + request.numberOfChannels() + " channel(s), expected 16000 Hz 2 channels");
+        }
+        short[] samples = samples(readAll(reader, 4096));
+        if (Math.abs(samples.length / 2 - 16000) > 1) {
+            throw new AssertionError("48 kHz to 16 kHz wrote " + samples.length / 2 + " frames, expected 16000");
+        }
+        for (int i = samples.length / 2; i < samples.length; i += 2) {
+            if (Math.abs(samples[i] - 2000) > 2 || Math.abs(samples[i + 1] + 200) > 2) {
+                throw new AssertionError("Frame " + i / 2 + " is (" + samples[i] + ", " + samples[i + 1]
+                        + "), expected (2000, -200)");
+            }
+        }
+    }
+
+    /**
+     * A source that returns a few bytes at a time, so blocks end in the middle of a frame, and reads of odd sizes
+     * from the stage, give the same audio as whole reads.
+     */
+    private static void checkSplitSourceReads() throws IOException {
+        byte[] first = pcm(tone(48000, 2, 20000));
+        byte[] second = pcm(tone(22050, 2, 20000));
+        byte[] whole = readAll(new AudioDspStreamReader(new StereoSources(48000, first, second), 16000), 8192);
+        StereoSources trickle = new StereoSources(48000, first, second);
+        trickle.maxRead = 6;
+        byte[] split = readAll(new AudioDspStreamReader(trickle, 16000), 6);
+        if (!Arrays.equals(whole, split)) {
+            throw new AssertionError("Split reads wrote " + split.length + " bytes that differ from the "
+                    + whole.length + " bytes of whole reads at byte " + Arrays.mismatch(whole, split));
+        }
+    }
+
+    private static short[] resample(short[] in, int channels, int inputRate, int outputRate, int[] splits) {
+        PolyphaseResampler resampler = new PolyphaseResampler(inputRate, outputRate, channels);
+        short[] all = new short[resampler.maxOutputFrames(in.length / channels) * channels];
+        int written = 0;
+        int offset = 0;
+        for (int frames : splits) {
+            short[] block = Arrays.copyOfRange(in, offset * channels, (offset + frames) * channels);
+            short[] out = new short[resampler.maxOutputFrames(frames) * channels];
+            int n = resampler.process(block, frames, out);
+            System.arraycopy(out, 0, all, written * channels, n * channels);
+            written += n;
+            offset += frames;
+        }
+        return Arrays.copyOf(all, written * channels);
+    }
+
+    private static int[] ones(int count) {
+        int[] ones = new int[count];
+        Arrays.fill(ones, 1);
+        return ones;
+    }
+
+    private static short[] tone(int period, int channels, int frames) {
+        short[] samples = new short[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < channels; c++) {
+                samples[i * channels + c] = (short) (8000 * Math.sin(2 * Math.PI * i * (c + 1) * 440 / period));
+            }
+        }
+        return samples;
+    }
+
+    private static short[] stereo(int left, int right, int frames) {
+        short[] samples = new short[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            samples[2 * i] = (short) left;
+            samples[2 * i + 1] = (short) right;
+        }
+        return samples;
+    }
+
+    private static byte[] pcm(short[] samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(samples);
+        return buffer.array();
+    }
+
+    private static short[] samples(byte[] pcm) {
+        short[] samples = new short[pcm.length / 2];
+        ByteBuffer.wrap(pcm).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        return samples;
+    }
+
+    private static byte[] readAll(ByteToAudioEventSubscription.StreamReader reader, int readSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(readSize);
+        while (true) {
+            buffer.clear();
+            if (reader.read(buffer) <= 0) {
+                return out.toByteArray();
+            }
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    /**
+     * Stereo 16 bit sources interleaved with their channels adjacent, as the S3 listener reads stereo objects.
+     */
+    private static final class StereoSources implements ByteToAudioEventSubscription.StreamReader {
+        private final int sampleRate;
+        private final byte[][] sources;
+        private InterleaveInputStream stream;
+        private int maxRead = Integer.MAX_VALUE;
+
+        private StereoSources(int sampleRate, byte[]... sources) {
+            this.sampleRate = sampleRate;
+            this.sources = sources;
+        }
+
+        private InterleaveInputStream stream() {
+            if (stream == null) {
+                List<InputStream> streams = new ArrayList<>();
+                for (byte[] source : sources) {
+                    streams.add(new ByteArrayInputStream(source));
+                }
+                stream = new InterleaveInputStream(streams, 16, 2, ChannelInterleaver.DEFAULT_READ_AHEAD_BYTES);
+            }
+            return stream;
+        }
+
+        @Override
+        public int read(byte[] b) throws IOException {
+            return stream().read(b, 0, Math.min(b.length, maxRead));
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + Math.min(buffer.remaining(), maxRead));
+            try {
+                return stream().read(buffer);
+            } finally {
+                buffer.limit(limit);
+            }
+        }
+
+        @Override
+        public StartStreamTranscriptionRequest getTranscriptionRequest() {
+            return TranscribeHelper.getPcmRequest(sampleRate, 2 * sources.length);
+        }
+
+        @Override
+        public int channelsPerSource() {
+            return 2;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String label() {
+            return "stereo";
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.reactivestreams.Publisher;
+import software.amazon.awssdk.awscore.client.handler.AwsClientHandlerUtils;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import software.amazon.eventstream.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that the pooled buffers {@link ByteToAudioEventSubscription} lends to each event can be reused as soon as
+ * {@code onNext} returns. The subscription is consumed the way the SDK client consumes it: mapped with
+ * {@link SdkPublisher#map} to a request carrying the audio chunk as its payload, as the generated marshaller
+ * does, and encoded into an event stream frame by {@link AwsClientHandlerUtils}. With a pool of two buffers every
+ * chunk overwrites an array an earlier event wrapped, so a frame encoded after its buffer was recycled would not
+ * decode back to its audio.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.sample.transcribestreamin.multichannel.AudioEventHandOffTest
+ * </pre>
+ */
+public class AudioEventHandOffTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int CHUNK_SIZE = 1024;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(7);
+        byte[] agent = new byte[SAMPLE_RATE * 2 * 3 + 101 * 2];
+        byte[] caller = new byte[SAMPLE_RATE * 2 * 2];
+        random.nextBytes(agent);
+        random.nextBytes(caller);
+        byte[] expected = readAll(new SyntheticStreamReader(agent, caller, SAMPLE_RATE, "expected"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AudioBufferPool pool = new AudioBufferPool(2);
+        try {
+            SyntheticStreamReader reader = new SyntheticStreamReader(agent, caller, SAMPLE_RATE, "hand-off");
+            Publisher<AudioStream> publisher = subscriber -> subscriber.onSubscribe(
+                    new ByteToAudioEventSubscription(subscriber, executor, CHUNK_SIZE, reader, pool));
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            int[] frames = new int[1];
+            SdkPublisher.adapt(publisher)
+                    .map(AudioEventHandOffTest::marshall)
+                    .map(AwsClientHandlerUtils::encodeEventStreamRequestToByteBuffer)
+                    .subscribe(frame -> {
+                        decoded.writeBytes(Message.decode(frame).getPayload());
+                        frames[0]++;
+                    })
+                    .get(30, TimeUnit.SECONDS);
+            if (!Arrays.equals(expected, decoded.toByteArray())) {
+                throw new AssertionError("Frames decoded to " + decoded.size() + " bytes that differ from the "
+                        + expected.length + " bytes read");
+            }
+            if (pool.allocatedBuffers() > 2) {
+                throw new AssertionError("Pool allocated " + pool.allocatedBuffers() + " buffers for one session");
+            }
+            System.out.println(frames[0] + " frames decoded back to their audio with "
+                    + pool.allocatedBuffers() + " pooled buffers");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The audio chunk as the payload of an event message, read from the event's bytes when the frame is encoded.
+     */
+    private static SdkHttpFullRequest marshall(AudioStream event) {
+        AudioEvent audioEvent = (AudioEvent) event;
+        return SdkHttpFullRequest.builder()
+                .method(SdkHttpMethod.POST)
+                .protocol("https")
+                .host("localhost")
+                .putHeader(":message-type", "event")
+                .putHeader(":event-type", "AudioEvent")
+                .putHeader(":content-type", "application/octet-stream")
+                .contentStreamProvider(() -> audioEvent.audioChunk().asInputStream())
+                .build();
+    }
+
+    private static byte[] readAll(ByteToAudioEventSubscription.StreamReader reader) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        while (true) {
+            buffer.clear();
+            if (reader.read(buffer) <= 0) {
+                return out.toByteArray();
+            }
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+}
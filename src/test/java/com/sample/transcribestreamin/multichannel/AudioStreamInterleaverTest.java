@@ -1,9 +1,25 @@
 package com.sample.transcribestreamin.multichannel;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
+/**
+ * Prints the interleaving of two short streams, then checks {@link InterleaveInputStream} against a frame by frame
+ * interleaving of random sources: channel order, a short final read, a source ending before the others, reads with
+ * room for less than a frame, sources that return a few bytes at a time, 8, 24 and 32 bit samples, more than two
+ * channels, stereo sources, and reads into heap and direct {@link ByteBuffer}s.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.sample.transcribestreamin.multichannel.AudioStreamInterleaverTest
+ * </pre>
+ */
 public class AudioStreamInterleaverTest {
     InterleaveInputStream interleaveStream;
 
@@ -25,5 +41,250 @@ public class AudioStreamInterleaverTest {
             out = new byte[4];
         }
 
+        checkChannelOrder();
+        checkShortFinalRead();
+        checkEarlyEnd();
+        checkPartialFrames();
+        checkTrickleSources();
+        checkSampleWidths();
+        checkManyChannels();
+        checkByteBuffers();
+        checkStereoSources();
+        System.out.println("Interleaving checks passed");
+    }
+
+    private static void checkChannelOrder() throws IOException {
+        byte[] agent = {1, 2, 3, 4};
+        byte[] caller = {5, 6, 7, 8};
+        byte[] out = readAll(new InterleaveInputStream(input(agent), input(caller)), 64);
+        assertEquals(new byte[]{1, 2, 5, 6, 3, 4, 7, 8}, out, "agent sample first in each frame");
+    }
+
+    /**
+     * 1001 frames read 64 bytes at a time: the last read returns the 36 bytes left, then the stream ends.
+     */
+    private static void checkShortFinalRead() throws IOException {
+        byte[][] sources = random(1, 2002, 2002);
+        InterleaveInputStream stream = new InterleaveInputStream(inputs(sources), 16);
+        byte[] out = new byte[64];
+        int total = 0;
+        int last = 0;
+        int n;
+        while ((n = stream.read(out, 0, out.length)) > 0) {
+            if (last != 0 && last != out.length) {
+                throw new AssertionError("Short read of " + last + " bytes before the end");
+            }
+            total += n;
+            last = n;
+        }
+        if (total != 4004 || last != 4004 % 64) {
+            throw new AssertionError("Read " + total + " bytes ending with " + last + ", expected 4004 ending with "
+                    + 4004 % 64);
+        }
+        if (stream.read(out, 0, out.length) != -1) {
+            throw new AssertionError("Read after the end did not return -1");
+        }
+    }
+
+    private static void checkEarlyEnd() throws IOException {
+        byte[][] sources = random(2, 3000, 1000);
+        byte[] out = readAll(new InterleaveInputStream(inputs(sources), 16), 512);
+        assertEquals(interleave(sources, 2), out, "caller padded with silence after it ends");
+        byte[][] empty = {new byte[0], random(3, 10)[0]};
+        out = readAll(new InterleaveInputStream(inputs(empty), 16), 512);
+        assertEquals(interleave(empty, 2), out, "empty agent source padded with silence");
+    }
+
+    private static void checkPartialFrames() throws IOException {
+        byte[][] sources = random(4, 1000, 998);
+        byte[] expected = interleave(sources, 2);
+        for (int size : new int[]{1, 3, 5, 7}) {
+            assertEquals(expected, readAll(new InterleaveInputStream(inputs(sources), 16), size),
+                    "reads of " + size + " bytes");
+        }
+        InterleaveInputStream stream = new InterleaveInputStream(inputs(sources), 16);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = stream.read()) != -1) {
+            out.write(b);
+        }
+        assertEquals(expected, out.toByteArray(), "single byte reads");
+    }
+
+    /**
+     * Sources that return at most a few bytes per read, with a small read-ahead buffer, so samples are left over
+     * at the end of the buffer and moved to its front.
+     */
+    private static void checkTrickleSources() throws IOException {
+        byte[][] sources = random(5, 5000, 4990);
+        List<InputStream> trickle = new ArrayList<>();
+        for (int i = 0; i < sources.length; i++) {
+            trickle.add(new TrickleInputStream(sources[i], 3 + 4 * i));
+        }
+        byte[] out = readAll(new InterleaveInputStream(trickle, 16, 64), 100);
+        assertEquals(interleave(sources, 2), out, "sources returning a few bytes per read");
+    }
+
+    private static void checkSampleWidths() throws IOException {
+        for (int bits : new int[]{8, 24, 32}) {
+            int bytesPerSample = bits / 8;
+            // Lengths that are not whole samples: the trailing bytes of a sample are dropped.
+            byte[][] sources = random(bits, 300 * bytesPerSample + 1, 200 * bytesPerSample);
+            for (int size : new int[]{1, 7, 4096}) {
+                assertEquals(interleave(sources, bytesPerSample),
+                        readAll(new InterleaveInputStream(inputs(sources), bits, 48), size),
+                        bits + " bit samples read " + size + " bytes at a time");
+            }
+        }
+    }
+
+    private static void checkManyChannels() throws IOException {
+        for (int bits : new int[]{16, 24}) {
+            byte[][] sources = random(6, 6000, 0, 5999, 3000, 6006);
+            for (int size : new int[]{5, 1000}) {
+                assertEquals(interleave(sources, bits / 8),
+                        readAll(new InterleaveInputStream(inputs(sources), bits, 256), size),
+                        sources.length + " channels of " + bits + " bit samples read " + size + " bytes at a time");
+            }
+        }
+    }
+
+    /**
+     * Reads of odd sizes into heap and direct buffers, written after a few bytes already in the buffer.
+     */
+    private static void checkByteBuffers() throws IOException {
+        for (boolean direct : new boolean[]{false, true}) {
+            for (int bits : new int[]{8, 16, 24}) {
+                byte[][] sources = random(7, 3000, 2999, 1500);
+                InterleaveInputStream stream = new InterleaveInputStream(inputs(sources), bits, 128);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                int[] sizes = {1, 2, 5, 1000, 37, 4096};
+                ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(4096 + 3) : ByteBuffer.allocate(4096 + 3);
+                for (int i = 0; ; i++) {
+                    buffer.clear().position(3).limit(3 + sizes[i % sizes.length]);
+                    int n = stream.read(buffer);
+                    if (n == -1) {
+                        break;
+                    }
+                    if (n == 0 || buffer.position() != 3 + n) {
+                        throw new AssertionError("read returned " + n + " and moved the position to "
+                                + buffer.position());
+                    }
+                    byte[] chunk = new byte[n];
+                    buffer.position(3);
+                    buffer.get(chunk);
+                    out.write(chunk);
+                }
+                assertEquals(interleave(sources, bits / 8), out.toByteArray(),
+                        (direct ? "direct" : "heap") + " buffer reads of " + bits + " bit samples");
+            }
+        }
+    }
+
+    /**
+     * Stereo sources keep their two samples together in each frame, at any sample width.
+     */
+    private static void checkStereoSources() throws IOException {
+        for (int bits : new int[]{16, 24}) {
+            int sourceFrameSize = 2 * bits / 8;
+            byte[][] sources = random(8, 900 * sourceFrameSize, 600 * sourceFrameSize + 5);
+            for (int size : new int[]{1, 4096}) {
+                InterleaveInputStream stream = new InterleaveInputStream(inputs(sources), bits, 2, 96);
+                if (stream.channels() != 4) {
+                    throw new AssertionError("Two stereo sources give " + stream.channels() + " channels");
+                }
+                // A stereo source interleaves like a mono one of samples twice as wide.
+                assertEquals(interleave(sources, sourceFrameSize), readAll(stream, size),
+                        "stereo " + bits + " bit sources read " + size + " bytes at a time");
+            }
+        }
+    }
+
+    static byte[][] random(long seed, int... lengths) {
+        Random random = new Random(seed);
+        byte[][] sources = new byte[lengths.length][];
+        for (int i = 0; i < lengths.length; i++) {
+            sources[i] = new byte[lengths[i]];
+            random.nextBytes(sources[i]);
+        }
+        return sources;
+    }
+
+    static InputStream input(byte[] source) {
+        return new ByteArrayInputStream(source);
+    }
+
+    static List<InputStream> inputs(byte[][] sources) {
+        List<InputStream> streams = new ArrayList<>(sources.length);
+        for (byte[] source : sources) {
+            streams.add(input(source));
+        }
+        return streams;
+    }
+
+    /**
+     * Frame by frame interleaving: one sample of every source per frame, silence for sources that have ended.
+     */
+    static byte[] interleave(byte[][] sources, int bytesPerSample) {
+        byte silence = bytesPerSample == 1 ? (byte) 0x80 : 0;
+        int frames = 0;
+        for (byte[] source : sources) {
+            frames = Math.max(frames, source.length / bytesPerSample);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int f = 0; f < frames; f++) {
+            for (byte[] source : sources) {
+                for (int k = 0; k < bytesPerSample; k++) {
+                    int i = f * bytesPerSample + k;
+                    out.write(i < source.length / bytesPerSample * bytesPerSample ? source[i] : silence);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] readAll(InputStream stream, int readSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[readSize + 3];
+        int n;
+        // Read at an offset, so the offset is honoured.
+        while ((n = stream.read(buffer, 3, readSize)) != -1) {
+            if (n == 0) {
+                throw new AssertionError("read returned 0 for " + readSize + " bytes");
+            }
+            out.write(buffer, 3, n);
+        }
+        return out.toByteArray();
+    }
+
+    static void assertEquals(byte[] expected, byte[] actual, String what) {
+        if (!Arrays.equals(expected, actual)) {
+            int i = Arrays.mismatch(expected, actual);
+            throw new AssertionError(what + ": " + actual.length + " bytes differ from the " + expected.length
+                    + " expected at byte " + i);
+        }
+    }
+
+    /**
+     * Returns at most {@code maxRead} bytes per read, like a network stream.
+     */
+    static final class TrickleInputStream extends InputStream {
+        private final ByteArrayInputStream source;
+        private final int maxRead;
+
+        TrickleInputStream(byte[] source, int maxRead) {
+            this.source = new ByteArrayInputStream(source);
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read() {
+            return source.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return source.read(b, off, Math.min(len, maxRead));
+        }
     }
 }
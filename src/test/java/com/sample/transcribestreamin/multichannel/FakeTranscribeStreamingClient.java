@@ -0,0 +1,556 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
+import software.amazon.awssdk.services.transcribestreaming.model.Alternative;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import software.amazon.awssdk.services.transcribestreaming.model.BadRequestException;
+import software.amazon.awssdk.services.transcribestreaming.model.Item;
+import software.amazon.awssdk.services.transcribestreaming.model.ItemType;
+import software.amazon.awssdk.services.transcribestreaming.model.LimitExceededException;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponse;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponseHandler;
+import software.amazon.awssdk.services.transcribestreaming.model.Transcript;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the Transcribe streaming service, so the pipeline can be load tested without spending
+ * quota.
+ * <p>
+ * Each stream consumes the audio publisher at {@code realTimeFactor} times real time (0 or less to take audio as
+ * fast as it is sent) and answers with synthetic results on every channel of the request: a partial result every
+ * {@code partialIntervalMillis} of audio, and a final result after about {@code resultSeconds} of audio. Failures
+ * are injected at the configured rates: {@link LimitExceededException} and {@link BadRequestException} when a
+ * stream starts, and a dropped connection while it runs, or at planned points with {@link #disconnectAt}.
+ * Requests the service would refuse, such as a sample rate out of range, fail with {@link BadRequestException} as
+ * well.
+ * <p>
+ * Pacing runs on one timer thread, and the events of each stream are delivered in order on a small shared pool,
+ * off the threads that send audio, as the SDK delivers them from its event loop.
+ */
+public class FakeTranscribeStreamingClient implements TranscribeStreamingAsyncClient {
+    private static final String[] WORDS = {"the", "customer", "called", "about", "an", "order", "that", "has",
+            "not", "arrived", "yet", "could", "you", "check", "status", "please", "thank", "for", "waiting", "today"};
+    private static final double STABLE_AFTER_SECONDS = 1.0;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(StreamingExecutorConfiguration.daemonThreads("fake-transcribe-timer-"));
+    private final ExecutorService eventExecutor =
+            Executors.newFixedThreadPool(2, StreamingExecutorConfiguration.daemonThreads("fake-transcribe-events-"));
+    private double realTimeFactor = 1;
+    private int partialIntervalMillis = 500;
+    private double resultSeconds = 5;
+    private double wordsPerSecond = 2.5;
+    private double limitExceededRate;
+    private double badRequestRate;
+    private double disconnectsPerHour;
+    private final Queue<Double> plannedDisconnects = new ConcurrentLinkedQueue<>();
+    private final AtomicLong streams = new AtomicLong();
+    private final AtomicLong limitExceeded = new AtomicLong();
+    private final AtomicLong badRequests = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong audioBytes = new AtomicLong();
+    private final AtomicLong resultEvents = new AtomicLong();
+
+    @Override
+    public String serviceName() {
+        return "transcribe";
+    }
+
+    @Override
+    public CompletableFuture<Void> startStreamTranscription(StartStreamTranscriptionRequest request,
+                                                            Publisher<AudioStream> requestStream,
+                                                            StartStreamTranscriptionResponseHandler responseHandler) {
+        streams.incrementAndGet();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Stream stream = new Stream(request, responseHandler, future);
+        RuntimeException rejection = reject(request);
+        if (rejection != null) {
+            stream.events.fail(rejection);
+        } else {
+            stream.start(requestStream);
+        }
+        return future;
+    }
+
+    /**
+     * @return the exception the stream fails with when it starts, or null to accept it
+     */
+    private RuntimeException reject(StartStreamTranscriptionRequest request) {
+        Integer sampleRate = request.mediaSampleRateHertz();
+        if (sampleRate == null || sampleRate < 8000 || sampleRate > 48000) {
+            badRequests.incrementAndGet();
+            return BadRequestException.builder().statusCode(400)
+                    .message("Sample rate " + sampleRate + " is not between 8000 and 48000 Hz").build();
+        }
+        if (Boolean.TRUE.equals(request.enableChannelIdentification())
+                && (request.numberOfChannels() == null || request.numberOfChannels() != 2)) {
+            badRequests.incrementAndGet();
+            return BadRequestException.builder().statusCode(400)
+                    .message("Channel identification needs exactly 2 channels").build();
+        }
+        double draw = ThreadLocalRandom.current().nextDouble();
+        if (draw < limitExceededRate) {
+            limitExceeded.incrementAndGet();
+            return LimitExceededException.builder().statusCode(429)
+                    .message("You have exceeded the maximum number of concurrent streams (injected)").build();
+        }
+        if (draw < limitExceededRate + badRequestRate) {
+            badRequests.incrementAndGet();
+            return BadRequestException.builder().statusCode(400)
+                    .message("Bad request (injected)").build();
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        eventExecutor.shutdownNow();
+    }
+
+    /**
+     * @param realTimeFactor multiple of real time audio is consumed at, 0 or less to consume it unpaced
+     */
+    public void setRealTimeFactor(double realTimeFactor) {
+        this.realTimeFactor = realTimeFactor;
+    }
+
+    /**
+     * @param partialIntervalMillis audio between two partial results of a channel
+     */
+    public void setPartialIntervalMillis(int partialIntervalMillis) {
+        this.partialIntervalMillis = Math.max(1, partialIntervalMillis);
+    }
+
+    /**
+     * @param resultSeconds mean audio length of a result; each result is drawn between half and one and a half times
+     *                      this, so the channels of a stream do not end their results together
+     */
+    public void setResultSeconds(double resultSeconds) {
+        this.resultSeconds = resultSeconds;
+    }
+
+    public void setWordsPerSecond(double wordsPerSecond) {
+        this.wordsPerSecond = wordsPerSecond;
+    }
+
+    /**
+     * @param limitExceededRate share of streams that fail with LimitExceededException when they start
+     */
+    public void setLimitExceededRate(double limitExceededRate) {
+        this.limitExceededRate = limitExceededRate;
+    }
+
+    /**
+     * @param badRequestRate share of streams that fail with BadRequestException when they start
+     */
+    public void setBadRequestRate(double badRequestRate) {
+        this.badRequestRate = badRequestRate;
+    }
+
+    /**
+     * @param disconnectsPerHour mean number of dropped connections per hour of audio of a stream
+     */
+    public void setDisconnectsPerHour(double disconnectsPerHour) {
+        this.disconnectsPerHour = disconnectsPerHour;
+    }
+
+    /**
+     * Drops the connection of the next streams after the given audio, one value per stream in the order they start.
+     *
+     * @param seconds audio each stream receives before it is dropped
+     */
+    public void disconnectAt(double... seconds) {
+        for (double at : seconds) {
+            plannedDisconnects.add(at);
+        }
+    }
+
+    /**
+     * @return streams started, retries included
+     */
+    public long getStreams() {
+        return streams.get();
+    }
+
+    public long getLimitExceeded() {
+        return limitExceeded.get();
+    }
+
+    public long getBadRequests() {
+        return badRequests.get();
+    }
+
+    public long getDisconnects() {
+        return disconnects.get();
+    }
+
+    /**
+     * @return streams that reached the end of their audio
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getAudioBytes() {
+        return audioBytes.get();
+    }
+
+    public long getResultEvents() {
+        return resultEvents.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("streams=%d completed=%d limitExceeded=%d badRequests=%d disconnects=%d audio=%d bytes events=%d",
+                getStreams(), getCompleted(), getLimitExceeded(), getBadRequests(), getDisconnects(), getAudioBytes(),
+                getResultEvents());
+    }
+
+    /**
+     * One stream: subscribes to the audio, paces its demand and turns the audio received into results.
+     * Audio signals are serialized by the publisher; results go through {@link EventStream}.
+     */
+    private final class Stream implements Subscriber<AudioStream> {
+        private final StartStreamTranscriptionRequest request;
+        private final EventStream events;
+        private final int bytesPerSecond;
+        private final List<ChannelResult> channels = new ArrayList<>();
+        private final Double disconnectAt = plannedDisconnects.poll();
+        private Subscription audio;
+        private long startedAt;
+        private long bytes;
+        private double nextPartialAt;
+        private boolean done;
+
+        private Stream(StartStreamTranscriptionRequest request, StartStreamTranscriptionResponseHandler handler,
+                       CompletableFuture<Void> future) {
+            this.request = request;
+            this.events = new EventStream(handler, future);
+            this.bytesPerSecond = AudioPacer.bytesPerSecond(request);
+            int channelCount = Boolean.TRUE.equals(request.enableChannelIdentification()) ? request.numberOfChannels() : 1;
+            for (int i = 0; i < channelCount; i++) {
+                channels.add(new ChannelResult(channelCount > 1 ? "ch_" + i : null, i));
+            }
+        }
+
+        private void start(Publisher<AudioStream> requestStream) {
+            events.respond(StartStreamTranscriptionResponse.builder()
+                    .requestId(UUID.randomUUID().toString())
+                    .sessionId(request.sessionId())
+                    .build());
+            requestStream.subscribe(this);
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            audio = subscription;
+            startedAt = System.nanoTime();
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(AudioStream event) {
+            if (done) {
+                return;
+            }
+            if (event instanceof AudioEvent) {
+                // The chunk is only valid during this call; its buffer goes back to the pool afterwards.
+                int length = ((AudioEvent) event).audioChunk().asByteBuffer().remaining();
+                bytes += length;
+                audioBytes.addAndGet(length);
+                double seconds = (double) bytes / bytesPerSecond;
+                if (disconnectAt != null && seconds >= disconnectAt || disconnectsPerHour > 0
+                        && ThreadLocalRandom.current().nextDouble() < disconnectsPerHour * length / bytesPerSecond / 3600) {
+                    disconnect();
+                    return;
+                }
+                if (seconds >= nextPartialAt) {
+                    for (ChannelResult channel : channels) {
+                        channel.update(seconds);
+                    }
+                    nextPartialAt = seconds + partialIntervalMillis / 1000.0;
+                }
+            }
+            requestAudio();
+        }
+
+        /**
+         * Asks for the next chunk once the audio received so far has been consumed at the real-time factor.
+         */
+        private void requestAudio() {
+            long delay = realTimeFactor > 0
+                    ? startedAt + (long) (bytes * 1e9 / bytesPerSecond / realTimeFactor) - System.nanoTime()
+                    : 0;
+            if (delay <= 0) {
+                audio.request(1);
+            } else {
+                try {
+                    scheduler.schedule(() -> audio.request(1), delay, TimeUnit.NANOSECONDS);
+                } catch (RuntimeException e) {
+                    done = true;
+                    events.fail(SdkClientException.create("Client closed", e));
+                }
+            }
+        }
+
+        private void disconnect() {
+            done = true;
+            audio.cancel();
+            disconnects.incrementAndGet();
+            events.fail(SdkClientException.builder()
+                    .message("Connection reset by peer (injected)")
+                    .cause(new IOException("Connection reset by peer"))
+                    .build());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            done = true;
+            events.fail(SdkClientException.create("Audio stream failed", t));
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) {
+                return;
+            }
+            done = true;
+            double seconds = (double) bytes / bytesPerSecond;
+            for (ChannelResult channel : channels) {
+                channel.end(seconds);
+            }
+            completed.incrementAndGet();
+            events.complete();
+        }
+
+        /**
+         * The open result of one channel.
+         */
+        private final class ChannelResult {
+            private final String channelId;
+            private final int index;
+            private int results;
+            private double start;
+            private double length;
+
+            private ChannelResult(String channelId, int index) {
+                this.channelId = channelId;
+                this.index = index;
+                next(0);
+            }
+
+            private void next(double at) {
+                results++;
+                start = at;
+                length = resultSeconds * (0.5 + ThreadLocalRandom.current().nextDouble());
+            }
+
+            private void update(double now) {
+                if (now - start >= length) {
+                    emit(now, false);
+                    next(now);
+                } else {
+                    emit(now, true);
+                }
+            }
+
+            private void end(double now) {
+                if (now > start) {
+                    emit(now, false);
+                }
+            }
+
+            private void emit(double end, boolean partial) {
+                int words = (int) ((end - start) * wordsPerSecond);
+                if (words == 0) {
+                    return;
+                }
+                List<Item> items = new ArrayList<>(words);
+                StringBuilder text = new StringBuilder();
+                for (int i = 0; i < words; i++) {
+                    double wordStart = start + i / wordsPerSecond;
+                    double wordEnd = start + (i + 0.8) / wordsPerSecond;
+                    String content = WORDS[(results * 7 + index * 3 + i) % WORDS.length];
+                    items.add(Item.builder()
+                            .type(ItemType.PRONUNCIATION)
+                            .content(content)
+                            .startTime(wordStart)
+                            .endTime(wordEnd)
+                            .speaker(Integer.toString(index))
+                            .confidence(partial ? null : 0.95)
+                            .stable(partial ? wordEnd < end - STABLE_AFTER_SECONDS : null)
+                            .build());
+                    if (i > 0) {
+                        text.append(' ');
+                    }
+                    text.append(content);
+                }
+                Result result = Result.builder()
+                        .resultId(request.sessionId() + "-" + index + "-" + results)
+                        .channelId(channelId)
+                        .startTime(start)
+                        .endTime(end)
+                        .isPartial(partial)
+                        .alternatives(Alternative.builder().transcript(text.toString()).items(items).build())
+                        .build();
+                events.emit(TranscriptEvent.builder()
+                        .transcript(Transcript.builder().results(result).build())
+                        .build());
+            }
+        }
+    }
+
+    /**
+     * Result events of a stream. Everything runs in order on the event pool, one task at a time per stream, so the
+     * state needs no locking; events are only delivered against the demand of the subscriber, and the stream
+     * completes or fails once the events before it have been delivered.
+     */
+    private final class EventStream implements SdkPublisher<TranscriptResultStream>, Subscription {
+        private final StartStreamTranscriptionResponseHandler handler;
+        private final CompletableFuture<Void> future;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingTasks = new AtomicInteger();
+        private final ArrayDeque<TranscriptResultStream> pending = new ArrayDeque<>();
+        private Subscriber<? super TranscriptResultStream> subscriber;
+        private long demand;
+        private boolean cancelled;
+        private boolean ended;
+        private boolean terminated;
+        private Throwable failure;
+
+        private EventStream(StartStreamTranscriptionResponseHandler handler, CompletableFuture<Void> future) {
+            this.handler = handler;
+            this.future = future;
+        }
+
+        private void respond(StartStreamTranscriptionResponse response) {
+            run(() -> {
+                handler.responseReceived(response);
+                handler.onEventStream(this);
+            });
+        }
+
+        private void emit(TranscriptResultStream event) {
+            resultEvents.incrementAndGet();
+            run(() -> {
+                pending.add(event);
+                deliver();
+            });
+        }
+
+        private void complete() {
+            run(() -> {
+                ended = true;
+                deliver();
+            });
+        }
+
+        private void fail(Throwable e) {
+            run(() -> {
+                ended = true;
+                failure = e;
+                deliver();
+            });
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super TranscriptResultStream> s) {
+            run(() -> {
+                subscriber = s;
+                s.onSubscribe(this);
+            });
+        }
+
+        @Override
+        public void request(long n) {
+            run(() -> {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                deliver();
+            });
+        }
+
+        @Override
+        public void cancel() {
+            run(() -> cancelled = true);
+        }
+
+        private void deliver() {
+            if (terminated) {
+                return;
+            }
+            while (subscriber != null && !cancelled && demand > 0 && !pending.isEmpty()) {
+                demand--;
+                subscriber.onNext(pending.poll());
+            }
+            if (ended && (pending.isEmpty() || cancelled || subscriber == null || failure != null)) {
+                terminated = true;
+                pending.clear();
+                if (failure == null) {
+                    if (subscriber != null && !cancelled) {
+                        subscriber.onComplete();
+                    }
+                    handler.complete();
+                    future.complete(null);
+                } else {
+                    if (subscriber != null && !cancelled) {
+                        subscriber.onError(failure);
+                    }
+                    handler.exceptionOccurred(failure);
+                    future.completeExceptionally(failure);
+                }
+            }
+        }
+
+        private void run(Runnable task) {
+            tasks.add(task);
+            if (pendingTasks.getAndIncrement() == 0) {
+                try {
+                    eventExecutor.execute(this::drain);
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        }
+
+        private void drain() {
+            do {
+                Runnable task = tasks.poll();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    if (!terminated) {
+                        terminated = true;
+                        handler.exceptionOccurred(e);
+                        future.completeExceptionally(e);
+                    }
+                }
+            } while (pendingTasks.decrementAndGet() > 0);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.sample.transcribestreamin.multichannel;
+
+import software.amazon.awssdk.services.transcribestreaming.model.MediaEncoding;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round trip check of {@link FlacEncoder} and {@link FlacEncodingStreamReader}: audio is encoded, then decoded by
+ * the small FLAC decoder below, written from the format specification, which checks the stream marker,
+ * STREAMINFO, frame sync codes, header CRC-8, frame CRC-16 and sample numbers, and the decoded samples must equal
+ * the input. The decoder covers what the encoder emits (constant, verbatim and fixed subframes, Rice partitions,
+ * independent channels) and fails on anything else.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.sample.transcribestreamin.multichannel.FlacEncoderTest
+ * </pre>
+ */
+public class FlacEncoderTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    public static void main(String[] args) throws IOException {
+        int checks = 0;
+        for (int channels = 1; channels <= 3; channels++) {
+            for (String signal : new String[]{"speech", "silence", "noise", "full scale", "ramp"}) {
+                short[] pcm = signal(signal, channels, SAMPLE_RATE * 3, channels);
+                for (int block : new int[]{1, 15, 16, 255, 256, 257, 1600, 4096, FlacEncoder.MAX_BLOCK_FRAMES}) {
+                    check(channels, pcm, encode(channels, pcm, block), signal + ", blocks of " + block);
+                    checks++;
+                }
+            }
+            short[] speech = signal("speech", channels, SAMPLE_RATE * 5, channels);
+            check(channels, speech, throughReader(channels, speech, false), "reader");
+            check(channels, speech, throughReader(channels, speech, true), "reader after a retry");
+            checks += 2;
+        }
+        System.out.println(checks + " streams decoded back to their input");
+    }
+
+    private static short[] signal(String signal, int channels, int frames, long seed) {
+        short[] pcm = new short[frames * channels];
+        Random random = new Random(seed);
+        switch (signal) {
+            case "speech":
+                for (int c = 0; c < channels; c++) {
+                    interleave(SyntheticAudio.pcm(SAMPLE_RATE, (double) frames / SAMPLE_RATE, seed + c), pcm, c, channels);
+                }
+                break;
+            case "silence":
+                break;
+            case "noise":
+                for (int i = 0; i < pcm.length; i++) {
+                    pcm[i] = (short) random.nextInt();
+                }
+                break;
+            case "full scale":
+                for (int i = 0; i < pcm.length; i++) {
+                    pcm[i] = random.nextBoolean() ? Short.MAX_VALUE : Short.MIN_VALUE;
+                }
+                break;
+            case "ramp":
+                for (int i = 0; i < pcm.length; i++) {
+                    pcm[i] = (short) (i * 37);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(signal);
+        }
+        return pcm;
+    }
+
+    private static void interleave(byte[] mono, short[] pcm, int channel, int channels) {
+        ByteBuffer buffer = ByteBuffer.wrap(mono).order(ByteOrder.LITTLE_ENDIAN);
+        for (int f = 0; f * channels + channel < pcm.length && 2 * f + 1 < mono.length; f++) {
+            pcm[f * channels + channel] = buffer.getShort(2 * f);
+        }
+    }
+
+    private static byte[] encode(int channels, short[] pcm, int block) {
+        FlacEncoder encoder = new FlacEncoder(SAMPLE_RATE, channels);
+        ByteBuffer buffer = toBytes(pcm);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encodeStreamHeader();
+        out.write(encoder.output(), 0, encoder.length());
+        int frames = pcm.length / channels;
+        for (int f = 0; f < frames; f += block) {
+            encoder.encodeFrame(buffer, f * channels * 2, Math.min(block, frames - f));
+            out.write(encoder.output(), 0, encoder.length());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the audio through {@link FlacEncodingStreamReader} in 100 ms chunks; with {@code retry}, the stream is
+     * restarted from the beginning halfway, as a replay does, and only the restarted stream is kept.
+     */
+    private static byte[] throughReader(int channels, short[] pcm, boolean retry) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(toBytes(pcm).array());
+        StartStreamTranscriptionRequest request = StartStreamTranscriptionRequest.builder()
+                .mediaEncoding(MediaEncoding.PCM)
+                .mediaSampleRateHertz(SAMPLE_RATE)
+                .numberOfChannels(channels > 1 ? channels : null)
+                .build();
+        ByteToAudioEventSubscription.StreamReader source = new ByteToAudioEventSubscription.StreamReader() {
+            @Override
+            public int read(byte[] b) {
+                return in.read(b, 0, b.length);
+            }
+
+            @Override
+            public int read(ByteBuffer b) {
+                // Odd lengths leave partial frames for the encoder to carry.
+                int n = in.read(b.array(), b.arrayOffset() + b.position(), Math.min(b.remaining(), 999));
+                if (n > 0) {
+                    b.position(b.position() + n);
+                }
+                return n;
+            }
+
+            @Override
+            public StartStreamTranscriptionRequest getTranscriptionRequest() {
+                return request;
+            }
+
+            @Override
+            public void onResubscribe() {
+                in.reset();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public String label() {
+                return "flac";
+            }
+        };
+        FlacEncodingStreamReader reader = new FlacEncodingStreamReader(source, null);
+        if (reader.getTranscriptionRequest().mediaEncoding() != MediaEncoding.FLAC) {
+            throw new AssertionError("Request not rewritten to FLAC");
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(SAMPLE_RATE / 10 * channels * 2);
+        if (retry) {
+            for (int i = 0; i < 20; i++) {
+                reader.read(chunk.clear());
+            }
+            reader.onResubscribe();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int n;
+        while ((n = reader.read(chunk.clear())) > 0) {
+            out.write(chunk.array(), 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static ByteBuffer toBytes(short[] pcm) {
+        ByteBuffer buffer = ByteBuffer.allocate(pcm.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (short sample : pcm) {
+            buffer.putShort(sample);
+        }
+        return buffer;
+    }
+
+    private static void check(int channels, short[] pcm, byte[] flac, String what) {
+        short[] decoded = new Decoder(flac).decode(channels);
+        if (!Arrays.equals(pcm, decoded)) {
+            throw new AssertionError(channels + " channel(s), " + what + ": decoded " + decoded.length
+                    + " samples differ from the " + pcm.length + " encoded");
+        }
+    }
+
+    /**
+     * Decoder of the subset of FLAC the encoder writes.
+     */
+    private static final class Decoder {
+        private final byte[] data;
+        private long bit;
+
+        Decoder(byte[] data) {
+            this.data = data;
+        }
+
+        short[] decode(int channels) {
+            expect(bits(32) == 0x664c6143, "fLaC marker");
+            expect(bits(1) == 1 && bits(7) == 0 && bits(24) == 34, "a single STREAMINFO block");
+            // Block and frame sizes
+            bit += 16 + 16 + 24 + 24;
+            expect(bits(20) == SAMPLE_RATE, "sample rate");
+            expect(bits(3) == channels - 1, "channel count");
+            expect(bits(5) == 15, "16 bits per sample");
+            // Total samples and MD5
+            bit += 36 + 128;
+            short[] out = new short[0];
+            int frames = 0;
+            while (bit / 8 < data.length) {
+                int start = (int) (bit / 8);
+                expect(bits(15) == 0x7ffc && bits(1) == 1, "variable block size sync code at byte " + start);
+                int blockCode = (int) bits(4);
+                expect(bits(4) == 0, "sample rate from STREAMINFO");
+                expect(bits(4) == channels - 1, "independent channels");
+                expect(bits(3) == 4 && bits(1) == 0, "16 bits per sample");
+                expect(utf8() == frames, "sample number " + frames);
+                int block;
+                if (blockCode == 6) {
+                    block = (int) bits(8) + 1;
+                } else {
+                    expect(blockCode == 7, "block size code");
+                    block = (int) bits(16) + 1;
+                }
+                int headerEnd = (int) (bit / 8);
+                expect(bits(8) == crc(data, start, headerEnd, 8), "header CRC-8");
+                int[][] samples = new int[channels][];
+                for (int c = 0; c < channels; c++) {
+                    samples[c] = subframe(block);
+                }
+                bit = (bit + 7) & ~7;
+                int frameEnd = (int) (bit / 8);
+                expect(bits(16) == crc(data, start, frameEnd, 16), "frame CRC-16");
+                if (out.length < (frames + block) * channels) {
+                    out = Arrays.copyOf(out, Math.max(2 * out.length, (frames + block) * channels));
+                }
+                for (int f = 0; f < block; f++) {
+                    for (int c = 0; c < channels; c++) {
+                        out[(frames + f) * channels + c] = (short) samples[c][f];
+                    }
+                }
+                frames += block;
+            }
+            return Arrays.copyOf(out, frames * channels);
+        }
+
+        private int[] subframe(int block) {
+            expect(bits(1) == 0, "subframe padding");
+            int type = (int) bits(6);
+            expect(bits(1) == 0, "no wasted bits");
+            int[] x = new int[block];
+            if (type == 0) {
+                Arrays.fill(x, signed(16));
+            } else if (type == 1) {
+                for (int i = 0; i < block; i++) {
+                    x[i] = signed(16);
+                }
+            } else if (type >= 8 && type <= 12) {
+                int order = type - 8;
+                for (int i = 0; i < order; i++) {
+                    x[i] = signed(16);
+                }
+                residual(x, block, order);
+                for (int i = order; i < block; i++) {
+                    x[i] += predict(x, i, order);
+                }
+            } else {
+                throw new AssertionError("Unexpected subframe type " + type);
+            }
+            return x;
+        }
+
+        private void residual(int[] x, int block, int order) {
+            expect(bits(2) == 0, "4 bit Rice parameters");
+            int partitionOrder = (int) bits(4);
+            int i = order;
+            for (int p = 0; p < 1 << partitionOrder; p++) {
+                int count = (block >> partitionOrder) - (p == 0 ? order : 0);
+                int k = (int) bits(4);
+                if (k == 15) {
+                    int width = (int) bits(5);
+                    for (int n = 0; n < count; n++) {
+                        x[i++] = width == 0 ? 0 : signed(width);
+                    }
+                    continue;
+                }
+                for (int n = 0; n < count; n++) {
+                    long q = 0;
+                    while (bits(1) == 0) {
+                        q++;
+                    }
+                    long u = q << k | bits(k);
+                    x[i++] = (int) (u >>> 1 ^ -(u & 1));
+                }
+            }
+        }
+
+        private static int predict(int[] x, int i, int order) {
+            switch (order) {
+                case 0:
+                    return 0;
+                case 1:
+                    return x[i - 1];
+                case 2:
+                    return 2 * x[i - 1] - x[i - 2];
+                case 3:
+                    return 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+                default:
+                    return 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+            }
+        }
+
+        private long utf8() {
+            int first = (int) bits(8);
+            if (first < 0x80) {
+                return first;
+            }
+            int extra = Integer.numberOfLeadingZeros(~first << 24) - 1;
+            long value = first & (0x7f >> (extra + 1));
+            for (int i = 0; i < extra; i++) {
+                int next = (int) bits(8);
+                expect((next & 0xc0) == 0x80, "UTF-8 continuation byte");
+                value = value << 6 | (next & 0x3f);
+            }
+            return value;
+        }
+
+        private int signed(int count) {
+            long value = bits(count);
+            return (int) (value << (64 - count) >> (64 - count));
+        }
+
+        private long bits(int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++, bit++) {
+                expect(bit / 8 < data.length, "more data");
+                value = value << 1 | (data[(int) (bit / 8)] >> (7 - bit % 8) & 1);
+            }
+            return value;
+        }
+
+        /**
+         * CRC-8 (polynomial 0x07) or CRC-16 (0x8005) of {@code data[from, to)}, computed bit by bit so it does not
+         * share the tables of the encoder.
+         */
+        private static long crc(byte[] data, int from, int to, int width) {
+            int polynomial = width == 8 ? 0x07 : 0x8005;
+            int top = 1 << (width - 1);
+            int mask = (1 << width) - 1;
+            int crc = 0;
+            for (int i = from; i < to; i++) {
+                crc ^= (data[i] & 0xff) << (width - 8);
+                for (int b = 0; b < 8; b++) {
+                    crc = (crc & top) != 0 ? (crc << 1 ^ polynomial) & mask : crc << 1 & mask;
+                }
+            }
+            return crc;
+        }
+
+        private static void expect(boolean condition, String what) {
+            if (!condition) {
+                throw new AssertionError("Expected " + what);
+            }
+        }
+    }
+}
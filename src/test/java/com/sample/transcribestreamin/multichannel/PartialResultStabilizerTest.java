@@ -0,0 +1,143 @@
+package com.sample.transcribestreamin.multichannel;
+
+import software.amazon.awssdk.services.transcribestreaming.model.Alternative;
+import software.amazon.awssdk.services.transcribestreaming.model.Item;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Checks the deltas {@link PartialResultStabilizer} emits: only the changed words of each partial result, words
+ * becoming stable after surviving partial results, a separate stable prefix per speaker, the final result
+ * reconciling stable words and closing the result, and a result left open being closed when another starts.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.sample.transcribestreamin.multichannel.PartialResultStabilizerTest
+ * </pre>
+ */
+public class PartialResultStabilizerTest {
+    private static final List<TranscriptDelta> deltas = new ArrayList<>();
+
+    public static void main(String[] args) {
+        checkDeltas();
+        checkFinalReset();
+        checkSpeakers();
+        checkReplacedResult();
+        System.out.println("Stabilizer checks passed");
+    }
+
+    private static void checkDeltas() {
+        PartialResultStabilizer stabilizer = stabilizer(2);
+        stabilizer.onPartial(result("r1", "ch_0", true, word("hello", null)));
+        expect(null, 0, "hello", 0, false);
+        stabilizer.onPartial(result("r1", "ch_0", true, word("hello", null), word("word", null)));
+        expect(null, 0, "word", 0, false);
+        // "hello" has now survived two partial results.
+        stabilizer.onPartial(result("r1", "ch_0", true, word("hello", null), word("world", null)));
+        expect(null, 1, "world", 1, false);
+        stabilizer.onPartial(result("r1", "ch_0", true, word("hello", null), word("world", null)));
+        expectNone();
+        // "world" is stable after a second one, so a partial result that disagrees keeps it.
+        stabilizer.onPartial(result("r1", "ch_0", true, word("hello", null), word("world", null)));
+        expect(null, 0, "", 2, false);
+        stabilizer.onPartial(result("r1", "ch_0", true, word("yellow", null)));
+        expectNone();
+    }
+
+    private static void checkFinalReset() {
+        PartialResultStabilizer stabilizer = stabilizer(1);
+        stabilizer.onPartial(result("r1", "ch_0", true, word("hello", null), word("word", null)));
+        expect(null, 0, "hello word", 0, false);
+        stabilizer.onPartial(result("r1", "ch_0", true, word("hello", null), word("word", null)));
+        expect(null, 0, "", 2, false);
+        // The final result replaces stable words it disagrees with.
+        stabilizer.onFinal(result("r1", "ch_0", false, word("hello", null), word("world", null)));
+        expect(null, 1, "world", 2, true);
+        // The next result starts from an empty hypothesis.
+        stabilizer.onPartial(result("r2", "ch_0", true, word("again", null)));
+        expect(null, 0, "again", 0, false);
+    }
+
+    /**
+     * Words of another speaker coming in between do not reset the stable prefix of the first one.
+     */
+    private static void checkSpeakers() {
+        PartialResultStabilizer stabilizer = stabilizer(2);
+        stabilizer.onPartial(result("r1", "ch_0", true, word("hi", "spk_0"), word("yes", "spk_1")));
+        expect("spk_0", 0, "hi", 0, false);
+        expect("spk_1", 0, "yes", 0, false);
+        stabilizer.onPartial(result("r1", "ch_0", true,
+                word("hi", "spk_0"), word("there", "spk_0"), word("yes", "spk_1")));
+        expect("spk_0", 0, "there", 0, false);
+        stabilizer.onPartial(result("r1", "ch_0", true,
+                word("hi", "spk_0"), word("there", "spk_0"), word("yes", "spk_1"), word("sure", "spk_1")));
+        expect("spk_0", 0, "", 1, false);
+        expect("spk_1", 0, "sure", 1, false);
+        // The final result drops the second speaker and closes both.
+        stabilizer.onFinal(result("r1", "ch_0", false, word("hi", "spk_0"), word("there", "spk_0")));
+        expect("spk_1", 2, "", 0, true);
+        expect("spk_0", 0, "", 2, true);
+    }
+
+    private static void checkReplacedResult() {
+        PartialResultStabilizer stabilizer = stabilizer(2);
+        stabilizer.onPartial(result("r1", "ch_1", true, word("lost", null), word("words", null)));
+        expect(null, 0, "lost words", 0, false);
+        stabilizer.onPartial(result("r2", "ch_1", true, word("replayed", null)));
+        expect(null, 2, "", 0, true);
+        expect(null, 0, "replayed", 0, false);
+        expectNone();
+    }
+
+    private static PartialResultStabilizer stabilizer(int stableAfterUpdates) {
+        deltas.clear();
+        return new PartialResultStabilizer("session", Collections.singletonList(deltas::add), stableAfterUpdates);
+    }
+
+    private static Result result(String resultId, String channel, boolean partial, Item... items) {
+        return Result.builder()
+                .resultId(resultId)
+                .channelId(channel)
+                .isPartial(partial)
+                .alternatives(Alternative.builder().items(items).build())
+                .build();
+    }
+
+    private static Item word(String content, String speaker) {
+        return Item.builder().content(content).speaker(speaker).build();
+    }
+
+    /**
+     * Takes the next delta and checks it.
+     *
+     * @param added words added, separated by spaces
+     */
+    private static void expect(String speaker, int removed, String added, int stableWords, boolean isFinal) {
+        if (deltas.isEmpty()) {
+            throw new AssertionError("No delta, expected one for " + speaker + " adding '" + added + "'");
+        }
+        TranscriptDelta delta = deltas.remove(0);
+        List<String> words = new ArrayList<>();
+        for (Item item : delta.added()) {
+            words.add(item.content());
+        }
+        if (!Objects.equals(speaker, delta.speaker()) || delta.removed() != removed
+                || !String.join(" ", words).equals(added) || delta.stableWords() != stableWords
+                || delta.isFinal() != isFinal) {
+            throw new AssertionError("Delta " + delta.speaker() + " -" + delta.removed() + " +" + words + " stable "
+                    + delta.stableWords() + (delta.isFinal() ? " final" : "") + ", expected " + speaker + " -"
+                    + removed + " +[" + added + "] stable " + stableWords + (isFinal ? " final" : ""));
+        }
+    }
+
+    private static void expectNone() {
+        if (!deltas.isEmpty()) {
+            TranscriptDelta delta = deltas.get(0);
+            throw new AssertionError("Unexpected delta -" + delta.removed() + " +" + delta.added().size()
+                    + " stable " + delta.stableWords());
+        }
+    }
+}
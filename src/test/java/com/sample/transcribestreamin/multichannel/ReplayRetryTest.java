@@ -0,0 +1,153 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponse;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a session replaying audio with {@link ReplayableStreamReader} and {@link ReplayTranscriptionBehavior}
+ * keeps its final results continuous when the connection drops mid-stream. {@link FakeTranscribeStreamingClient}
+ * drops the first two streams at planned points; {@link TranscribeStreamingRetryClient} retries them and the
+ * publisher rewinds the reader, as {@link AudioStreamPublisher} does.
+ * <p>
+ * On each channel the final results must cover the audio from its start to its end without a gap, and none may
+ * repeat audio an earlier final result of the channel already covered. A result kept after a retry may start
+ * before the previous one ended, since the replay resumes from the earliest point any channel still needs.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.sample.transcribestreamin.multichannel.ReplayRetryTest
+ * </pre>
+ */
+public class ReplayRetryTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int AUDIO_SECONDS = 20;
+    private static final int CHUNK_SIZE = 3200;
+    private static final double WORDS_PER_SECOND = 2.5;
+    private static final double EPSILON_SECONDS = 0.01;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(3);
+        byte[] agent = new byte[SAMPLE_RATE * 2 * AUDIO_SECONDS];
+        byte[] caller = new byte[SAMPLE_RATE * 2 * AUDIO_SECONDS];
+        random.nextBytes(agent);
+        random.nextBytes(caller);
+
+        FakeTranscribeStreamingClient fake = new FakeTranscribeStreamingClient();
+        fake.setRealTimeFactor(0);
+        fake.setPartialIntervalMillis(250);
+        fake.setResultSeconds(2);
+        fake.setWordsPerSecond(WORDS_PER_SECOND);
+        fake.disconnectAt(7.3, 4.1);
+        TranscribeStreamingRetryClient retryClient = new TranscribeStreamingRetryClient(fake);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ReplayableStreamReader reader = new ReplayableStreamReader(
+                    new SyntheticStreamReader(agent, caller, SAMPLE_RATE, "replay"), 30, false);
+            FinalResults finals = new FinalResults();
+            retryClient.startStreamTranscription(reader.getTranscriptionRequest(),
+                    new RewindingPublisher(reader, executor),
+                    new ReplayTranscriptionBehavior(finals, reader))
+                    .get(30, TimeUnit.SECONDS);
+            if (fake.getDisconnects() != 2 || fake.getCompleted() != 1) {
+                throw new AssertionError("Expected 2 dropped streams and 1 completed: " + fake);
+            }
+            int count = 0;
+            for (Map.Entry<String, List<Result>> channel : finals.byChannel.entrySet()) {
+                checkContinuous(channel.getKey(), channel.getValue());
+                count += channel.getValue().size();
+            }
+            if (finals.byChannel.size() != 2) {
+                throw new AssertionError("Final results on " + finals.byChannel.keySet() + ", expected 2 channels");
+            }
+            System.out.println(count + " final results continuous over " + fake.getStreams() + " streams");
+        } finally {
+            executor.shutdownNow();
+            retryClient.close();
+            fake.close();
+        }
+    }
+
+    private static void checkContinuous(String channel, List<Result> results) {
+        double end = 0;
+        for (Result result : results) {
+            if (result.startTime() > end + EPSILON_SECONDS) {
+                throw new AssertionError(channel + ": gap from " + end + " s to " + result.startTime() + " s");
+            }
+            if (result.endTime() <= end + EPSILON_SECONDS) {
+                throw new AssertionError(channel + ": result " + result.startTime() + " s to " + result.endTime()
+                        + " s repeats audio finalized up to " + end + " s");
+            }
+            end = result.endTime();
+        }
+        // Audio too short for a word gets no result.
+        if (end > AUDIO_SECONDS + EPSILON_SECONDS || AUDIO_SECONDS - end > 1 / WORDS_PER_SECOND + EPSILON_SECONDS) {
+            throw new AssertionError(channel + ": final results end at " + end + " s, audio at " + AUDIO_SECONDS + " s");
+        }
+    }
+
+    /**
+     * Subscribes each attempt to the shared reader, stopping the previous attempt and rewinding the reader first.
+     */
+    private static final class RewindingPublisher implements Publisher<AudioStream> {
+        private final ReplayableStreamReader reader;
+        private final ExecutorService executor;
+        private final AudioBufferPool pool = new AudioBufferPool(4);
+        private ByteToAudioEventSubscription subscription;
+
+        private RewindingPublisher(ReplayableStreamReader reader, ExecutorService executor) {
+            this.reader = reader;
+            this.executor = executor;
+        }
+
+        @Override
+        public synchronized void subscribe(Subscriber<? super AudioStream> s) {
+            if (subscription != null) {
+                subscription.stopReading();
+                reader.onResubscribe();
+            }
+            subscription = new ByteToAudioEventSubscription(s, executor, CHUNK_SIZE, reader, pool);
+            s.onSubscribe(subscription);
+        }
+    }
+
+    /**
+     * Final results in the order they are delivered, by channel.
+     */
+    private static final class FinalResults implements StreamTranscriptionBehavior {
+        private final Map<String, List<Result>> byChannel = new TreeMap<>();
+
+        @Override
+        public synchronized void onStream(TranscriptResultStream e) {
+            for (Result result : ((TranscriptEvent) e).transcript().results()) {
+                if (!result.isPartial()) {
+                    byChannel.computeIfAbsent(result.channelId(), key -> new ArrayList<>()).add(result);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+        }
+
+        @Override
+        public void onResponse(StartStreamTranscriptionResponse r) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.sample.transcribestreamin.multichannel;
+
+import software.amazon.awssdk.services.transcribestreaming.model.Alternative;
+import software.amazon.awssdk.services.transcribestreaming.model.Item;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponse;
+import software.amazon.awssdk.services.transcribestreaming.model.Transcript;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks how {@link SilenceGatingStreamReader#toRecordingSeconds} maps stream time back to recording time: a start
+ * exactly at a cut maps past the skipped audio and an end exactly at it maps before, a cut at the very start of the
+ * stream, cuts with one window sent between them, and silent windows skipped one after another counting as one
+ * cut. Then checks that {@link SilenceGatingTranscriptionBehavior} maps results and their words the same way,
+ * keeps punctuation at a cut with the word before it, and passes on events ending before the first cut as they are.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.sample.transcribestreamin.multichannel.SilenceGatingTest
+ * </pre>
+ */
+public class SilenceGatingTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int WINDOW_FRAMES = SAMPLE_RATE * SilenceGatingStreamReader.WINDOW_MILLIS / 1000;
+    private static final double WINDOW = SilenceGatingStreamReader.WINDOW_MILLIS / 1000.0;
+    private static final double EPSILON_SECONDS = 1e-9;
+
+    public static void main(String[] args) throws IOException {
+        // Nothing of a silence is kept, so every silent window is skipped. Recording windows 0, 2, 4 and 5 are
+        // skipped, leaving cuts at stream windows 0, 1 and 2 that have skipped 1, 2 and 4 windows up to them.
+        SilenceGatingStreamReader reader = gated("SASASSA", 0);
+        checkMapping(reader, 0, true, 1);
+        checkMapping(reader, 0, false, 0);
+        checkMapping(reader, 0.5, true, 1.5);
+        checkMapping(reader, 1, true, 3);
+        checkMapping(reader, 1, false, 2);
+        checkMapping(reader, 1.5, true, 3.5);
+        checkMapping(reader, 2, true, 6);
+        checkMapping(reader, 2, false, 4);
+        checkMapping(reader, 3, false, 7);
+        checkMapping(reader, 3, true, 7);
+
+        // With 20 ms kept, the first silent window is sent, the second is held and the rest are skipped, one cut.
+        reader = gated("ASSSSSA", 20);
+        checkMapping(reader, 2, false, 2);
+        checkMapping(reader, 2, true, 5);
+        checkMapping(reader, 3.5, true, 6.5);
+
+        checkBehavior();
+        System.out.println("Silence gating checks passed");
+    }
+
+    private static void checkBehavior() throws IOException {
+        SilenceGatingStreamReader reader = gated("AASSA", 0);
+        List<TranscriptEvent> delivered = new ArrayList<>();
+        SilenceGatingTranscriptionBehavior behavior = new SilenceGatingTranscriptionBehavior(
+                new Delivered(delivered), reader);
+
+        // Before the cut at stream window 2 nothing moves, so the event is passed on as it is.
+        TranscriptEvent early = event(result(0, 1.5, 0.2, 1.5));
+        behavior.onStream(early);
+        check(delivered.get(0) == early, "an event ending before the first cut is not rebuilt");
+
+        // A word ending at the cut and the punctuation after it stay before it, the next word moves past it.
+        behavior.onStream(event(result(1, 3, 1, 2, 2, 2, 2, 3)));
+        Result mapped = delivered.get(1).transcript().results().get(0);
+        checkTime(mapped.startTime(), 1, "result start before the cut");
+        checkTime(mapped.endTime(), 5, "result end after the cut");
+        List<Item> items = mapped.alternatives().get(0).items();
+        checkTime(items.get(0).endTime(), 2, "word end at the cut");
+        checkTime(items.get(1).startTime(), 2, "punctuation start at the cut");
+        checkTime(items.get(1).endTime(), 2, "punctuation end at the cut");
+        checkTime(items.get(2).startTime(), 4, "word start at the cut");
+        checkTime(items.get(2).endTime(), 5, "word end after the cut");
+    }
+
+    /**
+     * @param windows one letter per window of two channel audio: A for speech on the first channel, S for silence
+     */
+    private static SilenceGatingStreamReader gated(String windows, int keepMillis) throws IOException {
+        byte[] agent = new byte[windows.length() * WINDOW_FRAMES * 2];
+        byte[] caller = new byte[agent.length];
+        for (int w = 0; w < windows.length(); w++) {
+            if (windows.charAt(w) == 'A') {
+                for (int i = w * WINDOW_FRAMES; i < (w + 1) * WINDOW_FRAMES; i++) {
+                    // A square wave of amplitude 5000.
+                    short sample = (short) (i % 2 == 0 ? 5000 : -5000);
+                    agent[2 * i] = (byte) sample;
+                    agent[2 * i + 1] = (byte) (sample >> 8);
+                }
+            }
+        }
+        SilenceGatingStreamReader reader = new SilenceGatingStreamReader(
+                new SyntheticStreamReader(agent, caller, SAMPLE_RATE, "gating"), 1000, keepMillis);
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        while (reader.read(buffer) != -1) {
+            buffer.clear();
+        }
+        return reader;
+    }
+
+    /**
+     * @param streamWindows    stream time in windows
+     * @param recordingWindows expected recording time in windows
+     */
+    private static void checkMapping(SilenceGatingStreamReader reader, double streamWindows, boolean start,
+                                     double recordingWindows) {
+        checkTime(reader.toRecordingSeconds(streamWindows * WINDOW, start), recordingWindows,
+                (start ? "start" : "end") + " at stream window " + streamWindows);
+    }
+
+    private static void checkTime(Double seconds, double expectedWindows, String what) {
+        if (seconds == null || Math.abs(seconds - expectedWindows * WINDOW) > EPSILON_SECONDS) {
+            throw new AssertionError(what + " maps to " + seconds + " s, expected " + expectedWindows * WINDOW + " s");
+        }
+    }
+
+    /**
+     * @param itemTimes start and end of each item, in stream windows
+     */
+    private static Result result(double start, double end, double... itemTimes) {
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < itemTimes.length; i += 2) {
+            items.add(Item.builder()
+                    .content("word")
+                    .startTime(itemTimes[i] * WINDOW)
+                    .endTime(itemTimes[i + 1] * WINDOW)
+                    .build());
+        }
+        return Result.builder()
+                .resultId("r")
+                .channelId("ch_0")
+                .isPartial(false)
+                .startTime(start * WINDOW)
+                .endTime(end * WINDOW)
+                .alternatives(Alternative.builder().items(items).build())
+                .build();
+    }
+
+    private static TranscriptEvent event(Result result) {
+        return TranscriptEvent.builder().transcript(Transcript.builder().results(result).build()).build();
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+
+    private static final class Delivered implements StreamTranscriptionBehavior {
+        private final List<TranscriptEvent> events;
+
+        private Delivered(List<TranscriptEvent> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onStream(TranscriptResultStream e) {
+            events.add((TranscriptEvent) e);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+        }
+
+        @Override
+        public void onResponse(StartStreamTranscriptionResponse r) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.sample.transcribestreamin.multichannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the streaming pipeline against {@link FakeTranscribeStreamingClient}, without the real service.
+ * <p>
+ * Runs {@code loadtest.sessions} sessions of {@code loadtest.audioSeconds} of synthetic two channel audio through
+ * {@link StreamTranscriber}, keeping {@code loadtest.concurrency} of them in flight, and reports sessions per
+ * second, CPU time per session, heap and GC, result latency, session outcomes and the failures the fake client
+ * injected. Sessions beyond the admission limit queue in {@link SessionAdmissionController}, as in production.
+ * <pre>
+ * mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--loadtest.sessions=1000 --loadtest.concurrency=200 \
+ *     --pacing.realTimeFactor=20 --fake.realTimeFactor=20 --fake.disconnectsPerHour=2"
+ * </pre>
+ * Not a Spring component, so applications scanning this package never pick up the fake client.
+ */
+@EnableAutoConfiguration
+@ComponentScan("com.sample.transcribestreamin.multichannel")
+public class StreamingLoadTest implements CommandLineRunner {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingLoadTest.class);
+    @Autowired
+    private StreamTranscriber streamTranscriber;
+    @Autowired
+    private FakeTranscribeStreamingClient fakeClient;
+    @Autowired
+    private StreamingMetrics metrics;
+    @Value("${loadtest.sessions:100}")
+    private int sessions;
+    @Value("${loadtest.concurrency:50}")
+    private int concurrency;
+    @Value("${loadtest.audioSeconds:60}")
+    private double audioSeconds;
+    @Value("${loadtest.sampleRate:16000}")
+    private int sampleRate;
+    @Value("${loadtest.reportSeconds:10}")
+    private int reportSeconds;
+
+    public static void main(String[] args) {
+        SpringApplication application = new SpringApplication(StreamingLoadTest.class);
+        // Per result logging would dominate the profile; the report is logged by this class.
+        application.setDefaultProperties(Map.of(
+                "logging.level.com.sample.transcribestreamin", "WARN",
+                "logging.level.com.sample.transcribestreamin.multichannel.StreamingLoadTest", "INFO"));
+        System.exit(SpringApplication.exit(application.run(args)));
+    }
+
+    @Bean
+    public FakeTranscribeStreamingClient fakeTranscribeStreamingClient(
+            @Value("${fake.realTimeFactor:1}") double realTimeFactor,
+            @Value("${fake.partialIntervalMillis:500}") int partialIntervalMillis,
+            @Value("${fake.resultSeconds:5}") double resultSeconds,
+            @Value("${fake.limitExceededRate:0}") double limitExceededRate,
+            @Value("${fake.badRequestRate:0}") double badRequestRate,
+            @Value("${fake.disconnectsPerHour:0}") double disconnectsPerHour) {
+        FakeTranscribeStreamingClient client = new FakeTranscribeStreamingClient();
+        client.setRealTimeFactor(realTimeFactor);
+        client.setPartialIntervalMillis(partialIntervalMillis);
+        client.setResultSeconds(resultSeconds);
+        client.setLimitExceededRate(limitExceededRate);
+        client.setBadRequestRate(badRequestRate);
+        client.setDisconnectsPerHour(disconnectsPerHour);
+        return client;
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        byte[] agent = SyntheticAudio.pcm(sampleRate, audioSeconds, 1);
+        byte[] caller = SyntheticAudio.pcm(sampleRate, audioSeconds, 2);
+        LOG.info("Running {} sessions of {} s, {} at a time, fake client {}", sessions, audioSeconds, concurrency, fakeClient);
+
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch finished = new CountDownLatch(sessions);
+        Map<String, AtomicLong> outcomes = new ConcurrentHashMap<>();
+        Usage before = Usage.now();
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(
+                StreamingExecutorConfiguration.daemonThreads("loadtest-progress-"));
+        progress.scheduleAtFixedRate(() -> LOG.info("{} of {} sessions done, {} in flight, heap {} MB",
+                        sessions - finished.getCount(), sessions, concurrency - inFlight.availablePermits(),
+                        usedHeap() >> 20),
+                reportSeconds, reportSeconds, TimeUnit.SECONDS);
+
+        for (int i = 0; i < sessions; i++) {
+            inFlight.acquire();
+            CompletableFuture<Void> result;
+            try {
+                result = streamTranscriber.transcribe(new SyntheticStreamReader(agent, caller, sampleRate, "load-" + i));
+            } catch (Exception e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+            result.whenComplete((r, e) -> {
+                String outcome = e == null ? "success" : TranscribeStreamingRetryClient.unwrap(e).getClass().getSimpleName();
+                outcomes.computeIfAbsent(outcome, k -> new AtomicLong()).incrementAndGet();
+                inFlight.release();
+                finished.countDown();
+            });
+        }
+        finished.await();
+        progress.shutdownNow();
+        Usage after = Usage.now();
+        report(before, after, outcomes);
+    }
+
+    private void report(Usage before, Usage after, Map<String, AtomicLong> outcomes) {
+        double wallSeconds = (after.nanoTime - before.nanoTime) / 1e9;
+        double cpuSeconds = (after.cpuNanos - before.cpuNanos) / 1e9;
+        System.gc();
+        LOG.info("Sessions: {} in {} s, {} sessions/s, {} s of audio per second", sessions, format(wallSeconds),
+                format(sessions / wallSeconds), format(sessions * audioSeconds / wallSeconds));
+        LOG.info("CPU: {} s, {} ms per session, {} ms per minute of audio, {} cores busy", format(cpuSeconds),
+                format(cpuSeconds * 1000 / sessions), format(cpuSeconds * 1000 / (sessions * audioSeconds / 60)),
+                format(cpuSeconds / wallSeconds));
+        LOG.info("Memory: peak heap {} MB, heap after GC {} MB, {} GCs taking {} ms, peak threads {}",
+                after.peakHeap >> 20, usedHeap() >> 20, after.gcCount - before.gcCount,
+                after.gcMillis - before.gcMillis, ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        LOG.info("Final result latency: mean {} ms, max {} ms over {} results",
+                format(metrics.resultLatency(true).mean(TimeUnit.MILLISECONDS)),
+                format(metrics.resultLatency(true).max(TimeUnit.MILLISECONDS)), metrics.resultLatency(true).count());
+        LOG.info("Outcomes: {}", outcomes);
+        LOG.info("Fake client: {}", fakeClient);
+    }
+
+    private static String format(double value) {
+        return String.format("%.1f", value);
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Process wide CPU, GC and heap figures at one point of the run.
+     */
+    private static final class Usage {
+        private long nanoTime;
+        private long cpuNanos;
+        private long gcCount;
+        private long gcMillis;
+        private long peakHeap;
+
+        private static Usage now() {
+            Usage usage = new Usage();
+            usage.nanoTime = System.nanoTime();
+            java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                usage.cpuNanos = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            }
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                usage.gcCount += Math.max(0, gc.getCollectionCount());
+                usage.gcMillis += Math.max(0, gc.getCollectionTime());
+            }
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    usage.peakHeap += pool.getPeakUsage().getUsed();
+                    // The peak of the next sample covers the run only.
+                    pool.resetPeakUsage();
+                }
+            }
+            return usage;
+        }
+    }
+}
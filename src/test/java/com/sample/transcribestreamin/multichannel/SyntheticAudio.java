@@ -0,0 +1,69 @@
+package com.sample.transcribestreamin.multichannel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Speech-like 16 bit mono PCM for load tests: voiced bursts of one to four seconds, a few harmonics of a pitch
+ * between 100 and 250 Hz, separated by near silent pauses. Unlike random bytes, it has the pauses and spectrum
+ * that silence detection and lossless compression depend on.
+ */
+public final class SyntheticAudio {
+    private static final int HEADER_BYTES = 44;
+
+    private SyntheticAudio() {
+    }
+
+    /**
+     * @param seed seed of the bursts and pauses, so channels talk at different times
+     * @return 16 bit little endian samples
+     */
+    public static byte[] pcm(int sampleRate, double seconds, long seed) {
+        int samples = (int) (sampleRate * seconds);
+        ByteBuffer out = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(seed);
+        int i = 0;
+        boolean voiced = random.nextBoolean();
+        while (i < samples) {
+            double length = voiced ? 1 + 3 * random.nextDouble() : 0.3 + 1.7 * random.nextDouble();
+            int end = Math.min(samples, i + (int) (length * sampleRate));
+            double pitch = 100 + 150 * random.nextDouble();
+            double phase = 0;
+            for (int start = i; i < end; i++) {
+                double noise = random.nextGaussian();
+                double sample;
+                if (voiced) {
+                    // Rises and falls over the burst, like a phrase.
+                    double envelope = Math.sin(Math.PI * (i - start) / (end - start));
+                    phase += 2 * Math.PI * pitch / sampleRate;
+                    sample = envelope * (3000 * Math.sin(phase) + 1500 * Math.sin(2 * phase) + 700 * Math.sin(3 * phase))
+                            + 200 * noise;
+                } else {
+                    sample = 30 * noise;
+                }
+                out.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sample))));
+            }
+            voiced = !voiced;
+        }
+        return out.array();
+    }
+
+    /**
+     * @return {@link #pcm} with a canonical 44 byte WAV header
+     */
+    public static byte[] wav(int sampleRate, double seconds, long seed) {
+        byte[] pcm = pcm(sampleRate, seconds, seed);
+        ByteBuffer wav = ByteBuffer.allocate(HEADER_BYTES + pcm.length).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put(new byte[]{'R', 'I', 'F', 'F'}).putInt(36 + pcm.length).put(new byte[]{'W', 'A', 'V', 'E'});
+        wav.put(new byte[]{'f', 'm', 't', ' '}).putInt(16)
+                .putShort((short) 1) // PCM
+                .putShort((short) 1) // channels
+                .putInt(sampleRate)
+                .putInt(sampleRate * 2) // byte rate
+                .putShort((short) 2) // block align
+                .putShort((short) 16);
+        wav.put(new byte[]{'d', 'a', 't', 'a'}).putInt(pcm.length).put(pcm);
+        return wav.array();
+    }
+}
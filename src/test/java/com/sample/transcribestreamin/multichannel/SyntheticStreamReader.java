@@ -0,0 +1,52 @@
+package com.sample.transcribestreamin.multichannel;
+
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Two channel reader over blocks of {@link SyntheticAudio}, interleaved as the S3 listener does. The blocks are
+ * shared by all sessions and never copied, so memory does not grow with the number of sessions.
+ */
+class SyntheticStreamReader implements ByteToAudioEventSubscription.StreamReader {
+    private final InterleaveInputStream stream;
+    private final StartStreamTranscriptionRequest request;
+    private final String label;
+
+    SyntheticStreamReader(byte[] agent, byte[] caller, int sampleRate, String label) {
+        this.stream = new InterleaveInputStream(new ByteArrayInputStream(agent), new ByteArrayInputStream(caller));
+        this.request = TranscribeHelper.getPcmRequest(sampleRate, 2);
+        this.label = label;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return stream.read(b);
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        return stream.read(buffer);
+    }
+
+    @Override
+    public StartStreamTranscriptionRequest getTranscriptionRequest() {
+        return request;
+    }
+
+    @Override
+    public void close() {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // Nothing to release for in-memory streams.
+        }
+    }
+
+    @Override
+    public String label() {
+        return label;
+    }
+}